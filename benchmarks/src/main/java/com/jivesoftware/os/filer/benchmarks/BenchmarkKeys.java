@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.io.FilerIO;
+import java.util.Random;
+
+/**
+ * Distinct fixed width keys in random order. The leading 8 bytes hold a positive big endian sequence so keys never collide and
+ * always sort after an all zero head key, the remaining bytes are random.
+ *
+ * @author jonathan.colt
+ */
+public class BenchmarkKeys {
+
+    private BenchmarkKeys() {
+    }
+
+    /**
+     * @param count number of keys
+     * @param keyWidth at least 8
+     * @param first sequence of the first key, keys generated with disjoint [first, first + count) ranges never collide
+     * @param seed
+     */
+    public static byte[][] create(int count, int keyWidth, long first, long seed) {
+        if (keyWidth < 8) {
+            throw new IllegalArgumentException("keyWidth must be at least 8: " + keyWidth);
+        }
+        Random random = new Random(seed);
+        byte[][] keys = new byte[count][keyWidth];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(keys[i]);
+            System.arraycopy(FilerIO.longBytes(first + i + 1), 0, keys[i], 0, 8);
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte[] swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the shaded benchmarks jar. Behaves exactly like org.openjdk.jmh.Main except results are written as JSON to
+ * filer-benchmarks-{version}.json unless -rf or -rff say otherwise, so every release leaves a machine readable result behind which
+ * can be diffed against the last one.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar                                  # everything
+ * java -jar benchmarks/target/benchmarks.jar ChunkStoreBenchmark -p factory=MMAP
+ * </pre>
+ *
+ * @author jonathan.colt
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        if (!argList.contains("-rf")) {
+            argList.add(0, "-rf");
+            argList.add(1, "json");
+        }
+        if (!argList.contains("-rff")) {
+            String version = Benchmarks.class.getPackage().getImplementationVersion();
+            argList.add(0, "-rff");
+            argList.add(1, version == null ? "filer-benchmarks.json" : "filer-benchmarks-" + version + ".json");
+        }
+        org.openjdk.jmh.Main.main(argList.toArray(new String[argList.size()]));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.DirectArenaByteBufferFactory;
+import com.jivesoftware.os.filer.io.DirectByteBufferFactory;
+import com.jivesoftware.os.filer.io.FileBackedMemMappedByteBufferFactory;
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * The ByteBufferFactory implementations every suite runs against. Use as a JMH @Param so results carry the factory they were
+ * measured with.
+ *
+ * @author jonathan.colt
+ */
+public enum BufferFactoryType {
+
+    HEAP,
+    DIRECT,
+    ARENA,
+    MMAP;
+
+    /**
+     * @param directory only used by MMAP, see {@link #createDirectory()}
+     * @param prefix names the files MMAP maps, must be unique within the directory
+     */
+    public ByteBufferFactory create(File directory, String prefix) {
+        switch (this) {
+            case HEAP:
+                return new HeapByteBufferFactory();
+            case DIRECT:
+                return new DirectByteBufferFactory();
+            case ARENA:
+                return new DirectArenaByteBufferFactory(16 * 1024 * 1024, 4L * 1024 * 1024 * 1024);
+            default:
+                return new FileBackedMemMappedByteBufferFactory(prefix, 0, directory);
+        }
+    }
+
+    public static File createDirectory() throws IOException {
+        return Files.createTempDirectory("filer-benchmarks").toFile();
+    }
+
+    public static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.chunk.store;
+
+import com.jivesoftware.os.filer.benchmarks.BufferFactoryType;
+import com.jivesoftware.os.filer.io.FilerIO;
+import com.jivesoftware.os.filer.io.NoOpCreateFiler;
+import com.jivesoftware.os.filer.io.NoOpOpenFiler;
+import com.jivesoftware.os.filer.io.api.ChunkTransaction;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.io.chunk.ChunkStoreConfig;
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChunkStore.newChunk, execute and remove per chunk power and factory, each with one and four threads sharing the store.
+ *
+ * newChunk and remove are not steady state operations so they run as single shot batches: every thread creates or removes BATCH
+ * chunks per iteration and the per iteration fixtures put the store back where it was.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkStoreBenchmark {
+
+    private static final int BATCH = 1_000;
+    private static final int EXECUTE_CHUNKS = 1_024;
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final NoOpCreateFiler<ChunkFiler> CREATE_FILER = new NoOpCreateFiler<>();
+    private static final NoOpOpenFiler<ChunkFiler> OPEN_FILER = new NoOpOpenFiler<>();
+    private static final ChunkTransaction<Void, Long> READ_LONG = (monkey, filer, stackBuffer, lock) -> {
+        synchronized (lock) {
+            filer.seek(0);
+            return FilerIO.readLong(filer, "value", stackBuffer);
+        }
+    };
+
+    @Param({ "HEAP", "DIRECT", "ARENA", "MMAP" })
+    public BufferFactoryType factory;
+
+    @Param({ "4", "10", "16" })
+    public int chunkPower;
+
+    private File directory;
+    private ChunkStore chunkStore;
+    private long[] executeFPs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        directory = BufferFactoryType.createDirectory();
+        chunkStore = new ChunkStoreInitializer().create(factory.create(directory, "chunks"),
+            SEGMENT_SIZE,
+            ChunkStoreConfig.newBuilder().build(),
+            stackBuffer);
+        executeFPs = new long[EXECUTE_CHUNKS];
+        for (int i = 0; i < executeFPs.length; i++) {
+            executeFPs[i] = chunkStore.newChunk(FilerIO.chunkLength(chunkPower), CREATE_FILER, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        chunkStore.close();
+        chunkStore = null;
+        BufferFactoryType.deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+
+        final StackBuffer stackBuffer = new StackBuffer();
+        final long[] fps = new long[BATCH];
+        int count;
+    }
+
+    /**
+     * Chunks a thread created during an iteration, removed again once the iteration is over.
+     */
+    @State(Scope.Thread)
+    public static class Created extends Worker {
+
+        @TearDown(Level.Iteration)
+        public void removeAll(ChunkStoreBenchmark benchmark) throws Exception {
+            for (int i = 0; i < count; i++) {
+                benchmark.chunkStore.remove(fps[i], stackBuffer);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Chunks a thread removes during an iteration, created before the iteration starts.
+     */
+    @State(Scope.Thread)
+    public static class Removable extends Worker {
+
+        @Setup(Level.Iteration)
+        public void createAll(ChunkStoreBenchmark benchmark) throws Exception {
+            for (int i = 0; i < fps.length; i++) {
+                fps[i] = benchmark.chunkStore.newChunk(FilerIO.chunkLength(benchmark.chunkPower), CREATE_FILER, stackBuffer);
+            }
+            count = fps.length;
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeRemaining(ChunkStoreBenchmark benchmark) throws Exception {
+            while (count > 0) {
+                benchmark.chunkStore.remove(fps[--count], stackBuffer);
+            }
+        }
+    }
+
+    private long createOne(Created created) throws Exception {
+        long fp = chunkStore.newChunk(FilerIO.chunkLength(chunkPower), CREATE_FILER, created.stackBuffer);
+        created.fps[created.count++] = fp;
+        return fp;
+    }
+
+    private long removeOne(Removable removable) throws Exception {
+        long fp = removable.fps[--removable.count];
+        chunkStore.remove(fp, removable.stackBuffer);
+        return fp;
+    }
+
+    private long executeOne(Worker worker) throws Exception {
+        long fp = executeFPs[ThreadLocalRandom.current().nextInt(executeFPs.length)];
+        return chunkStore.execute(fp, OPEN_FILER, READ_LONG, worker.stackBuffer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @Threads(1)
+    public long newChunk(Created created) throws Exception {
+        return createOne(created);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @Threads(4)
+    public long newChunkThreads4(Created created) throws Exception {
+        return createOne(created);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @Threads(1)
+    public long remove(Removable removable) throws Exception {
+        return removeOne(removable);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @Threads(4)
+    public long removeThreads4(Removable removable) throws Exception {
+        return removeOne(removable);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long execute(Worker worker) throws Exception {
+        return executeOne(worker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long executeThreads4(Worker worker) throws Exception {
+        return executeOne(worker);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.FilerIO;
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.map.MapContext;
+import com.jivesoftware.os.filer.io.map.MapStore;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the acquireIfPresent + release pair ChunkStore.execute pays per access against the MapStore probe with byte[] keys
+ * ChunkCache used to do.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkCacheBenchmark {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    @Param({ "16", "1024", "65536" })
+    public int cachedChunks;
+
+    private final StackBuffer stackBuffer = new StackBuffer();
+    private long[] chunkFPs;
+    private int next;
+
+    private ChunkCache chunkCache;
+
+    private ByteBufferBackedFiler mapFiler;
+    private MapContext mapContext;
+    private Chunk<?>[] mapChunks;
+
+    @Setup
+    public void setup() throws IOException {
+        chunkFPs = new long[cachedChunks];
+        chunkCache = new ChunkCache();
+
+        long size = MapStore.INSTANCE.computeFilerSize(cachedChunks, 8, false, 0, false);
+        mapFiler = new ByteBufferBackedFiler(new HeapByteBufferFactory().allocate(new byte[] { 0 }, size));
+        mapContext = MapStore.INSTANCE.create(cachedChunks, 8, false, 0, false, mapFiler, stackBuffer);
+        mapChunks = new Chunk[mapContext.capacity];
+
+        for (int i = 0; i < cachedChunks; i++) {
+            long fp = 4_096L + i * 4_128L;
+            chunkFPs[i] = fp;
+            Chunk<Object> chunk = new Chunk<>(new Object(), fp, 12, fp + 32, fp + 4_128L);
+            chunkCache.set(fp, chunk, cachedChunks, stackBuffer);
+            long ai = MapStore.INSTANCE.add(mapFiler, mapContext, (byte) 1, FilerIO.longBytes(fp), EMPTY_PAYLOAD, stackBuffer);
+            mapChunks[(int) ai] = chunk;
+        }
+    }
+
+    private long nextFP() {
+        long fp = chunkFPs[next];
+        next = (next + 1) % chunkFPs.length;
+        return fp;
+    }
+
+    @Benchmark
+    public Object slotIndex() throws IOException {
+        long fp = nextFP();
+        Chunk<Object> chunk = chunkCache.acquireIfPresent(fp, stackBuffer);
+        chunkCache.release(fp, stackBuffer);
+        return chunk;
+    }
+
+    @Benchmark
+    public Object mapStore() throws IOException {
+        long fp = nextFP();
+        long ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(fp), stackBuffer);
+        Chunk<?> chunk = mapChunks[(int) ai];
+        chunk.acquisitions++;
+        ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(fp), stackBuffer);
+        mapChunks[(int) ai].acquisitions--;
+        return chunk;
+    }
+}
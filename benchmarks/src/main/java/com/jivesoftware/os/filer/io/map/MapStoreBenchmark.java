@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.map;
+
+import com.jivesoftware.os.filer.benchmarks.BenchmarkKeys;
+import com.jivesoftware.os.filer.benchmarks.BufferFactoryType;
+import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MapStore.add, get and remove over a map of MAX_COUNT entries filled to loadFactor with fixed width keys.
+ *
+ * add inserts BATCH absent keys and remove deletes BATCH present keys per single shot iteration, the per iteration fixtures undo
+ * them so the load stays put.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapStoreBenchmark {
+
+    private static final int MAX_COUNT = 100_000;
+    private static final int BATCH = 1_000;
+    private static final int PAYLOAD_SIZE = 8;
+    private static final byte[] PAYLOAD = new byte[PAYLOAD_SIZE];
+
+    @Param({ "HEAP", "DIRECT", "ARENA", "MMAP" })
+    public BufferFactoryType factory;
+
+    @Param({ "0.5", "0.75", "0.9" })
+    public double loadFactor;
+
+    @Param({ "8", "32", "128" })
+    public int keyWidth;
+
+    private final StackBuffer stackBuffer = new StackBuffer();
+    private File directory;
+    private ByteBufferBackedFiler filer;
+    private MapContext context;
+    private byte[][] presentKeys;
+    private byte[][] absentKeys;
+    private int nextPresent;
+    private int nextAbsent;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int present = (int) (MAX_COUNT * loadFactor) - BATCH;
+        presentKeys = BenchmarkKeys.create(present, keyWidth, 0, 1);
+        absentKeys = BenchmarkKeys.create(BATCH, keyWidth, present, 2);
+
+        directory = BufferFactoryType.createDirectory();
+        long size = MapStore.INSTANCE.computeFilerSize(MAX_COUNT, keyWidth, false, PAYLOAD_SIZE, false);
+        filer = new ByteBufferBackedFiler(factory.create(directory, "map").allocate("map".getBytes(), size));
+        context = MapStore.INSTANCE.create(MAX_COUNT, keyWidth, false, PAYLOAD_SIZE, false, filer, stackBuffer);
+        for (byte[] key : presentKeys) {
+            MapStore.INSTANCE.add(filer, context, (byte) 1, key, PAYLOAD, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filer = null;
+        BufferFactoryType.deleteDirectory(directory);
+    }
+
+    private byte[] nextPresentKey() {
+        byte[] key = presentKeys[nextPresent];
+        nextPresent = (nextPresent + 1) % presentKeys.length;
+        return key;
+    }
+
+    private byte[] nextAbsentKey() {
+        byte[] key = absentKeys[nextAbsent];
+        nextAbsent = (nextAbsent + 1) % absentKeys.length;
+        return key;
+    }
+
+    @State(Scope.Thread)
+    public static class Added {
+
+        int count;
+
+        @TearDown(Level.Iteration)
+        public void removeAll(MapStoreBenchmark benchmark) throws IOException {
+            for (int i = 0; i < count; i++) {
+                MapStore.INSTANCE.remove(benchmark.filer, benchmark.context, benchmark.absentKeys[i], benchmark.stackBuffer);
+            }
+            count = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Removed {
+
+        int count;
+
+        @TearDown(Level.Iteration)
+        public void addAll(MapStoreBenchmark benchmark) throws IOException {
+            for (int i = 0; i < count; i++) {
+                MapStore.INSTANCE.add(benchmark.filer, benchmark.context, (byte) 1, benchmark.presentKeys[i], PAYLOAD, benchmark.stackBuffer);
+            }
+            count = 0;
+        }
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        return MapStore.INSTANCE.get(filer, context, nextPresentKey(), stackBuffer);
+    }
+
+    @Benchmark
+    public long getAbsent() throws IOException {
+        return MapStore.INSTANCE.get(filer, context, nextAbsentKey(), stackBuffer);
+    }
+
+    @Benchmark
+    public long update() throws IOException {
+        return MapStore.INSTANCE.add(filer, context, (byte) 1, nextPresentKey(), PAYLOAD, stackBuffer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public long add(Added added) throws IOException {
+        return MapStore.INSTANCE.add(filer, context, (byte) 1, absentKeys[added.count++], PAYLOAD, stackBuffer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public long remove(Removed removed) throws IOException {
+        return MapStore.INSTANCE.remove(filer, context, presentKeys[removed.count++], stackBuffer);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.map;
+
+import com.jivesoftware.os.filer.benchmarks.BenchmarkKeys;
+import com.jivesoftware.os.filer.benchmarks.BufferFactoryType;
+import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.map.store.LexSkipListComparator;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SkipListMapStore.add of BATCH new keys per single shot iteration into a map already holding count keys, and a full streamKeys
+ * over those count keys.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkipListMapStoreBenchmark {
+
+    private static final int BATCH = 1_000;
+    private static final int PAYLOAD_SIZE = 8;
+    private static final byte[] PAYLOAD = new byte[PAYLOAD_SIZE];
+
+    @Param({ "HEAP", "DIRECT", "ARENA", "MMAP" })
+    public BufferFactoryType factory;
+
+    @Param({ "1000", "100000" })
+    public int count;
+
+    @Param({ "8", "32" })
+    public int keyWidth;
+
+    private final StackBuffer stackBuffer = new StackBuffer();
+    private final Object lock = new Object();
+    private File directory;
+    private ByteBufferBackedFiler filer;
+    private SkipListMapContext context;
+    private byte[][] addedKeys;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[][] keys = BenchmarkKeys.create(count, keyWidth, 0, 1);
+        addedKeys = BenchmarkKeys.create(BATCH, keyWidth, count, 2);
+
+        directory = BufferFactoryType.createDirectory();
+        long size = SkipListMapStore.INSTANCE.computeFilerSize(count + BATCH, keyWidth, false, PAYLOAD_SIZE);
+        filer = new ByteBufferBackedFiler(factory.create(directory, "skiplist").allocate("skiplist".getBytes(), size));
+        context = SkipListMapStore.INSTANCE.create(count + BATCH, new byte[keyWidth], keyWidth, false, PAYLOAD_SIZE,
+            LexSkipListComparator.cSingleton, filer, stackBuffer);
+        for (byte[] key : keys) {
+            SkipListMapStore.INSTANCE.add(filer, context, key, PAYLOAD, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filer = null;
+        BufferFactoryType.deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Added {
+
+        int count;
+
+        @TearDown(Level.Iteration)
+        public void removeAll(SkipListMapStoreBenchmark benchmark) throws IOException {
+            for (int i = 0; i < count; i++) {
+                SkipListMapStore.INSTANCE.remove(benchmark.filer, benchmark.context, benchmark.addedKeys[i], benchmark.stackBuffer);
+            }
+            count = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public long add(Added added) throws IOException {
+        return SkipListMapStore.INSTANCE.add(filer, context, addedKeys[added.count++], PAYLOAD, stackBuffer);
+    }
+
+    @Benchmark
+    public long streamKeys() throws IOException, InterruptedException {
+        long[] streamed = new long[1];
+        SkipListMapStore.INSTANCE.streamKeys(filer, context, lock, null, key -> {
+            streamed[0]++;
+            return true;
+        }, stackBuffer);
+        return streamed[0];
+    }
+}
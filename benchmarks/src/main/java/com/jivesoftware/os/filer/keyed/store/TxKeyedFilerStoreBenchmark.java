@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.keyed.store;
+
+import com.jivesoftware.os.filer.benchmarks.BenchmarkKeys;
+import com.jivesoftware.os.filer.benchmarks.BufferFactoryType;
+import com.jivesoftware.os.filer.chunk.store.ChunkStoreInitializer;
+import com.jivesoftware.os.filer.chunk.store.transaction.TxCogs;
+import com.jivesoftware.os.filer.chunk.store.transaction.TxNamedMapOfFiler;
+import com.jivesoftware.os.filer.io.FilerIO;
+import com.jivesoftware.os.filer.io.api.ChunkTransaction;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.io.chunk.ChunkStoreConfig;
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TxKeyedFilerStore.read and writeNewReplace of random keys over two chunk stores, with one and four threads sharing the store.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxKeyedFilerStoreBenchmark {
+
+    private static final int KEYS = 10_000;
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final ChunkTransaction<Void, Long> READ_LONG = (monkey, filer, stackBuffer, lock) -> {
+        synchronized (lock) {
+            filer.seek(0);
+            return FilerIO.readLong(filer, "value", stackBuffer);
+        }
+    };
+
+    private static final ChunkTransaction<Void, Long> WRITE_LONG = (monkey, filer, stackBuffer, lock) -> {
+        synchronized (lock) {
+            filer.seek(0);
+            FilerIO.writeLong(filer, 1L, "value", stackBuffer);
+            return 1L;
+        }
+    };
+
+    @Param({ "HEAP", "DIRECT", "ARENA", "MMAP" })
+    public BufferFactoryType factory;
+
+    @Param({ "64", "4096" })
+    public long filerSize;
+
+    @Param({ "false", "true" })
+    public boolean lexOrderKeys;
+
+    private File directory;
+    private ChunkStore[] chunkStores;
+    private TxKeyedFilerStore<Long, Void> store;
+    private byte[][] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        directory = BufferFactoryType.createDirectory();
+        chunkStores = new ChunkStore[2];
+        for (int i = 0; i < chunkStores.length; i++) {
+            chunkStores[i] = new ChunkStoreInitializer().create(factory.create(directory, "data" + i),
+                SEGMENT_SIZE,
+                ChunkStoreConfig.newBuilder().build(),
+                stackBuffer);
+        }
+        store = new TxKeyedFilerStore<>(new TxCogs(256, 64, null, null, null),
+            0,
+            chunkStores,
+            "benchmark".getBytes(),
+            lexOrderKeys,
+            TxNamedMapOfFiler.CHUNK_FILER_CREATOR,
+            TxNamedMapOfFiler.CHUNK_FILER_OPENER,
+            TxNamedMapOfFiler.OVERWRITE_GROWER_PROVIDER,
+            TxNamedMapOfFiler.REWRITE_GROWER_PROVIDER);
+
+        keys = BenchmarkKeys.create(KEYS, 8, 0, 1);
+        for (byte[] key : keys) {
+            store.writeNewReplace(key, filerSize, WRITE_LONG, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        for (ChunkStore chunkStore : chunkStores) {
+            chunkStore.close();
+        }
+        BufferFactoryType.deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+
+        final StackBuffer stackBuffer = new StackBuffer();
+    }
+
+    private byte[] randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    private Long readOne(Worker worker) throws Exception {
+        return store.read(randomKey(), filerSize, READ_LONG, worker.stackBuffer);
+    }
+
+    private Long writeNewReplaceOne(Worker worker) throws Exception {
+        return store.writeNewReplace(randomKey(), filerSize, WRITE_LONG, worker.stackBuffer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Long read(Worker worker) throws Exception {
+        return readOne(worker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Long readThreads4(Worker worker) throws Exception {
+        return readOne(worker);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Long writeNewReplace(Worker worker) throws Exception {
+        return writeNewReplaceOne(worker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Long writeNewReplaceThreads4(Worker worker) throws Exception {
+        return writeNewReplaceOne(worker);
+    }
+}
@@ -5,9 +5,12 @@ import com.jivesoftware.os.filer.io.ByteBufferFactory;
 import com.jivesoftware.os.filer.io.FileBackedMemMappedByteBufferFactory;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.io.chunk.ChunkStoreConfig;
 import com.jivesoftware.os.filer.io.chunk.StripedFiler;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  *
@@ -24,17 +27,78 @@ public class ChunkStoreInitializer {
         int initialCacheSize,
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
+        return openOrCreate(dirs, directoryOffset, chunkName, initialSize, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, false,
+            stackBuffer);
+    }
+
+    /**
+     * @param buddyAllocation only honored when the store is created, an existing store keeps the allocation layout it was created with.
+     */
+    public ChunkStore openOrCreate(File[] dirs,
+        int directoryOffset,
+        String chunkName,
+        long initialSize,
+        ByteBufferFactory cacheByteBufferFactory,
+        int initialCacheSize,
+        int maxNewCacheSize,
+        boolean buddyAllocation,
+        StackBuffer stackBuffer) throws Exception {
+        return openOrCreate(dirs, directoryOffset, chunkName, initialSize, config(initialCacheSize, maxNewCacheSize, buddyAllocation), stackBuffer);
+    }
+
+    public ChunkStore openOrCreate(File[] dirs,
+        int directoryOffset,
+        String chunkName,
+        long initialSize,
+        ChunkStoreConfig config,
+        StackBuffer stackBuffer) throws Exception {
 
         FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, dirs);
-        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(factory, initialSize,
-            AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE);
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(factory, Math.min(initialSize, config.getSegmentSize()),
+            config.getSegmentSize());
         if (filer.exists()) {
-            return open(filer, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, stackBuffer);
+            return open(filer, config, stackBuffer);
         } else {
-            return create(filer, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, stackBuffer);
+            return create(filer, config, stackBuffer);
         }
     }
 
+    /**
+     * Opens an existing store for reading only. Its segments are mapped READ_ONLY, newChunk and remove are rejected and cache hits
+     * never enter a stripe monitor. The store can later be moved onto a newer generation of its files with reopenReadOnly.
+     *
+     * @param config readOnly is implied
+     */
+    public ChunkStore openReadOnly(File[] dirs,
+        int directoryOffset,
+        String chunkName,
+        ChunkStoreConfig config,
+        StackBuffer stackBuffer) throws Exception {
+        return open(readOnlyFiler(dirs, directoryOffset, chunkName, config.getSegmentSize()),
+            ChunkStoreConfig.newBuilder(config).setReadOnly(true).build(), stackBuffer);
+    }
+
+    /**
+     * Atomically moves a store opened with openReadOnly onto the files now found in dirs, see {@link ChunkStore#reopen}.
+     */
+    public void reopenReadOnly(ChunkStore chunkStore,
+        File[] dirs,
+        int directoryOffset,
+        String chunkName,
+        StackBuffer stackBuffer) throws Exception {
+        chunkStore.reopen(readOnlyFiler(dirs, directoryOffset, chunkName, chunkStore.getConfig().getSegmentSize()), stackBuffer);
+    }
+
+    private AutoGrowingByteBufferBackedFiler readOnlyFiler(File[] dirs, int directoryOffset, String chunkName, long segmentSize)
+        throws IOException {
+        FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, true, dirs);
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(factory, segmentSize, segmentSize);
+        if (!filer.exists()) {
+            throw new FileNotFoundException("No chunk store named " + chunkName + " in " + Arrays.toString(dirs));
+        }
+        return filer;
+    }
+
     public boolean checkExists(File[] dirs, int directoryOffset, String chunkName) throws IOException {
         FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, dirs);
         return new AutoGrowingByteBufferBackedFiler(factory, 1024, AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE).exists();
@@ -46,18 +110,23 @@ public class ChunkStoreInitializer {
         int initialCacheSize,
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
-        return open(new AutoGrowingByteBufferBackedFiler(filer, segmentSize, segmentSize), cacheByteBufferFactory, initialCacheSize, maxNewCacheSize,
-            stackBuffer);
+        return open(filer, segmentSize, config(initialCacheSize, maxNewCacheSize, false), stackBuffer);
+    }
+
+    public ChunkStore open(ByteBufferFactory filer,
+        long segmentSize,
+        ChunkStoreConfig config,
+        StackBuffer stackBuffer) throws Exception {
+        return open(new AutoGrowingByteBufferBackedFiler(filer, segmentSize, segmentSize), config, stackBuffer);
     }
 
     private ChunkStore open(AutoGrowingByteBufferBackedFiler filer,
-        ByteBufferFactory cacheByteBufferFactory,
-        int initialCacheSize,
-        int maxNewCacheSize,
+        ChunkStoreConfig config,
         StackBuffer stackBuffer) throws Exception {
-        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, 128);
+        StripedFiler stripedFiler = new StripedFiler(filer, config);
         ChunkStore chunkStore = new ChunkStore(stripedFiler);
         chunkStore.open(stackBuffer);
+        chunkStore.startWarmUp(null);
         return chunkStore;
     }
 
@@ -67,20 +136,48 @@ public class ChunkStoreInitializer {
         int initialCacheSize,
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
-        return create(new AutoGrowingByteBufferBackedFiler(factory, segmentSize, segmentSize), cacheByteBufferFactory, initialCacheSize, maxNewCacheSize,
-            stackBuffer);
+        return create(factory, segmentSize, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, false, stackBuffer);
     }
 
-    private ChunkStore create(AutoGrowingByteBufferBackedFiler filer,
+    public ChunkStore create(ByteBufferFactory factory,
+        long segmentSize,
         ByteBufferFactory cacheByteBufferFactory,
         int initialCacheSize,
         int maxNewCacheSize,
+        boolean buddyAllocation,
+        StackBuffer stackBuffer) throws Exception {
+        return create(factory, segmentSize, config(initialCacheSize, maxNewCacheSize, buddyAllocation), stackBuffer);
+    }
+
+    public ChunkStore create(ByteBufferFactory factory,
+        long segmentSize,
+        ChunkStoreConfig config,
         StackBuffer stackBuffer) throws Exception {
-        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, 128);
+        return create(new AutoGrowingByteBufferBackedFiler(factory, segmentSize, segmentSize), config, stackBuffer);
+    }
+
+    private ChunkStore create(AutoGrowingByteBufferBackedFiler filer,
+        ChunkStoreConfig config,
+        StackBuffer stackBuffer) throws Exception {
+        StripedFiler stripedFiler = new StripedFiler(filer, config);
         ChunkStore chunkStore = new ChunkStore(stripedFiler);
-        chunkStore.setup(referenceNumber);
+        chunkStore.setup(referenceNumber, config.isBuddyAllocation());
         chunkStore.createAndOpen(stripedFiler, stackBuffer);
         return chunkStore;
     }
 
+    /**
+     * Spreads the legacy cache sizes evenly across adaptively sized stripes. The cache byte buffer factory is no longer needed since
+     * stripe caches live on heap.
+     */
+    private static ChunkStoreConfig config(int initialCacheSize, int maxNewCacheSize, boolean buddyAllocation) {
+        int numberOfStripes = ChunkStoreConfig.adaptiveNumberOfStripes();
+        return ChunkStoreConfig.newBuilder()
+            .setNumberOfStripes(numberOfStripes)
+            .setInitialChunksPerStripe(Math.max(2, initialCacheSize / numberOfStripes))
+            .setMaxChunksPerStripe(Math.max(1, (maxNewCacheSize + numberOfStripes - 1) / numberOfStripes))
+            .setBuddyAllocation(buddyAllocation)
+            .build();
+    }
+
 }
@@ -22,6 +22,7 @@ import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
@@ -70,6 +71,21 @@ public interface FPIndex<K, I extends FPIndex<K, I>> {
         ChunkTransaction<M, R> filerTransaction,
         StackBuffer stackBuffer) throws IOException, InterruptedException;
 
+    <H, M, R> R writeAllocatedReplace(
+        ChunkStore chunkStore,
+        K key,
+        long newFP,
+        H hint,
+        OpenFiler<M, ChunkFiler> opener,
+        GrowFiler<H, M, ChunkFiler> growFiler,
+        ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException;
+
+    /**
+     * Moves the chunk behind key if the compaction wants it moved and points key at its new fp.
+     */
+    long relocate(ChunkCompaction compaction, K key, StackBuffer stackBuffer) throws IOException, InterruptedException;
+
     <H, M, R> R readWriteAutoGrow(
         ChunkStore chunkStore,
         K key,
@@ -20,9 +20,12 @@ import com.jivesoftware.os.filer.io.GrowFiler;
 import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -77,13 +80,49 @@ public class KeyedFPIndexUtil {
         final GrowFiler<H, M, ChunkFiler> growFiler,
         final ChunkTransaction<M, R> filerTransaction,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return writeReplace(backingFPIndex, semaphore, numPermits, chunkStore, keyLock, key, -1, hint, creator, opener, growFiler, filerTransaction,
+            stackBuffer);
+    }
+
+    /**
+     * Same as writeNewReplace but swaps in a chunk which the caller already created, typically via ChunkStore.newChunks().
+     */
+    public <H, K, M, R, G> R writeAllocatedReplace(final FPIndex<K, ?> backingFPIndex,
+        final Semaphore semaphore,
+        final int numPermits,
+        final ChunkStore chunkStore,
+        final Object keyLock,
+        final K key,
+        final long newFP,
+        H hint,
+        final OpenFiler<M, ChunkFiler> opener,
+        final GrowFiler<H, M, ChunkFiler> growFiler,
+        final ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return writeReplace(backingFPIndex, semaphore, numPermits, chunkStore, keyLock, key, newFP, hint, null, opener, growFiler, filerTransaction,
+            stackBuffer);
+    }
+
+    private <H, K, M, R, G> R writeReplace(final FPIndex<K, ?> backingFPIndex,
+        final Semaphore semaphore,
+        final int numPermits,
+        final ChunkStore chunkStore,
+        final Object keyLock,
+        final K key,
+        final long newFP,
+        H hint,
+        final CreateFiler<H, M, ChunkFiler> creator,
+        final OpenFiler<M, ChunkFiler> opener,
+        final GrowFiler<H, M, ChunkFiler> growFiler,
+        final ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
 
         semaphore.acquire();
 
         final AtomicInteger releasablePermits = new AtomicInteger(1);
         try {
 
-            final long grownFP = chunkStore.newChunk(hint, creator, stackBuffer);
+            final long grownFP = newFP == -1 ? chunkStore.newChunk(hint, creator, stackBuffer) : newFP;
             R result;
             final AtomicLong currentFP = new AtomicLong(-1);
             result = chunkStore.execute(grownFP, opener, (newMonkey, newFiler, _stackBuffer, newLock) -> {
@@ -234,4 +273,74 @@ public class KeyedFPIndexUtil {
         }
 
     }
+
+    public <K> long relocate(final FPIndex<K, ?> backingFPIndex,
+        final Semaphore semaphore,
+        final int numPermits,
+        final Object keyLock,
+        final K key,
+        final ChunkCompaction compaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        while (!semaphore.tryAcquire(numPermits, 5, TimeUnit.MINUTES)) {
+            System.err.println("Deadlock due to probable case of reentrant transaction");
+            Thread.dumpStack();
+        }
+        try {
+            long fp;
+            synchronized (keyLock) {
+                fp = backingFPIndex.get(key, stackBuffer);
+            }
+            if (fp < 0) {
+                return fp;
+            }
+            long relocatedFP = compaction.relocate(fp, stackBuffer);
+            if (relocatedFP != fp) {
+                synchronized (keyLock) {
+                    backingFPIndex.set(key, relocatedFP, stackBuffer);
+                }
+            }
+            return relocatedFP;
+        } finally {
+            semaphore.release(numPermits);
+        }
+    }
+
+    /**
+     * Relocates the chunk behind every key in the index and then opens each one with descend so that nested indexes can be compacted.
+     *
+     * @param descend nullable when the keys point at leaf chunks
+     */
+    public <K, M> void compact(FPIndex<K, ?> index,
+        ChunkStore chunkStore,
+        ChunkCompaction compaction,
+        OpenFiler<M, ChunkFiler> opener,
+        ChunkTransaction<M, Void> descend,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        List<K> keys = new ArrayList<>();
+        index.stream(null, key -> {
+            keys.add(key);
+            return true;
+        }, stackBuffer);
+
+        for (K key : keys) {
+            compact(index, key, chunkStore, compaction, opener, descend, stackBuffer);
+        }
+    }
+
+    public <K, M> void compact(FPIndex<K, ?> index,
+        K key,
+        ChunkStore chunkStore,
+        ChunkCompaction compaction,
+        OpenFiler<M, ChunkFiler> opener,
+        ChunkTransaction<M, Void> descend,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        index.relocate(compaction, key, stackBuffer);
+        compaction.throttle();
+        if (descend != null) {
+            index.read(chunkStore, key, opener, descend, stackBuffer);
+        }
+    }
 }
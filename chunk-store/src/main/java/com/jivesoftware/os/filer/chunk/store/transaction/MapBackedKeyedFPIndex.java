@@ -17,7 +17,6 @@ package com.jivesoftware.os.filer.chunk.store.transaction;
 
 import com.jivesoftware.os.filer.io.CreateFiler;
 import com.jivesoftware.os.filer.io.Filer;
-import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.GrowFiler;
 import com.jivesoftware.os.filer.io.IBA;
 import com.jivesoftware.os.filer.io.LocksProvider;
@@ -25,6 +24,7 @@ import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapContext;
@@ -100,7 +100,7 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
                     if (ai < 0) {
                         return -1L;
                     }
-                    return FilerIO.bytesLong(MapStore.INSTANCE.getPayload(filer, monkey.mapContext, ai, stackBuffer1));
+                    return MapStore.INSTANCE.getPayloadLong(filer, monkey.mapContext, ai, stackBuffer1);
                 }
             }, stackBuffer);
             if (keyToFpCache != null) {
@@ -117,7 +117,7 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
         }
         backingChunkStore.execute(backingFP, opener, (monkey, filer, stackBuffer1, lock) -> {
             synchronized (lock) {
-                MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, FilerIO.longBytes(fp), stackBuffer1);
+                MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, fp, stackBuffer1);
             }
             return null;
         }, stackBuffer);
@@ -133,9 +133,9 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
                 long ai = MapStore.INSTANCE.get(filer, monkey.mapContext, key, stackBuffer1);
                 long got = -1L;
                 if (ai > -1) {
-                    got = FilerIO.bytesLong(MapStore.INSTANCE.getPayload(filer, monkey.mapContext, ai, stackBuffer1));
+                    got = MapStore.INSTANCE.getPayloadLong(filer, monkey.mapContext, ai, stackBuffer1);
                 }
-                MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, FilerIO.longBytes(fp), stackBuffer1);
+                MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, fp, stackBuffer1);
                 return got;
             }
         }, stackBuffer);
@@ -160,6 +160,22 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
             key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public <H, M, R> R writeAllocatedReplace(ChunkStore chunkStore, byte[] key, long newFP, H hint,
+        OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
+        ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Object keyLock = keyLocks.lock(key, seed);
+        return KeyedFPIndexUtil.INSTANCE.writeAllocatedReplace(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore,
+            keyLock, key, newFP, hint, opener, growFiler, filerTransaction, stackBuffer);
+    }
+
+    @Override
+    public long relocate(ChunkCompaction compaction, byte[] key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), keyLocks.lock(key, seed), key, compaction,
+            stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, byte[] key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
@@ -187,14 +203,14 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
             }
         };
 
-        return backingChunkStore.execute(backingFP, null,
+        return backingChunkStore.execute(backingFP, opener,
             (MapBackedKeyedFPIndex monkey, ChunkFiler filer, StackBuffer _stackBuffer, Object lock) -> MapStore.INSTANCE.streamKeys(filer,
                 monkey.mapContext, lock, mapKeyStream, _stackBuffer), stackBuffer);
     }
 
     @Override
     public long size(StackBuffer stackBuffer) throws IOException, InterruptedException {
-        return backingChunkStore.execute(backingFP, null,
+        return backingChunkStore.execute(backingFP, opener,
             (MapBackedKeyedFPIndex monkey, ChunkFiler filer, StackBuffer _stackBuffer, Object lock) -> MapStore.INSTANCE.getCount(filer, _stackBuffer),
             stackBuffer);
     }
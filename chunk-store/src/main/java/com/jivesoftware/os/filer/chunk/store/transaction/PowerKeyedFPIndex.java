@@ -23,6 +23,7 @@ import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
@@ -101,6 +102,21 @@ public class PowerKeyedFPIndex implements FPIndex<Integer, PowerKeyedFPIndex> {
             keySizeLocks[key], key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public <H, M, R> R writeAllocatedReplace(ChunkStore chunkStore, Integer key, long newFP, H hint,
+        OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
+        ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return KeyedFPIndexUtil.INSTANCE.writeAllocatedReplace(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore,
+            keySizeLocks[key], key, newFP, hint, opener, growFiler, filerTransaction, stackBuffer);
+    }
+
+    @Override
+    public long relocate(ChunkCompaction compaction, Integer key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), keySizeLocks[key], key, compaction,
+            stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, Integer key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
@@ -25,6 +25,7 @@ import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapStore;
@@ -100,11 +101,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
         if (got == null) {
             got = backingChunkStore.execute(backingFP, opener, (monkey, filer, _stackBuffer, lock) -> {
                 synchronized (lock) {
-                    byte[] got1 = SkipListMapStore.INSTANCE.getExistingPayload(filer, monkey.context, key, _stackBuffer);
-                    if (got1 == null) {
-                        return -1L;
-                    }
-                    return FilerIO.bytesLong(got1);
+                    return SkipListMapStore.INSTANCE.getExistingPayloadLong(filer, monkey.context, key, -1L, _stackBuffer);
                 }
             }, stackBuffer);
             if (keyToFpCache != null) {
@@ -134,11 +131,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
         }
         return backingChunkStore.execute(backingFP, opener, (monkey, filer, _stackBuffer, lock) -> {
             synchronized (lock) {
-                byte[] payload = SkipListMapStore.INSTANCE.getExistingPayload(filer, monkey.context, key, _stackBuffer);
-                long got = -1L;
-                if (payload != null) {
-                    got = FilerIO.bytesLong(payload);
-                }
+                long got = SkipListMapStore.INSTANCE.getExistingPayloadLong(filer, monkey.context, key, -1L, _stackBuffer);
                 SkipListMapStore.INSTANCE.add(filer, context, key, FilerIO.longBytes(fp), _stackBuffer);
                 return got;
             }
@@ -163,6 +156,22 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
             key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public <H, M, R> R writeAllocatedReplace(ChunkStore chunkStore, byte[] key, long newFP, H hint,
+        OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
+        ChunkTransaction<M, R> filerTransaction,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Object keyLock = keyLocks.lock(key, seed);
+        return KeyedFPIndexUtil.INSTANCE.writeAllocatedReplace(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore,
+            keyLock, key, newFP, hint, opener, growFiler, filerTransaction, stackBuffer);
+    }
+
+    @Override
+    public long relocate(ChunkCompaction compaction, byte[] key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), keyLocks.lock(key, seed), key, compaction,
+            stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, byte[] key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
@@ -176,7 +185,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
     public boolean stream(final List<KeyRange> ranges, final KeysStream<byte[]> keysStream, StackBuffer stackBuffer) throws IOException, InterruptedException {
         final MapStore.KeyStream mapKeyStream = keysStream::stream;
 
-        return backingChunkStore.execute(backingFP, null,
+        return backingChunkStore.execute(backingFP, opener,
             (SkipListMapBackedKeyedFPIndex monkey, ChunkFiler filer, StackBuffer _stackBuffer, Object lock)
                 -> SkipListMapStore.INSTANCE.streamKeys(filer, monkey.context, lock, ranges, mapKeyStream, _stackBuffer),
             stackBuffer);
@@ -184,7 +193,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
 
     @Override
     public long size(StackBuffer stackBuffer) throws IOException, InterruptedException {
-        return backingChunkStore.execute(backingFP, null,
+        return backingChunkStore.execute(backingFP, opener,
             (SkipListMapBackedKeyedFPIndex monkey, ChunkFiler filer, StackBuffer _stackBuffer, Object lock)
                 -> SkipListMapStore.INSTANCE.getCount(filer, monkey.context, _stackBuffer),
             stackBuffer);
@@ -21,6 +21,7 @@ import com.jivesoftware.os.filer.io.GrowFiler;
 import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapContext;
@@ -139,4 +140,30 @@ public class TxNamedMap {
                 }, stackBuffer1);
         }, stackBuffer);
     }
+
+    /**
+     * Walks the named map through the compaction. Every named map in the chunk store should be walked before the compaction is finished.
+     * Does nothing if the compaction is for another chunk store.
+     */
+    public void compact(byte[] mapName, ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        if (compaction.getChunkStore() != chunkStore) {
+            return;
+        }
+        synchronized (chunkStore) {
+            if (!chunkStore.isValid(constantFP, stackBuffer)) {
+                return;
+            }
+        }
+        chunkStore.execute(constantFP, skyHookIndexOpener, (monkey, filer, stackBuffer1, lock) -> {
+            int chunkPower = FilerIO.chunkPower(mapName.length, 0);
+            KeyedFPIndexUtil.INSTANCE.compact(monkey, chunkPower, chunkStore, compaction, skyHookCog.opener,
+                (skyHookMonkey, skyHookFiler, stackBuffer2, skyHookLock) -> {
+                    if (skyHookMonkey != null) {
+                        KeyedFPIndexUtil.INSTANCE.compact(skyHookMonkey, mapName, chunkStore, compaction, null, null, stackBuffer2);
+                    }
+                    return null;
+                }, stackBuffer1);
+            return null;
+        }, stackBuffer);
+    }
 }
@@ -27,10 +27,13 @@ import com.jivesoftware.os.filer.io.api.IndexAlignedChunkTransaction;
 import com.jivesoftware.os.filer.io.api.IndexAlignedHintAndTransactionSupplier;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -270,13 +273,8 @@ public class TxNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
                                     namedPowerGrower,
                                     (namedPowerMonkey, namedPowerFiler, stackBuffer4, namedPowerLock) -> {
                                         // TODO consider using the provided filer in appropriate cases.
-                                        byte[][] powerFilerKeys = partitionedFilerKeys[_chunkPower1];
-                                        for (int i = 0; i < powerFilerKeys.length; i++) {
-                                            byte[] filerKey = powerFilerKeys[i];
-                                            if (filerKey != null) {
-                                                writeMultiFilerKey(namedPowerMonkey, i, filerKey, supplier, results, stackBuffer4);
-                                            }
-                                        }
+                                        writeMultiFilerKeys(namedPowerMonkey, partitionedFilerKeys[_chunkPower1], numKeys[_chunkPower1], supplier,
+                                            results, stackBuffer4);
                                         return null;
                                     }, stackBuffer3);
                             }
@@ -287,28 +285,67 @@ public class TxNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
         }, stackBuffer);
     }
 
-    private <R> void writeMultiFilerKey(N namedPowerMonkey,
-        int index,
-        byte[] filerKey,
+    private <R> void writeMultiFilerKeys(N namedPowerMonkey,
+        byte[][] filerKeys,
+        int numKeys,
         IndexAlignedHintAndTransactionSupplier<H, M, R> keyHintSupplier,
         R[] results,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
-        HintAndTransaction<H, M, R> hintAndTransaction = namedPowerMonkey.read(
-            chunkStore,
-            filerKey,
-            filerOpener,
-            (filerMonkey, filerFiler, stackBuffer5, filerLock) ->
-                keyHintSupplier.supply(filerMonkey, filerFiler, stackBuffer5, filerLock, index),
-            stackBuffer);
-
-        if (hintAndTransaction != null) {
-            H sizeHint = hintAndTransaction.hint;
-            ChunkTransaction<M, R> chunkTransaction = hintAndTransaction.filerTransaction;
-            final AtomicReference<R> result = new AtomicReference<>();
-            GrowFiler<H, M, ChunkFiler> rewriteGrower = rewriteGrowerProvider.create(sizeHint, chunkTransaction, result);
-            results[index] = namedPowerMonkey.writeNewReplace(chunkStore, filerKey, sizeHint, filerCreator, filerOpener,
-                rewriteGrower,
-                (filerMonkey, filerFiler, stackBuffer5, filerLock) -> result.get(), stackBuffer);
+
+        int[] indexes = new int[numKeys];
+        @SuppressWarnings("unchecked")
+        HintAndTransaction<H, M, R>[] hintAndTransactions = new HintAndTransaction[numKeys];
+        int count = 0;
+        for (int i = 0; i < filerKeys.length; i++) {
+            byte[] filerKey = filerKeys[i];
+            if (filerKey != null) {
+                int index = i;
+                HintAndTransaction<H, M, R> hintAndTransaction = namedPowerMonkey.read(
+                    chunkStore,
+                    filerKey,
+                    filerOpener,
+                    (filerMonkey, filerFiler, stackBuffer5, filerLock) ->
+                        keyHintSupplier.supply(filerMonkey, filerFiler, stackBuffer5, filerLock, index),
+                    stackBuffer);
+                if (hintAndTransaction != null) {
+                    indexes[count] = i;
+                    hintAndTransactions[count] = hintAndTransaction;
+                    count++;
+                }
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        H[] sizeHints = (H[]) new Object[count];
+        for (int i = 0; i < count; i++) {
+            sizeHints[i] = hintAndTransactions[i].hint;
+        }
+        long[] fps = new long[count];
+        chunkStore.newChunks(sizeHints, filerCreator, fps, stackBuffer);
+
+        int next = 0;
+        try {
+            while (next < count) {
+                int i = next;
+                H sizeHint = sizeHints[i];
+                ChunkTransaction<M, R> chunkTransaction = hintAndTransactions[i].filerTransaction;
+                final AtomicReference<R> result = new AtomicReference<>();
+                GrowFiler<H, M, ChunkFiler> rewriteGrower = rewriteGrowerProvider.create(sizeHint, chunkTransaction, result);
+                results[indexes[i]] = namedPowerMonkey.writeAllocatedReplace(chunkStore, filerKeys[indexes[i]], fps[i], sizeHint, filerOpener,
+                    rewriteGrower,
+                    (filerMonkey, filerFiler, stackBuffer5, filerLock) -> result.get(), stackBuffer);
+                next++;
+            }
+        } finally {
+            // hand back any chunks that never made it into the index, a replace which failed may or may not have swapped its chunk in
+            for (int i = next; i < count; i++) {
+                if (i != next || namedPowerMonkey.get(filerKeys[indexes[i]], stackBuffer) != fps[i]) {
+                    chunkStore.remove(fps[i], stackBuffer);
+                }
+            }
         }
     }
 
@@ -425,6 +462,84 @@ public class TxNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
         }, stackBuffer);
     }
 
+    /**
+     * Looks up the chunks of filerKeys the way readEach does and hands them to {@link ChunkStore#prefetch}, so a readEach which
+     * follows finds their pages resident. The index lookups run on the calling thread, only the prefetch itself is asynchronous.
+     *
+     * @param openFilers also open each filer's monkey into the chunk cache, otherwise only its pages are touched
+     * @return the number of chunks prefetched
+     */
+    public CompletableFuture<Integer> prefetch(final byte[] mapName, final byte[][] filerKeys, boolean openFilers, StackBuffer stackBuffer)
+        throws IOException, InterruptedException {
+        synchronized (chunkStore) {
+            if (!chunkStore.isValid(constantFP, stackBuffer)) {
+                return CompletableFuture.completedFuture(0);
+            }
+        }
+
+        final byte[][][] powerFilerKeys = new byte[64][][];
+        for (int i = 0; i < filerKeys.length; i++) {
+            byte[] filerKey = filerKeys[i];
+            if (filerKey != null) {
+                int chunkPower = FilerIO.chunkPower(filerKey.length, 0);
+                if (powerFilerKeys[chunkPower] == null) {
+                    powerFilerKeys[chunkPower] = new byte[filerKeys.length][];
+                }
+                powerFilerKeys[chunkPower][i] = filerKey;
+            }
+        }
+
+        final long[] fps = new long[filerKeys.length];
+        final int[] count = { 0 };
+        chunkStore.execute(constantFP, skyHookIndexOpener, (monkey, filer, stackBuffer1, lock) -> {
+            if (monkey == null || filer == null) {
+                return null;
+            }
+
+            int chunkPower = FilerIO.chunkPower(mapName.length, 0);
+            return monkey.read(chunkStore, chunkPower, skyhookCog.opener,
+                (skyHookMonkey, skyHookFiler, stackBuffer2, skyHookLock) -> {
+                    if (skyHookMonkey == null || skyHookFiler == null) {
+                        return null;
+                    }
+
+                    return skyHookMonkey.read(chunkStore, mapName, namedIndexOpener,
+                        (namedIndexMonkey, namedIndexFiler, stackBuffer3, namedIndexLock) -> {
+                            if (namedIndexMonkey == null || namedIndexFiler == null) {
+                                return null;
+                            }
+
+                            for (int chunkPower1 = 0; chunkPower1 < powerFilerKeys.length; chunkPower1++) {
+                                final byte[][] keysForMonkey = powerFilerKeys[chunkPower1];
+                                if (keysForMonkey != null) {
+                                    namedIndexMonkey.read(chunkStore, chunkPower1, namedPowerOpener,
+                                        (N namedPowerMonkey, ChunkFiler namedPowerFiler, StackBuffer stackBuffer4, Object namedPowerLock) -> {
+                                            if (namedPowerMonkey == null || namedPowerFiler == null) {
+                                                return null;
+                                            }
+                                            for (byte[] filerKey : keysForMonkey) {
+                                                if (filerKey != null) {
+                                                    long fp = namedPowerMonkey.get(filerKey, stackBuffer4);
+                                                    if (fp != -1) {
+                                                        fps[count[0]++] = fp;
+                                                    }
+                                                }
+                                            }
+                                            return null;
+                                        }, stackBuffer3);
+                                }
+                            }
+                            return null;
+                        }, stackBuffer2);
+                }, stackBuffer1);
+        }, stackBuffer);
+
+        if (count[0] == 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return chunkStore.prefetch(Arrays.copyOf(fps, count[0]), openFilers ? filerOpener : null);
+    }
+
     public Boolean stream(final byte[] mapName,
         final List<KeyRange> ranges,
         final TxStream<byte[], M, ChunkFiler> stream,
@@ -566,4 +681,43 @@ public class TxNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
 
         return count[0];
     }
+
+    /**
+     * Walks the named map's indexes and filers through the compaction. Every named map in the chunk store should be walked before the
+     * compaction is finished. Does nothing if the compaction is for another chunk store.
+     */
+    public void compact(byte[] mapName, ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        if (compaction.getChunkStore() != chunkStore) {
+            return;
+        }
+        synchronized (chunkStore) {
+            if (!chunkStore.isValid(constantFP, stackBuffer)) {
+                return;
+            }
+        }
+        KeyedFPIndexUtil util = KeyedFPIndexUtil.INSTANCE;
+        chunkStore.execute(constantFP, skyHookIndexOpener, (monkey, filer, stackBuffer1, lock) -> {
+            int chunkPower = FilerIO.chunkPower(mapName.length, 0);
+            util.compact(monkey, chunkPower, chunkStore, compaction, skyhookCog.opener,
+                (skyHookMonkey, skyHookFiler, stackBuffer2, skyHookLock) -> {
+                    if (skyHookMonkey != null) {
+                        util.compact(skyHookMonkey, mapName, chunkStore, compaction, namedIndexOpener,
+                            (namedIndexMonkey, namedIndexFiler, stackBuffer3, namedIndexLock) -> {
+                                if (namedIndexMonkey != null) {
+                                    util.compact(namedIndexMonkey, chunkStore, compaction, namedPowerOpener,
+                                        (namedPowerMonkey, namedPowerFiler, stackBuffer4, namedPowerLock) -> {
+                                            if (namedPowerMonkey != null) {
+                                                util.compact(namedPowerMonkey, chunkStore, compaction, null, null, stackBuffer4);
+                                            }
+                                            return null;
+                                        }, stackBuffer3);
+                                }
+                                return null;
+                            }, stackBuffer2);
+                    }
+                    return null;
+                }, stackBuffer1);
+            return null;
+        }, stackBuffer);
+    }
 }
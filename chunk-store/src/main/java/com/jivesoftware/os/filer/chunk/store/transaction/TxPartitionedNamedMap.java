@@ -19,6 +19,7 @@ import com.jivesoftware.os.filer.io.PartitionFunction;
 import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.IndexAlignedChunkTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.map.MapContext;
 import com.jivesoftware.os.filer.io.map.MapStore;
@@ -127,4 +128,10 @@ public class TxPartitionedNamedMap {
         }
         return true;
     }
+
+    public void compact(byte[] mapName, ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        for (TxNamedMap namedMap : namedMaps) {
+            namedMap.compact(mapName, compaction, stackBuffer);
+        }
+    }
 }
@@ -21,9 +21,15 @@ import com.jivesoftware.os.filer.io.api.IndexAlignedChunkTransaction;
 import com.jivesoftware.os.filer.io.api.IndexAlignedHintAndTransactionSupplier;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.api.StackBufferCall;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * @param <N>
@@ -99,6 +105,65 @@ public class TxPartitionedNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
         R[] results,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
 
+        byte[][][] partitionedFilerKeys = partition(partitionKeys, filerKeys);
+        for (int p = 0; p < stores.length; p++) {
+            if (partitionedFilerKeys[p] != null) {
+                stores[p].readEach(mapName, partitionedFilerKeys[p], filerTransaction, results, stackBuffer);
+            }
+        }
+    }
+
+    /**
+     * Like readEach but every partition with keys to read is read by its own task on the executor, so page faults in one partition
+     * overlap with reads in the others. Each task takes its StackBuffer from stackBuffers on the thread it runs on. Results land index
+     * aligned in results, which is safe to read once the returned future completes. The future fails with the first IOException or
+     * InterruptedException any partition threw.
+     */
+    public <R> CompletableFuture<Void> readEachAsync(byte[][] partitionKeys,
+        byte[] mapName,
+        byte[][] filerKeys,
+        IndexAlignedChunkTransaction<M, R> filerTransaction,
+        R[] results,
+        Executor executor,
+        Supplier<StackBuffer> stackBuffers) {
+
+        byte[][][] partitionedFilerKeys = partition(partitionKeys, filerKeys);
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int p = 0; p < stores.length; p++) {
+            if (partitionedFilerKeys[p] != null) {
+                TxNamedMapOfFiler<N, H, M> store = stores[p];
+                byte[][] storeFilerKeys = partitionedFilerKeys[p];
+                reads.add(StackBufferCall.async(executor, stackBuffers, stackBuffer -> {
+                    store.readEach(mapName, storeFilerKeys, filerTransaction, results, stackBuffer);
+                    return null;
+                }));
+            }
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[reads.size()]));
+    }
+
+    /**
+     * Prefetches the chunks of filerKeys partition by partition, see {@link TxNamedMapOfFiler#prefetch}.
+     *
+     * @return the number of chunks prefetched across all partitions
+     */
+    public CompletableFuture<Integer> prefetch(byte[][] partitionKeys,
+        byte[] mapName,
+        byte[][] filerKeys,
+        boolean openFilers,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        byte[][][] partitionedFilerKeys = partition(partitionKeys, filerKeys);
+        CompletableFuture<Integer> prefetched = CompletableFuture.completedFuture(0);
+        for (int p = 0; p < stores.length; p++) {
+            if (partitionedFilerKeys[p] != null) {
+                prefetched = prefetched.thenCombine(stores[p].prefetch(mapName, partitionedFilerKeys[p], openFilers, stackBuffer), Integer::sum);
+            }
+        }
+        return prefetched;
+    }
+
+    private byte[][][] partition(byte[][] partitionKeys, byte[][] filerKeys) {
         byte[][][] partitionedFilerKeys = new byte[stores.length][][];
         for (int i = 0; i < partitionKeys.length; i++) {
             byte[] partitionKey = partitionKeys[i];
@@ -111,11 +176,7 @@ public class TxPartitionedNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
                 partitionedFilerKeys[p][i] = filerKey;
             }
         }
-        for (int p = 0; p < stores.length; p++) {
-            if (partitionedFilerKeys[p] != null) {
-                stores[p].readEach(mapName, partitionedFilerKeys[p], filerTransaction, results, stackBuffer);
-            }
-        }
+        return partitionedFilerKeys;
     }
 
     public Boolean stream(final byte[] mapName, final List<KeyRange> ranges, final TxStream<byte[], M, ChunkFiler> stream, StackBuffer stackBuffer) throws
@@ -145,4 +206,10 @@ public class TxPartitionedNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
         }
         return count;
     }
+
+    public void compact(byte[] mapName, ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        for (TxNamedMapOfFiler<N, H, M> store : stores) {
+            store.compact(mapName, compaction, stackBuffer);
+        }
+    }
 }
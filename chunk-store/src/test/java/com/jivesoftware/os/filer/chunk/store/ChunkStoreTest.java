@@ -8,29 +8,47 @@
  */
 package com.jivesoftware.os.filer.chunk.store;
 
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
 import com.jivesoftware.os.filer.io.CreateFiler;
 import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
 import com.jivesoftware.os.filer.io.NoOpCreateFiler;
 import com.jivesoftware.os.filer.io.NoOpOpenFiler;
+import com.jivesoftware.os.filer.io.OpenFiler;
 import com.jivesoftware.os.filer.io.StripingLocksProvider;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkMetrics;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.io.chunk.ChunkStoreConfig;
+import com.jivesoftware.os.filer.io.chunk.DeflaterChunkCodec;
+import com.jivesoftware.os.filer.io.chunk.Durability;
+import com.jivesoftware.os.filer.io.chunk.FreeChunkPolicy;
+import com.jivesoftware.os.filer.io.chunk.StripedFiler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * @author jonathan.colt
@@ -247,6 +265,7 @@ public class ChunkStoreTest {
         for (long fp : fps1) {
             chunkStore.remove(fp, stackBuffer);
         }
+        assertEquals(chunkStore.prefetch(new long[]{fps1.get(0), fps1.get(1)}).get().intValue(), 0);
 
         List<Long> fps2 = new ArrayList<>();
         for (int i = 0; i < 2; i++) {
@@ -259,5 +278,689 @@ public class ChunkStoreTest {
         Collections.sort(fps2);
 
         assertEquals(fps1, fps2);
+        // reused chunks are live again
+        assertEquals(chunkStore.prefetch(new long[]{fps2.get(0), fps2.get(1)}).get().intValue(), 2);
+    }
+
+    @Test
+    public void testBuddySplitAndCoalesce() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testBuddySplitAndCoalesce").toFile();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, true,
+            stackBuffer);
+        assertTrue(chunkStore.isBuddyAllocation());
+
+        long largeFp = chunkStore.newChunk(4_000L, createFiler, stackBuffer);
+        assertEquals(largeFp, chunkStore.getSkyHookFp());
+        chunkStore.remove(largeFp, stackBuffer);
+
+        List<Long> smallFps = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            long fp = chunkStore.newChunk(900L, createFiler, stackBuffer);
+            assertTrue(fp >= largeFp && fp < largeFp + 4_096, "Expected " + fp + " to be split from " + largeFp);
+            writeIntToChunk(chunkStore, fp, i, stackBuffer);
+            smallFps.add(fp);
+        }
+        for (int i = 0; i < smallFps.size(); i++) {
+            assertIntInChunk(chunkStore, smallFps.get(i), i, stackBuffer);
+        }
+
+        for (long fp : smallFps) {
+            chunkStore.remove(fp, stackBuffer);
+        }
+        assertEquals(chunkStore.newChunk(4_000L, createFiler, stackBuffer), largeFp);
+        assertIntInChunk(chunkStore, largeFp, 0, stackBuffer);
+    }
+
+    @Test
+    public void testExistingBuddyChunkStore() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testExistingBuddyChunkStore").toFile();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, true,
+            stackBuffer);
+
+        long chunk10 = chunkStore.newChunk(10L, createFiler, stackBuffer);
+        writeIntToChunk(chunkStore, chunk10, 10, stackBuffer);
+        long chunk2000 = chunkStore.newChunk(2_000L, createFiler, stackBuffer);
+        chunkStore.remove(chunk2000, stackBuffer);
+
+        chunkStore.close();
+
+        ChunkMetrics.ChunkMetric freeChunks = ChunkMetrics.getGauge("ChunkStore", "total", "freeChunks");
+        long freeBefore = freeChunks.getValue();
+        chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, stackBuffer);
+        long freeOpened = freeChunks.getValue();
+        assertTrue(freeOpened > freeBefore);
+        chunkStore.open(stackBuffer);
+        assertEquals(freeChunks.getValue(), freeOpened, "reopening must not count the free lists twice");
+
+        assertTrue(chunkStore.isBuddyAllocation());
+        assertEquals(chunkStore.getSkyHookFp(), chunk10);
+        assertIntInChunk(chunkStore, chunk10, 10, stackBuffer);
+        assertEquals(chunkStore.newChunk(2_000L, createFiler, stackBuffer), chunk2000);
+        chunkStore.close();
+        assertEquals(freeChunks.getValue(), freeBefore);
+    }
+
+    @Test
+    public void testAllocationArenas() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testAllocationArenas").toFile();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, stackBuffer);
+        chunkStore.enableAllocationArenas(4, 16, 16);
+
+        int numThreads = 4;
+        int numChunks = 100;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executorService.submit(() -> {
+                StackBuffer threadStackBuffer = new StackBuffer();
+                List<Long> fps = new ArrayList<>();
+                for (int i = 0; i < numChunks; i++) {
+                    long fp = chunkStore.newChunk(100L, createFiler, threadStackBuffer);
+                    writeIntToChunk(chunkStore, fp, (int) fp, threadStackBuffer);
+                    fps.add(fp);
+                }
+                return fps;
+            }));
+        }
+        List<Long> allFps = new ArrayList<>();
+        for (Future<List<Long>> future : futures) {
+            allFps.addAll(future.get());
+        }
+        executorService.shutdownNow();
+
+        assertEquals(allFps.stream().distinct().count(), (long) numThreads * numChunks);
+        for (long fp : allFps) {
+            assertIntInChunk(chunkStore, fp, (int) fp, stackBuffer);
+            chunkStore.remove(fp, stackBuffer);
+        }
+        chunkStore.releaseArenas(stackBuffer);
+
+        long sizeInBytes = chunkStore.sizeInBytes();
+        for (int i = 0; i < numThreads * numChunks; i++) {
+            chunkStore.newChunk(100L, createFiler, stackBuffer);
+        }
+        assertEquals(chunkStore.sizeInBytes(), sizeInBytes);
+    }
+
+    @Test
+    public void testDoubleRemoveWithArenas() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkMetrics.ChunkMetric doubleRemoves = ChunkMetrics.get("ChunkStore", "total", "doubleRemove");
+        for (boolean buddy : new boolean[]{false, true}) {
+            ChunkStoreConfig config = ChunkStoreConfig.newBuilder().setBuddyAllocation(buddy).build();
+            ChunkStore chunkStore = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 1024, config, stackBuffer);
+            chunkStore.enableAllocationArenas(1, 4, 1);
+
+            long fp = chunkStore.newChunk(100L, createFiler, stackBuffer);
+            long removed = doubleRemoves.getValue();
+            chunkStore.remove(fp, stackBuffer);
+            chunkStore.remove(fp, stackBuffer);
+            assertEquals(doubleRemoves.getValue() - removed, 1);
+            assertTrue(chunkStore.newChunk(100L, createFiler, stackBuffer) != chunkStore.newChunk(100L, createFiler, stackBuffer));
+
+            // a recycled chunk is never coalesced with a buddy which is freed after it
+            long[] fps = new long[4];
+            for (int i = 0; i < fps.length; i++) {
+                fps[i] = chunkStore.newChunk(100L, createFiler, stackBuffer);
+            }
+            for (long f : fps) {
+                chunkStore.remove(f, stackBuffer);
+            }
+            List<Long> reused = new ArrayList<>();
+            for (int i = 0; i < fps.length * 2; i++) {
+                reused.add(chunkStore.newChunk(100L, createFiler, stackBuffer));
+            }
+            assertEquals(reused.stream().distinct().count(), (long) reused.size());
+        }
+    }
+
+    @Test
+    public void testNewChunks() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testNewChunks").toFile();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        Long[] hints = {10L, 1_000L, 100L, 10_000L};
+        long[] fps = new long[hints.length];
+        chunkStore.newChunks(hints, createFiler, fps, stackBuffer);
+
+        assertEquals(Arrays.stream(fps).distinct().count(), (long) hints.length);
+        for (int i = 0; i < fps.length; i++) {
+            assertTrue(chunkStore.isValid(fps[i], stackBuffer));
+            writeIntToChunk(chunkStore, fps[i], i, stackBuffer);
+        }
+        for (int i = 0; i < fps.length; i++) {
+            assertIntInChunk(chunkStore, fps[i], i, stackBuffer);
+            chunkStore.remove(fps[i], stackBuffer);
+        }
+
+        long sizeInBytes = chunkStore.sizeInBytes();
+        chunkStore.newChunks(hints, createFiler, fps, stackBuffer);
+        assertEquals(chunkStore.sizeInBytes(), sizeInBytes);
+
+        // a failed batch hands back every chunk it reserved
+        for (long fp : fps) {
+            chunkStore.remove(fp, stackBuffer);
+        }
+        try {
+            chunkStore.newChunks(hints, new CreateFiler<Long, Void, ChunkFiler>() {
+                @Override
+                public long sizeInBytes(Long hint) throws IOException {
+                    return hint;
+                }
+
+                @Override
+                public Void create(Long hint, ChunkFiler filer, StackBuffer stackBuffer) throws IOException {
+                    if (hint == 100L) {
+                        throw new IOException("boom");
+                    }
+                    return null;
+                }
+            }, fps, stackBuffer);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        chunkStore.newChunks(hints, createFiler, fps, stackBuffer);
+        assertEquals(chunkStore.sizeInBytes(), sizeInBytes);
+    }
+
+    @Test
+    public void testCopyToAndExportSnapshot() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkStore chunkStore = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 1024, new HeapByteBufferFactory(), 500, 5_000,
+            stackBuffer);
+
+        long[] fps = new long[20];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = chunkStore.newChunk(700L, createFiler, stackBuffer);
+            writeIntAt(chunkStore, fps[i], 600, i, stackBuffer);
+        }
+
+        // segments of a different size on the other side
+        ChunkStore copy = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 4096, new HeapByteBufferFactory(), 500, 5_000,
+            stackBuffer);
+        chunkStore.copyTo(copy, stackBuffer);
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals(readIntAt(copy, fps[i], 600, stackBuffer), i);
+        }
+
+        File dir = Files.createTempDirectory("testExportSnapshot").toFile();
+        long exported = chunkStore.exportSnapshot(dir.toPath(), "data", stackBuffer);
+        assertTrue(exported > 0 && exported <= chunkStore.sizeInBytes());
+        ChunkStore snapshot = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, new HeapByteBufferFactory(), 500, 5_000,
+            stackBuffer);
+        for (int i = 0; i < fps.length; i++) {
+            assertTrue(snapshot.isValid(fps[i], stackBuffer));
+            assertEquals(readIntAt(snapshot, fps[i], 600, stackBuffer), i);
+        }
+    }
+
+    @Test
+    public void testIncrementalSnapshot() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkStoreConfig config = ChunkStoreConfig.newBuilder().setNumberOfStripes(4).setDirtyPageSize(1024).build();
+        ChunkStore chunkStore = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 4096, config, stackBuffer);
+
+        long[] fps = new long[20];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = chunkStore.newChunk(700L, createFiler, stackBuffer);
+            writeIntAt(chunkStore, fps[i], 600, i, stackBuffer);
+        }
+
+        ByteArrayOutputStream base = new ByteArrayOutputStream();
+        long epoch = chunkStore.incrementalSnapshot(0, Channels.newChannel(base), stackBuffer);
+
+        ChunkStore restored = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 4096, config, stackBuffer);
+        assertEquals(restored.restoreIncrementalSnapshot(Channels.newChannel(new ByteArrayInputStream(base.toByteArray())), stackBuffer), epoch);
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals(readIntAt(restored, fps[i], 600, stackBuffer), i);
+        }
+
+        writeIntAt(chunkStore, fps[7], 600, 700, stackBuffer);
+        ByteArrayOutputStream increment = new ByteArrayOutputStream();
+        chunkStore.incrementalSnapshot(epoch, Channels.newChannel(increment), stackBuffer);
+        assertTrue(increment.size() < base.size() / 4, "increment:" + increment.size() + " base:" + base.size());
+
+        restored.restoreIncrementalSnapshot(Channels.newChannel(new ByteArrayInputStream(increment.toByteArray())), stackBuffer);
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals(readIntAt(restored, fps[i], 600, stackBuffer), i == 7 ? 700 : i);
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testGroupCommit").toFile();
+        ChunkStoreConfig config = ChunkStoreConfig.newBuilder()
+            .setNumberOfStripes(4)
+            .setDurability(Durability.GROUP_COMMIT)
+            .setGroupCommitMaxDelayMillis(5)
+            .build();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 4096, config, stackBuffer);
+
+        int numThreads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int value = t;
+            futures.add(executorService.submit(() -> {
+                StackBuffer threadStackBuffer = new StackBuffer();
+                long[] fps = new long[10];
+                for (int i = 0; i < fps.length; i++) {
+                    fps[i] = chunkStore.newChunk(100L, createFiler, threadStackBuffer);
+                    writeIntAt(chunkStore, fps[i], 0, value, threadStackBuffer);
+                    chunkStore.commit();
+                }
+                return fps;
+            }));
+        }
+        for (int t = 0; t < numThreads; t++) {
+            for (long fp : futures.get(t).get(10, TimeUnit.SECONDS)) {
+                assertEquals(readIntAt(chunkStore, fp, 0, stackBuffer), t);
+            }
+        }
+        executorService.shutdownNow();
+
+        chunkStore.close();
+        try {
+            chunkStore.commit();
+            fail("Expected a commit after close to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testZeroOnReuse() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        for (boolean buddy : new boolean[]{false, true}) {
+            File dir = Files.createTempDirectory("testZeroOnReuse").toFile();
+            HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+            ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 1024, byteBufferFactory, 500, 5_000, buddy,
+                stackBuffer);
+            chunkStore.setFreeChunkPolicy(FreeChunkPolicy.ZERO_ON_REUSE);
+
+            long largeFp = chunkStore.newChunk(4_000L, createFiler, stackBuffer);
+            writeIntAt(chunkStore, largeFp, 512, 7, stackBuffer);
+            writeIntAt(chunkStore, largeFp, 3_000, 11, stackBuffer);
+            chunkStore.remove(largeFp, stackBuffer);
+
+            if (buddy) {
+                // the dirty block is split and every piece is zeroed as it is handed out
+                long[] fps = new long[4];
+                for (int i = 0; i < fps.length; i++) {
+                    fps[i] = chunkStore.newChunk(900L, createFiler, stackBuffer);
+                }
+                assertEquals(fps[0], largeFp);
+                assertEquals(readIntAt(chunkStore, fps[0], 512, stackBuffer), 0);
+                assertEquals(readIntAt(chunkStore, fps[2], 952, stackBuffer), 0);
+            } else {
+                assertEquals(chunkStore.newChunk(4_000L, createFiler, stackBuffer), largeFp);
+                assertEquals(readIntAt(chunkStore, largeFp, 512, stackBuffer), 0);
+                assertEquals(readIntAt(chunkStore, largeFp, 3_000, stackBuffer), 0);
+            }
+        }
+    }
+
+    private void writeIntAt(ChunkStore chunkStore, long chunkFP, long offset, int value, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer1, lock) -> {
+            synchronized (lock) {
+                filer.seek(offset);
+                FilerIO.writeInt(filer, value, "", stackBuffer1);
+                return null;
+            }
+        }, stackBuffer);
+    }
+
+    private int readIntAt(ChunkStore chunkStore, long chunkFP, long offset, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer1, lock) -> {
+            synchronized (lock) {
+                filer.seek(offset);
+                return FilerIO.readInt(filer, "", stackBuffer1);
+            }
+        }, stackBuffer);
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        for (boolean buddy : new boolean[]{false, true}) {
+            // memory mapped files are never truncated, see testCompactionWithoutTruncate
+            HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+            ChunkStore chunkStore = new ChunkStoreInitializer().create(byteBufferFactory, 1024, byteBufferFactory, 500, 5_000, buddy, stackBuffer);
+
+            long[] fps = new long[10];
+            for (int i = 0; i < fps.length; i++) {
+                fps[i] = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+                writeIntToChunk(chunkStore, fps[i], i, stackBuffer);
+            }
+            for (int i = 0; i < 5; i++) {
+                chunkStore.remove(fps[i], stackBuffer);
+            }
+            long sizeInBytes = chunkStore.sizeInBytes();
+
+            ChunkCompaction compaction = chunkStore.startCompaction(0, stackBuffer);
+            for (int i = 5; i < fps.length; i++) {
+                long fp = compaction.relocate(fps[i], stackBuffer);
+                assertTrue(fp < compaction.getBoundaryFP());
+                fps[i] = fp;
+            }
+            assertEquals(compaction.getRelocatedChunks(), 5);
+            assertTrue(compaction.finish(stackBuffer) > 0);
+            assertTrue(chunkStore.sizeInBytes() < sizeInBytes);
+
+            for (int i = 5; i < fps.length; i++) {
+                assertIntInChunk(chunkStore, fps[i], i, stackBuffer);
+            }
+            for (int i = 0; i < 5; i++) {
+                fps[i] = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+                writeIntToChunk(chunkStore, fps[i], i, stackBuffer);
+            }
+            for (int i = 0; i < fps.length; i++) {
+                assertIntInChunk(chunkStore, fps[i], i, stackBuffer);
+            }
+        }
+    }
+
+    @Test
+    public void testCompactionWithoutTruncate() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory heap = new HeapByteBufferFactory();
+        ByteBufferFactory cannotTruncate = new ByteBufferFactory() {
+            @Override
+            public boolean exists(byte[] key) {
+                return heap.exists(key);
+            }
+
+            @Override
+            public ByteBuffer allocate(byte[] key, long size) {
+                return heap.allocate(key, size);
+            }
+
+            @Override
+            public ByteBuffer reallocate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+                return heap.reallocate(key, oldBuffer, newSize);
+            }
+        };
+        ChunkStore chunkStore = new ChunkStoreInitializer().create(cannotTruncate, 1024 * 1024, heap, 500, 5_000, stackBuffer);
+        chunkStore.setFreeChunkPolicy(FreeChunkPolicy.ZERO_ON_REUSE);
+
+        long[] fps = new long[10];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, fps[i], i + 1, stackBuffer);
+        }
+        for (int i = 5; i < fps.length; i++) {
+            chunkStore.remove(fps[i], stackBuffer);
+        }
+        long sizeInBytes = chunkStore.sizeInBytes();
+
+        ChunkCompaction compaction = chunkStore.startCompaction(0, stackBuffer);
+        assertTrue(compaction.finish(stackBuffer) > 0);
+        assertEquals(chunkStore.sizeInBytes(), sizeInBytes);
+
+        // chunks appended over the dropped tail must not see what was removed there
+        for (int i = 5; i < fps.length; i++) {
+            long fp = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+            assertEquals(readIntAt(chunkStore, fp, 0, stackBuffer), 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertIntInChunk(chunkStore, fps[i], i + 1, stackBuffer);
+        }
+    }
+
+    @Test
+    public void testReadOptimizedStripes() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkStoreConfig config = ChunkStoreConfig.newBuilder()
+            .setNumberOfStripes(4)
+            .setMaxChunksPerStripe(2)
+            .setReadOptimized(true)
+            .setContentionSampleRate(1)
+            .build();
+        ChunkStore chunkStore = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 1024, config, stackBuffer);
+
+        long[] fps = new long[8];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        }
+
+        // opened chunks carry a monkey so they stay cached and later executes take the optimistic path
+        OpenFiler<Object, ChunkFiler> monkeyOpener = (chunkFiler, stackBuffer1) -> new Object();
+        int numThreads = 8;
+        int numIncrements = 1_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int seed = t;
+            futures.add(executorService.submit(() -> {
+                StackBuffer threadStackBuffer = new StackBuffer();
+                Random random = new Random(seed);
+                for (int i = 0; i < numIncrements; i++) {
+                    chunkStore.execute(fps[random.nextInt(fps.length)], monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> {
+                        synchronized (lock) {
+                            chunkFiler.seek(0);
+                            int value = FilerIO.readInt(chunkFiler, "", stackBuffer1);
+                            chunkFiler.seek(0);
+                            FilerIO.writeInt(chunkFiler, value + 1, "", stackBuffer1);
+                            return null;
+                        }
+                    }, threadStackBuffer);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdownNow();
+
+        int total = 0;
+        for (long fp : fps) {
+            total += chunkStore.execute(fp, monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> {
+                synchronized (lock) {
+                    chunkFiler.seek(0);
+                    return FilerIO.readInt(chunkFiler, "", stackBuffer1);
+                }
+            }, stackBuffer);
+        }
+        assertEquals(total, numThreads * numIncrements);
+
+        StripedFiler.StripeContention[] contention = chunkStore.getStripeContention();
+        assertEquals(contention.length, 4);
+        assertTrue(Arrays.stream(contention).mapToLong(StripedFiler.StripeContention::getSamples).sum() > 0);
+    }
+
+    @Test
+    public void testHotChunkManifest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testHotChunkManifest").toFile();
+        Path manifest = new File(dir, "hot-chunks").toPath();
+        ChunkStoreConfig config = ChunkStoreConfig.newBuilder()
+            .setNumberOfStripes(4)
+            .setHotChunkManifest(manifest)
+            .setHotChunkManifestIntervalMillis(0)
+            .setWarmUpParallelism(2)
+            .build();
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 4096, config, stackBuffer);
+
+        OpenFiler<Object, ChunkFiler> monkeyOpener = (chunkFiler, stackBuffer1) -> new Object();
+        long[] fps = new long[10];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = chunkStore.newChunk(100L, createFiler, stackBuffer);
+            writeIntAt(chunkStore, fps[i], 0, i, stackBuffer);
+            // the later chunks are hotter
+            for (int j = 0; j <= i; j++) {
+                chunkStore.execute(fps[i], monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> null, stackBuffer);
+            }
+        }
+        assertEquals(chunkStore.saveHotChunks(manifest, 4), 4);
+        chunkStore.remove(fps[8], stackBuffer);
+        chunkStore.close();
+
+        // close recorded every cached chunk, the removed one is gone from the cache and so from the manifest
+        ChunkStore reopened = new ChunkStoreInitializer().openOrCreate(new File[]{dir}, 0, "data", 4096, config, stackBuffer);
+        // a recorded chunk which was removed and handed out again is still warmed
+        reopened.remove(fps[9], stackBuffer);
+        assertEquals(reopened.newChunk(100L, createFiler, stackBuffer), fps[9]);
+        writeIntAt(reopened, fps[9], 0, 9, stackBuffer);
+        assertEquals(reopened.startWarmUp(monkeyOpener).get().intValue(), fps.length - 1);
+        assertEquals(reopened.warmUp(manifest, monkeyOpener, 3), fps.length - 1);
+        for (int i = 0; i < fps.length; i++) {
+            if (i != 8) {
+                int value = reopened.execute(fps[i], monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> {
+                    assertTrue(monkey != null);
+                    chunkFiler.seek(0);
+                    return FilerIO.readInt(chunkFiler, "", stackBuffer1);
+                }, stackBuffer);
+                assertEquals(value, i);
+            }
+        }
+        reopened.close();
+
+        assertEquals(reopened.warmUp(new File(dir, "missing").toPath(), monkeyOpener, 1), 0);
+    }
+
+    @Test
+    public void testReadOnlyReopen() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File writerDir = Files.createTempDirectory("testReadOnlyReopen").toFile();
+        ChunkStoreConfig config = ChunkStoreConfig.newBuilder().setNumberOfStripes(4).build();
+        ChunkStore writer = new ChunkStoreInitializer().openOrCreate(new File[]{writerDir}, 0, "data", 4096, config, stackBuffer);
+        long[] fps = new long[5];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = writer.newChunk(100L, createFiler, stackBuffer);
+            writeIntAt(writer, fps[i], 0, i, stackBuffer);
+        }
+        writer.commit();
+
+        File[] generation1 = new File[]{copyDirectory(writerDir, "generation1")};
+        ChunkStore replica = new ChunkStoreInitializer().openReadOnly(generation1, 0, "data", config, stackBuffer);
+        assertTrue(replica.isReadOnly());
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals(readIntAt(replica, fps[i], 0, stackBuffer), i);
+        }
+        try {
+            replica.newChunk(100L, createFiler, stackBuffer);
+            fail("Expected a read only store to reject newChunk");
+        } catch (IOException expected) {
+        }
+        try {
+            replica.remove(fps[0], stackBuffer);
+            fail("Expected a read only store to reject remove");
+        } catch (IOException expected) {
+        }
+
+        writeIntAt(writer, fps[0], 0, 100, stackBuffer);
+        long added = writer.newChunk(100L, createFiler, stackBuffer);
+        writeIntAt(writer, added, 0, 200, stackBuffer);
+        writer.commit();
+        File[] generation2 = new File[]{copyDirectory(writerDir, "generation2")};
+
+        // a reader already executing against the first generation finishes against it
+        int inFlight = replica.execute(fps[0], openFiler, (monkey, filer, stackBuffer1, lock) -> {
+            try {
+                new ChunkStoreInitializer().reopenReadOnly(replica, generation2, 0, "data", stackBuffer1);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            filer.seek(0);
+            return FilerIO.readInt(filer, "", stackBuffer1);
+        }, stackBuffer);
+        assertEquals(inFlight, 0);
+
+        assertEquals(readIntAt(replica, fps[0], 0, stackBuffer), 100);
+        assertEquals(readIntAt(replica, added, 0, stackBuffer), 200);
+        for (int i = 1; i < fps.length; i++) {
+            assertEquals(readIntAt(replica, fps[i], 0, stackBuffer), i);
+        }
+        writer.close();
+        replica.close();
+    }
+
+    @Test
+    public void testCompressColdChunks() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        for (boolean buddy : new boolean[]{false, true}) {
+            ChunkStoreConfig config = ChunkStoreConfig.newBuilder()
+                .setNumberOfStripes(4)
+                .setBuddyAllocation(buddy)
+                .setChunkCodec(new DeflaterChunkCodec())
+                .build();
+            ChunkStore chunkStore = new ChunkStoreInitializer().create(new HeapByteBufferFactory(), 1024, config, stackBuffer);
+
+            long[] fps = new long[10];
+            for (int i = 0; i < fps.length; i++) {
+                fps[i] = chunkStore.newChunk(4_000L, createFiler, stackBuffer);
+                for (int offset = 0; offset < 1_000; offset += 4) {
+                    writeIntAt(chunkStore, fps[i], offset, i, stackBuffer);
+                }
+            }
+
+            assertEquals(chunkStore.compress(fps[0], stackBuffer), fps[0]); // the sky hook never moves
+            for (int i = 1; i < fps.length; i += 2) {
+                long fp = chunkStore.compress(fps[i], stackBuffer);
+                assertTrue(fp != fps[i]);
+                assertEquals(chunkStore.compress(fp, stackBuffer), fp); // already compressed
+                fps[i] = fp;
+            }
+
+            // opened once through the miss path and then read again from the cache, which keeps the decoded payload
+            OpenFiler<Object, ChunkFiler> monkeyOpener = (chunkFiler, stackBuffer1) -> {
+                chunkFiler.seek(0);
+                return FilerIO.readInt(chunkFiler, "", stackBuffer1);
+            };
+            ChunkMetrics.ChunkMetric decompressions = ChunkMetrics.get("ChunkStore", "total", "decompressions");
+            for (int pass = 0; pass < 2; pass++) {
+                long decompressed = decompressions.getValue();
+                for (int i = 0; i < fps.length; i++) {
+                    int expected = i;
+                    chunkStore.execute(fps[i], monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> {
+                        assertEquals(monkey, expected);
+                        assertTrue(chunkFiler.getSize() >= 4_000);
+                        for (int offset = 0; offset < 1_000; offset += 4) {
+                            chunkFiler.seek(offset);
+                            assertEquals(FilerIO.readInt(chunkFiler, "", stackBuffer1), expected);
+                        }
+                        chunkFiler.seek(1_000);
+                        assertEquals(FilerIO.readInt(chunkFiler, "", stackBuffer1), 0);
+                        return null;
+                    }, stackBuffer);
+                }
+                assertEquals(decompressions.getValue() - decompressed, pass == 0 ? fps.length / 2 : 0);
+            }
+
+            try {
+                chunkStore.execute(fps[1], monkeyOpener, (monkey, chunkFiler, stackBuffer1, lock) -> {
+                    chunkFiler.seek(0);
+                    FilerIO.writeInt(chunkFiler, 100, "", stackBuffer1);
+                    return null;
+                }, stackBuffer);
+                fail("Expected a compressed chunk to be read only");
+            } catch (ReadOnlyBufferException expected) {
+            }
+
+            // a compressed chunk is freed like any other and comes back raw and zeroed
+            chunkStore.remove(fps[1], stackBuffer);
+            long fp = chunkStore.newChunk(10L, createFiler, stackBuffer);
+            assertEquals(readIntAt(chunkStore, fp, 0, stackBuffer), 0);
+            writeIntAt(chunkStore, fp, 0, 7, stackBuffer);
+            assertEquals(readIntAt(chunkStore, fp, 0, stackBuffer), 7);
+        }
+    }
+
+    private static File copyDirectory(File from, String prefix) throws IOException {
+        File to = Files.createTempDirectory(prefix).toFile();
+        for (File file : from.listFiles()) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+        }
+        return to;
     }
 }
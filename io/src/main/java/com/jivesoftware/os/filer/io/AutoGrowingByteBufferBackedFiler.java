@@ -17,23 +17,38 @@ package com.jivesoftware.os.filer.io;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
+ * Segments are mapped lazily. Growing only maps the segment holding the new position and a segment in between is mapped the first
+ * time anything touches it. Duplicates share the root's {@link SegmentTable} and wrap a segment on first access, so duplicating
+ * costs the same whatever the size of the filer. A duplicate only holds a window of the segments it touched, picks up segments the
+ * root added since from the shared directory and drops what it wrapped when the directory says a segment was reallocated, so it never
+ * has to be duplicated afresh after the root grew.
+ *
  * @author jonathan.colt
  */
 public class AutoGrowingByteBufferBackedFiler implements Filer {
 
     public static final long MAX_BUFFER_SEGMENT_SIZE = FilerIO.chunkLength(30);
-    public static long MAX_POSITION = MAX_BUFFER_SEGMENT_SIZE * 100;
+    /**
+     * Positions past this (64 TB) are taken to be runaway. The segment directory itself is paged and grows with the filer.
+     */
+    public static long MAX_POSITION = FilerIO.chunkLength(46);
 
     private final ByteBufferFactory byteBufferFactory;
     private final long initialBufferSegmentSize;
     private long maxBufferSegmentSize;
 
-    ByteBufferBackedFiler[] filers;
-    int filersLength;
+    private SegmentTable segments;
+    private long segmentsVersion; // version of the directory the wrapped segments were taken from
+    ByteBufferBackedFiler[] filers; // filers[f - filersBase], null entries are wrapped from segments on first access
+    int filersBase;
+    int filersLength; // segments this filer knows of
+    private ByteBufferBackedFiler fpFiler;
     private int fpFilerIndex;
     private long fpFilerOffset;
     private long length;
@@ -41,6 +56,9 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     private int fShift;
     private long fseekMask;
 
+    private DirtyPages dirtyPages; // null unless tracked, shared with every duplicate
+    private DirtyPages unflushedPages; // null unless tracked, shared with every duplicate
+
     public AutoGrowingByteBufferBackedFiler(ByteBufferFactory byteBufferFactory,
         long initialBufferSegmentSize,
         long maxBufferSegmentSize) throws IOException {
@@ -51,6 +69,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         maxBufferSegmentSize = Math.min(FilerIO.chunkLength(FilerIO.chunkPower(maxBufferSegmentSize, 0)), MAX_BUFFER_SEGMENT_SIZE);
         this.maxBufferSegmentSize = maxBufferSegmentSize;
 
+        this.segments = new SegmentTable(byteBufferFactory, maxBufferSegmentSize);
         this.filers = new ByteBufferBackedFiler[0];
         this.filersLength = 0;
 
@@ -63,18 +82,24 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         }
     }
 
-    AutoGrowingByteBufferBackedFiler(
+    AutoGrowingByteBufferBackedFiler(SegmentTable segments,
+        long segmentsVersion,
         long maxBufferSegmentSize,
         ByteBufferBackedFiler[] filers,
+        int filersBase,
         int filersLength,
         long length,
         int fShift,
         long fseekMask) {
         this.byteBufferFactory = null;
         this.initialBufferSegmentSize = -1;
+        this.segments = segments;
+        this.segmentsVersion = segmentsVersion;
         this.maxBufferSegmentSize = maxBufferSegmentSize;
         this.filers = filers;
+        this.filersBase = filersBase;
         this.filersLength = filersLength;
+        this.fpFiler = null;
         this.fpFilerIndex = -1;
         this.fpFilerOffset = -1;
         this.length = length;
@@ -82,15 +107,22 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         this.fseekMask = fseekMask;
     }
 
-    void mutate(long maxBufferSegmentSize,
+    void mutate(SegmentTable segments,
+        long segmentsVersion,
+        long maxBufferSegmentSize,
         ByteBufferBackedFiler[] filers,
+        int filersBase,
         int filersLength,
         long length,
         int fShift,
         long fseekMask) {
+        this.segments = segments;
+        this.segmentsVersion = segmentsVersion;
         this.maxBufferSegmentSize = maxBufferSegmentSize;
         this.filers = filers;
+        this.filersBase = filersBase;
         this.filersLength = filersLength;
+        this.fpFiler = null;
         this.fpFilerIndex = -1;
         this.fpFilerOffset = -1;
         this.length = length;
@@ -98,8 +130,143 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         this.fseekMask = fseekMask;
     }
 
+    /**
+     * Marks the pages written through this filer and all of its subsequent duplicates. Enable before the first duplicate is made.
+     *
+     * @param pageSize power of 2 granularity of the tracking
+     */
+    public void trackDirtyPages(long pageSize) {
+        this.dirtyPages = new DirtyPages(pageSize);
+    }
+
+    /**
+     * @return null unless {@link #trackDirtyPages(long)} was called
+     */
+    public DirtyPages getDirtyPages() {
+        return dirtyPages;
+    }
+
+    /**
+     * Like {@link #trackDirtyPages(long)} but for a flusher which owns the tracker. Enable before the first duplicate is made.
+     *
+     * @param unflushedPages
+     */
+    public void trackUnflushedPages(DirtyPages unflushedPages) {
+        this.unflushedPages = unflushedPages;
+    }
+
+    public long getMaxBufferSegmentSize() {
+        return maxBufferSegmentSize;
+    }
+
+    /**
+     * Forces every memory mapped segment overlapping [fp, fp + length) to storage, other buffers have nothing to force. Java 8 can only
+     * force a whole MappedByteBuffer so each overlapping segment is forced entirely. Segments are read from the published segment table
+     * without locking, a segment nobody has mapped yet holds nothing to force.
+     *
+     * @param fp
+     * @param length
+     */
+    public void force(long fp, long length) {
+        if (length <= 0) {
+            return;
+        }
+        SegmentTable.Directory directory = segments.directory();
+        int first = (int) (fp >> fShift);
+        int last = (int) Math.min((fp + length - 1) >> fShift, directory.count - 1);
+        for (int f = first; f <= last; f++) {
+            ByteBuffer buffer = directory.get(f);
+            if (buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) buffer).force();
+            }
+        }
+    }
+
+    /**
+     * Reads one byte of every 4k page in [fp, fp + length) so that mapped pages are faulted in ahead of use, which is what
+     * MappedByteBuffer.load does for a whole buffer. Java 8 slices of a mapped buffer are no longer mapped so load cannot be used on
+     * part of a segment. Reads go through the shared segment table with absolute gets, so any thread may touch concurrently.
+     *
+     * @return the sum of the bytes read, only returned so the reads cannot be optimized away
+     */
+    public long touch(long fp, long length) {
+        long sum = 0;
+        long end = fp + length;
+        while (fp < end) {
+            int f = (int) (fp >> fShift);
+            if (f >= segments.count()) {
+                break;
+            }
+            ByteBuffer buffer = segments.map(f);
+            int fseek = (int) (fp & fseekMask);
+            int limit = (int) Math.min(buffer.capacity(), fseek + (end - fp));
+            if (fseek >= limit) {
+                break;
+            }
+            for (int i = fseek; i < limit; i += 4096) {
+                sum += buffer.get(i);
+            }
+            fp += limit - fseek;
+        }
+        return sum;
+    }
+
+    /**
+     * The filer of segment f, wrapping the shared buffer on first access. The root wraps the buffer itself, duplicates wrap a
+     * duplicate of it.
+     */
+    private ByteBufferBackedFiler filer(int f) {
+        int i = f - filersBase;
+        if (i < 0 || i >= filers.length) {
+            widen(f);
+            i = f - filersBase;
+        }
+        ByteBufferBackedFiler filer = filers[i];
+        if (filer == null) {
+            ByteBuffer buffer = segments.map(f);
+            filer = new ByteBufferBackedFiler(byteBufferFactory != null ? buffer : buffer.duplicate());
+            filers[i] = filer;
+        }
+        return filer;
+    }
+
+    private void setFiler(int f, ByteBufferBackedFiler filer) {
+        if (f < filersBase || f - filersBase >= filers.length) {
+            widen(f);
+        }
+        filers[f - filersBase] = filer;
+    }
+
+    /**
+     * Grows the window of wrapped segments to take in f, doubling when growing past its end so the root grows amortized.
+     */
+    private void widen(int f) {
+        int base = Math.min(filersBase, f);
+        int end = filersBase + filers.length;
+        if (f >= end) {
+            end = Math.max(f + 1, filersBase + filers.length * 2);
+        }
+        ByteBufferBackedFiler[] widened = new ByteBufferBackedFiler[end - base];
+        System.arraycopy(filers, 0, widened, filersBase - base, filers.length);
+        filers = widened;
+        filersBase = base;
+    }
+
+    private void written(long fp, long length) {
+        if (dirtyPages != null) {
+            dirtyPages.mark(fp, length);
+        }
+        if (unflushedPages != null) {
+            unflushedPages.mark(fp, length);
+        }
+    }
+
     public AutoGrowingByteBufferBackedFiler duplicate(AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer, long startFP, long endFp) {
-        return duplicateBuffer.duplicate(duplicateBuffer, filers, filersLength, maxBufferSegmentSize, fShift, fseekMask, length, startFP, endFp);
+        AutoGrowingByteBufferBackedFiler duplicate = duplicateBuffer.duplicate(segments, maxBufferSegmentSize, fShift, fseekMask, length,
+            startFP, endFp);
+        duplicate.dirtyPages = dirtyPages;
+        duplicate.unflushedPages = unflushedPages;
+        return duplicate;
 //        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
 //        for (int i = 0; i < duplicate.length; i++) {
 //            if ((i + 1) * maxBufferSegmentSize < startFP || (i - 1) * maxBufferSegmentSize > endFp) {
@@ -111,27 +278,21 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     }
 
 
-    public AutoGrowingByteBufferBackedFiler duplicateNew(AutoGrowingByteBufferBackedFiler current) {
-        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
-        System.arraycopy(current.filers, 0, duplicate, 0, current.filersLength - 1);
-        for (int i = current.filersLength - 1; i < duplicate.length; i++) {
-            duplicate[i] = new ByteBufferBackedFiler(filers[i].buffer.duplicate());
-        }
-        return new AutoGrowingByteBufferBackedFiler(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
-    }
-
+    /**
+     * A duplicate spanning every segment, each wrapped on first access. It keeps up with this filer's growth on its own.
+     */
     public AutoGrowingByteBufferBackedFiler duplicateAll() {
-        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
-        for (int i = 0; i < duplicate.length; i++) {
-            duplicate[i] = new ByteBufferBackedFiler(filers[i].buffer.duplicate());
-        }
-        return new AutoGrowingByteBufferBackedFiler(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
+        SegmentTable.Directory directory = segments.directory();
+        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[Math.max(1, directory.count)];
+        AutoGrowingByteBufferBackedFiler duplicated = new AutoGrowingByteBufferBackedFiler(segments, directory.version, maxBufferSegmentSize,
+            duplicate, 0, directory.count, length, fShift, fseekMask);
+        duplicated.dirtyPages = dirtyPages;
+        duplicated.unflushedPages = unflushedPages;
+        return duplicated;
     }
 
     public boolean exists() {
-        byte[] key = String.valueOf(0)
-            .getBytes(StandardCharsets.UTF_8);
-        return byteBufferFactory.exists(key);
+        return byteBufferFactory.exists(SegmentTable.key(0));
     }
 
     final void ensure(long additionalBytes) throws IOException {
@@ -143,46 +304,50 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     }
 
     final void position(long position) throws IOException {
-        if (position > MAX_POSITION) {
+        if (position > MAX_POSITION || (position >> fShift) > Integer.MAX_VALUE) {
             throw new IllegalStateException("Encountered a likely runaway file position! position=" + position);
         }
         int f = (int) (position >> fShift);
         long fseek = position & fseekMask;
-        if (f >= filersLength) {
+        SegmentTable.Directory directory = segments.directory();
+        if (directory.version != segmentsVersion) {
+            // a segment wrapped here was reallocated or dropped since, wrap afresh from the directory
+            Arrays.fill(filers, null);
+            segmentsVersion = directory.version;
+        }
+        if (byteBufferFactory == null) {
+            filersLength = directory.count;
+        } else if (f >= filersLength) {
             int lastFilerIndex = filersLength - 1;
-            if (lastFilerIndex > -1 && filers[lastFilerIndex].length() < maxBufferSegmentSize) {
-                byte[] key = String.valueOf(lastFilerIndex)
-                    .getBytes(StandardCharsets.UTF_8);
-                ByteBuffer reallocate = byteBufferFactory.reallocate(key, filers[lastFilerIndex].buffer, maxBufferSegmentSize);
-                filers[lastFilerIndex] = new ByteBufferBackedFiler(reallocate);
+            if (lastFilerIndex > -1 && filer(lastFilerIndex).length() < maxBufferSegmentSize) {
+                ByteBuffer old = filer(lastFilerIndex).buffer;
+                ByteBuffer reallocate = byteBufferFactory.reallocate(SegmentTable.key(lastFilerIndex), old, maxBufferSegmentSize);
+                setFiler(lastFilerIndex, new ByteBufferBackedFiler(reallocate));
+                segments.publish(filersLength, lastFilerIndex, reallocate);
+                byteBufferFactory.release(SegmentTable.key(lastFilerIndex), old);
             }
 
-            int newLength = f + 1;
-            ByteBufferBackedFiler[] newFilers = new ByteBufferBackedFiler[newLength];
-            System.arraycopy(filers, 0, newFilers, 0, filersLength);
-            for (int n = filersLength; n < newLength; n++) {
-                byte[] key = String.valueOf(n)
-                    .getBytes(StandardCharsets.UTF_8);
-                if (n < newLength - 1) {
-                    newFilers[n] = new ByteBufferBackedFiler(byteBufferFactory.allocate(key, maxBufferSegmentSize));
-                } else {
-                    newFilers[n] = new ByteBufferBackedFiler(byteBufferFactory.allocate(key, Math.max(fseek, initialBufferSegmentSize)));
-                }
-            }
-            filers = newFilers;
-            filersLength = newLength;
+            // segments in between are left for whoever touches them first
+            ByteBuffer allocate = byteBufferFactory.allocate(SegmentTable.key(f), Math.max(fseek, initialBufferSegmentSize));
+            setFiler(f, new ByteBufferBackedFiler(allocate));
+            segments.publish(f + 1, f, allocate);
+            filersLength = f + 1;
+            segmentsVersion = segments.directory().version;
 
-        } else if (f == filersLength - 1 && fseek > filers[f].length()) {
-            long newSize = filers[f].length() * 2;
+        } else if (f == filersLength - 1 && fseek > filer(f).length()) {
+            long newSize = filer(f).length() * 2;
             while (newSize < fseek) {
                 newSize *= 2;
             }
-            byte[] key = String.valueOf(f)
-                .getBytes(StandardCharsets.UTF_8);
-            ByteBuffer reallocate = byteBufferFactory.reallocate(key, filers[f].buffer, Math.min(maxBufferSegmentSize, newSize));
-            filers[f] = new ByteBufferBackedFiler(reallocate);
+            ByteBuffer old = filer(f).buffer;
+            ByteBuffer reallocate = byteBufferFactory.reallocate(SegmentTable.key(f), old, Math.min(maxBufferSegmentSize, newSize));
+            setFiler(f, new ByteBufferBackedFiler(reallocate));
+            segments.publish(filersLength, f, reallocate);
+            segmentsVersion = segments.directory().version;
+            byteBufferFactory.release(SegmentTable.key(f), old);
         }
-        filers[f].seek(fseek);
+        fpFiler = filer(f);
+        fpFiler.seek(fseek);
         if (fpFilerIndex != f) {
             fpFilerIndex = f;
             fpFilerOffset = fpFilerIndex * maxBufferSegmentSize;
@@ -204,10 +369,14 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
 
     @Override
     public long length() throws IOException {
-        if (filersLength == 0) {
+        // reads the shared directory rather than wrapping, so optimistic readers of a duplicate never write to it
+        SegmentTable.Directory directory = segments.directory();
+        if (directory.count == 0) {
             return 0;
         }
-        return ((filersLength - 1) * maxBufferSegmentSize) + filers[filersLength - 1].length();
+        int last = directory.count - 1;
+        ByteBuffer buffer = directory.get(last);
+        return (last * maxBufferSegmentSize) + (buffer != null ? buffer : segments.map(last)).capacity();
     }
 
     @Override
@@ -215,12 +384,71 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         position(len);
     }
 
+    /**
+     * Drops every segment beyond newLength and shrinks the segment which holds newLength. Duplicates made before the truncate must not
+     * be used to access anything past newLength.
+     *
+     * @param newLength
+     * @return false and nothing changed when the byteBufferFactory cannot truncate, see {@link ByteBufferFactory#canTruncate()}
+     * @throws IOException
+     */
+    public boolean truncate(long newLength) throws IOException {
+        if (newLength >= length()) {
+            return true;
+        }
+        if (byteBufferFactory == null || !byteBufferFactory.canTruncate()) {
+            return false;
+        }
+        int lastFilerIndex = (newLength == 0) ? -1 : (int) ((newLength - 1) >> fShift);
+        ByteBufferBackedFiler lastFiler = null;
+        if (lastFilerIndex > -1) {
+            lastFiler = filer(lastFilerIndex);
+            long lastLength = newLength - (lastFilerIndex * maxBufferSegmentSize);
+            if (lastLength < lastFiler.length()) {
+                ByteBuffer truncated = byteBufferFactory.truncate(SegmentTable.key(lastFilerIndex), lastFiler.buffer, lastLength);
+                if (truncated == null) {
+                    return false;
+                }
+                lastFiler = new ByteBufferBackedFiler(truncated);
+                setFiler(lastFilerIndex, lastFiler);
+            }
+        }
+        ByteBuffer[] dropped = new ByteBuffer[Math.max(0, filersLength - 1 - lastFilerIndex)];
+        for (int n = filersLength - 1; n > lastFilerIndex; n--) {
+            dropped[n - lastFilerIndex - 1] = segments.get(n);
+            byteBufferFactory.truncate(SegmentTable.key(n), segments.get(n), 0);
+            if (n - filersBase < filers.length) {
+                filers[n - filersBase] = null;
+            }
+        }
+        if (lastFiler != null) {
+            segments.publish(lastFilerIndex + 1, lastFilerIndex, lastFiler.buffer);
+        } else {
+            segments.publish(0, -1, null);
+        }
+        for (int i = 0; i < dropped.length; i++) {
+            if (dropped[i] != null) {
+                byteBufferFactory.release(SegmentTable.key(lastFilerIndex + 1 + i), dropped[i]);
+            }
+        }
+        segmentsVersion = segments.directory().version;
+        filersLength = lastFilerIndex + 1;
+        fpFiler = null;
+        fpFilerIndex = -1;
+        fpFilerOffset = -1;
+        length = newLength;
+        if (filersLength > 0) {
+            position(0);
+        }
+        return true;
+    }
+
     @Override
     public long getFilePointer() throws IOException {
         if (filersLength == 0) {
             return 0;
         }
-        return fpFilerOffset + filers[fpFilerIndex].getFilePointer();
+        return fpFilerOffset + fpFiler.getFilePointer();
     }
 
     @Override
@@ -231,18 +459,21 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     @Override
     public void flush() throws IOException {
         for (ByteBufferBackedFiler filer : filers) {
-            filer.flush();
+            if (filer != null) {
+                filer.flush();
+            }
         }
     }
 
     @Override
     public int read() throws IOException {
-        int read = filers[fpFilerIndex].read();
+        int read = fpFiler.read();
         while (read == -1 && fpFilerIndex < filersLength - 1) {
             fpFilerIndex++;
             fpFilerOffset += maxBufferSegmentSize;
-            filers[fpFilerIndex].seek(0);
-            read = filers[fpFilerIndex].read();
+            fpFiler = filer(fpFilerIndex);
+            fpFiler.seek(0);
+            read = fpFiler.read();
         }
         return read;
     }
@@ -258,7 +489,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
             return 0;
         }
         int remaining = len;
-        int read = filers[fpFilerIndex].read(b, offset, remaining);
+        int read = fpFiler.read(b, offset, remaining);
         if (read == -1) {
             read = 0;
         }
@@ -267,8 +498,9 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         while (remaining > 0 && fpFilerIndex < filersLength - 1) {
             fpFilerIndex++;
             fpFilerOffset += maxBufferSegmentSize;
-            filers[fpFilerIndex].seek(0);
-            read = filers[fpFilerIndex].read(b, offset, remaining);
+            fpFiler = filer(fpFilerIndex);
+            fpFiler.seek(0);
+            read = fpFiler.read(b, offset, remaining);
             if (read == -1) {
                 read = 0;
             }
@@ -284,7 +516,10 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     @Override
     public void write(int b) throws IOException {
         ensure(1);
-        filers[fpFilerIndex].write(b);
+        fpFiler.write(b);
+        if (dirtyPages != null || unflushedPages != null) {
+            written(getFilePointer() - 1, 1);
+        }
     }
 
     @Override
@@ -295,26 +530,98 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     @Override
     public void write(byte[] b, int offset, int len) throws IOException {
         ensure(len);
-        long canWrite = Math.min(len, filers[fpFilerIndex].length() - filers[fpFilerIndex].getFilePointer());
-        filers[fpFilerIndex].write(b, offset, (int) canWrite);
+        long fp = (dirtyPages != null || unflushedPages != null) ? getFilePointer() : -1;
+        long canWrite = Math.min(len, fpFiler.length() - fpFiler.getFilePointer());
+        fpFiler.write(b, offset, (int) canWrite);
         long remaingToWrite = len - canWrite;
         offset += canWrite;
         while (remaingToWrite > 0) {
             fpFilerIndex++;
             fpFilerOffset += maxBufferSegmentSize;
-            filers[fpFilerIndex].seek(0);
-            canWrite = Math.min(remaingToWrite, filers[fpFilerIndex].length() - filers[fpFilerIndex].getFilePointer());
-            filers[fpFilerIndex].write(b, offset, (int) canWrite);
+            fpFiler = filer(fpFilerIndex);
+            fpFiler.seek(0);
+            canWrite = Math.min(remaingToWrite, fpFiler.length() - fpFiler.getFilePointer());
+            fpFiler.write(b, offset, (int) canWrite);
             remaingToWrite -= canWrite;
             offset += canWrite;
         }
+        if (fp != -1) {
+            written(fp, len);
+        }
     }
 
     @Override
     public void close() throws IOException {
         for (ByteBufferBackedFiler filer : filers) {
-            filer.close();
+            if (filer != null) {
+                filer.close();
+            }
+        }
+    }
+
+    /**
+     * Copies [0, length) into to with one ByteBuffer.put per overlapping pair of segments, growing to as needed. The segment sizes of
+     * the two filers need not match. Neither file pointer is used.
+     *
+     * @param to
+     * @param length
+     * @throws IOException
+     */
+    public void copyTo(AutoGrowingByteBufferBackedFiler to, long length) throws IOException {
+        if (to.length() < length) {
+            to.setLength(length);
+        }
+        long fp = 0;
+        while (fp < length) {
+            ByteBuffer from = segment(fp, length - fp);
+            int toF = (int) (fp >> to.fShift);
+            ByteBuffer into = to.filer(toF).buffer.duplicate();
+            into.clear();
+            into.position((int) (fp & to.fseekMask));
+            if (from.remaining() > into.remaining()) {
+                from.limit(from.position() + into.remaining());
+            }
+            fp += from.remaining();
+            into.put(from);
+        }
+        to.written(0, length);
+    }
+
+    /**
+     * Writes [start, start + length) to channel segment by segment, which hands mapped segments straight to the kernel. Neither the
+     * file pointer nor the channel position is otherwise touched.
+     *
+     * @param channel
+     * @param start
+     * @param length
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel, long start, long length) throws IOException {
+        long fp = start;
+        long end = start + length;
+        while (fp < end) {
+            ByteBuffer from = segment(fp, end - fp);
+            fp += from.remaining();
+            while (from.hasRemaining()) {
+                channel.write(from);
+            }
+        }
+    }
+
+    private ByteBuffer segment(long fp, long maxLength) throws IOException {
+        int f = (int) (fp >> fShift);
+        if (f >= segments.count()) {
+            throw new IOException("Position " + fp + " is past the end of the filer " + length());
+        }
+        ByteBuffer buffer = filer(f).buffer.duplicate();
+        int fseek = (int) (fp & fseekMask);
+        if (fseek >= buffer.capacity()) {
+            throw new IOException("Position " + fp + " is past the end of the filer " + length());
         }
+        buffer.clear();
+        buffer.position(fseek);
+        buffer.limit((int) Math.min(buffer.capacity(), fseek + maxLength));
+        return buffer;
     }
 
     public boolean canLeak(long startOfFP, long endOfFP) {
@@ -333,7 +640,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         long startFseek = startOfFP & fseekMask;
         long endFseek = endOfFP & fseekMask;
 
-        ByteBuffer buf = filers[startF].buffer;
+        ByteBuffer buf = filer(startF).buffer;
         buf.position((int) startFseek);
         buf.limit((int) endFseek);
 
@@ -342,8 +649,8 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
 
     @Override
     public short readShort() throws IOException {
-        if (filers[fpFilerIndex].hasRemaining(2)) {
-            return filers[fpFilerIndex].readShort();
+        if (fpFiler.hasRemaining(2)) {
+            return fpFiler.readShort();
         } else {
             int b0 = read();
             int b1 = read();
@@ -358,8 +665,8 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
 
     @Override
     public int readInt() throws IOException {
-        if (filers[fpFilerIndex].hasRemaining(4)) {
-            return filers[fpFilerIndex].readInt();
+        if (fpFiler.hasRemaining(4)) {
+            return fpFiler.readInt();
         } else {
             int b0 = read();
             int b1 = read();
@@ -380,8 +687,8 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
 
     @Override
     public long readLong() throws IOException {
-        if (filers[fpFilerIndex].hasRemaining(8)) {
-            return filers[fpFilerIndex].readLong();
+        if (fpFiler.hasRemaining(8)) {
+            return fpFiler.readLong();
         } else {
             int b0 = read();
             int b1 = read();
@@ -412,4 +719,144 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
             return v;
         }
     }
+
+    /**
+     * Puts straight into the current segment when the value fits, a value which straddles two segments goes through write(byte[]).
+     */
+    @Override
+    public void writeShort(int v) throws IOException {
+        ensure(2);
+        if (fpFiler.hasRemaining(2)) {
+            fpFiler.writeShort(v);
+            if (dirtyPages != null || unflushedPages != null) {
+                written(getFilePointer() - 2, 2);
+            }
+        } else {
+            Filer.super.writeShort(v);
+        }
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        ensure(4);
+        if (fpFiler.hasRemaining(4)) {
+            fpFiler.writeInt(v);
+            if (dirtyPages != null || unflushedPages != null) {
+                written(getFilePointer() - 4, 4);
+            }
+        } else {
+            Filer.super.writeInt(v);
+        }
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        ensure(8);
+        if (fpFiler.hasRemaining(8)) {
+            fpFiler.writeLong(v);
+            if (dirtyPages != null || unflushedPages != null) {
+                written(getFilePointer() - 8, 8);
+            }
+        } else {
+            Filer.super.writeLong(v);
+        }
+    }
+
+    /**
+     * Reads whole runs of ints with a bulk view of each segment, only an int which straddles two segments is assembled byte by byte.
+     */
+    @Override
+    public void readInts(int[] dst, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, fpFiler.buffer.remaining() / 4);
+            if (count > 0) {
+                fpFiler.readInts(dst, off, count);
+            } else {
+                dst[off] = readInt();
+                count = 1;
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws IOException {
+        ensure(len * 4L);
+        long fp = (dirtyPages != null || unflushedPages != null) ? getFilePointer() : -1;
+        byte[] straddle = null;
+        for (int i = off, end = off + len; i < end; ) {
+            int count = Math.min(end - i, fpFiler.buffer.remaining() / 4);
+            if (count > 0) {
+                fpFiler.writeInts(src, i, count);
+            } else {
+                straddle = (straddle == null) ? new byte[4] : straddle;
+                FilerIO.intBytes(src[i], straddle, 0);
+                writeStraddle(straddle);
+                count = 1;
+            }
+            i += count;
+        }
+        if (fp != -1) {
+            written(fp, len * 4L);
+        }
+    }
+
+    /**
+     * Reads whole runs of longs with a bulk view of each segment, only a long which straddles two segments is assembled byte by byte.
+     */
+    @Override
+    public void readLongs(long[] dst, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, fpFiler.buffer.remaining() / 8);
+            if (count > 0) {
+                fpFiler.readLongs(dst, off, count);
+            } else {
+                dst[off] = readLong();
+                count = 1;
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void writeLongs(long[] src, int off, int len) throws IOException {
+        ensure(len * 8L);
+        long fp = (dirtyPages != null || unflushedPages != null) ? getFilePointer() : -1;
+        byte[] straddle = null;
+        for (int i = off, end = off + len; i < end; ) {
+            int count = Math.min(end - i, fpFiler.buffer.remaining() / 8);
+            if (count > 0) {
+                fpFiler.writeLongs(src, i, count);
+            } else {
+                straddle = (straddle == null) ? new byte[8] : straddle;
+                FilerIO.longBytes(src[i], straddle, 0);
+                writeStraddle(straddle);
+                count = 1;
+            }
+            i += count;
+        }
+        if (fp != -1) {
+            written(fp, len * 8L);
+        }
+    }
+
+    /**
+     * Writes bytes which were already ensured across the end of the current segment.
+     */
+    private void writeStraddle(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (fpFiler.buffer.remaining() == 0) {
+                fpFilerIndex++;
+                fpFilerOffset += maxBufferSegmentSize;
+                fpFiler = filer(fpFilerIndex);
+                fpFiler.seek(0);
+            }
+            int count = Math.min(bytes.length - offset, fpFiler.buffer.remaining());
+            fpFiler.write(bytes, offset, count);
+            offset += count;
+        }
+    }
 }
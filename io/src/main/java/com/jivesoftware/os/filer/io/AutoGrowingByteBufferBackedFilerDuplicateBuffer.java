@@ -16,10 +16,11 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
         byteBufferBackedFilers = new ByteBufferBackedFiler[maxBuffers];
     }
 
-    public AutoGrowingByteBufferBackedFiler duplicate(
-        AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer,
-        ByteBufferBackedFiler[] filers,
-        int filersLength,
+    /**
+     * A duplicate holding only the segments which overlap [startFP, endFp], so duplicating costs the same however many segments the
+     * filer has. Anything outside is wrapped on first access.
+     */
+    AutoGrowingByteBufferBackedFiler duplicate(SegmentTable segments,
         long maxBufferSegmentSize,
         int fShift,
         long fseekMask,
@@ -27,40 +28,32 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
         long startFP,
         long endFp
     ) {
+        SegmentTable.Directory directory = segments.directory();
+        int first = (int) (startFP >> fShift);
+        int last = Math.max(first, (int) (Math.max(startFP, endFp - 1) >> fShift));
+        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[last - first + 1];
+        for (int i = first; i <= last; i++) {
+            // unmapped segments are left for the duplicate to map on first access
+            ByteBuffer buffer = directory.get(i);
+            if (buffer != null) {
+                duplicate[i - first] = byteBufferFiler(buffer.duplicate());
+            }
+        }
+
         AutoGrowingByteBufferBackedFiler autoGrowingFiler;
         if (autoGrowingFilersStackDepth > 0 && autoGrowingFilers[autoGrowingFilersStackDepth - 1] != null) {
             autoGrowingFilersStackDepth--;
             autoGrowingFiler = autoGrowingFilers[autoGrowingFilersStackDepth];
             autoGrowingFilers[autoGrowingFilersStackDepth] = null;
-
-            // WHY doesn't this work?
-            //ByteBufferBackedFiler[] duplicate = autoGrowingFiler.filers.length <= filersLength ? autoGrowingFiler.filers : new ByteBufferBackedFiler[filersLength];
-            ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
-            duplicate(duplicate, filersLength, maxBufferSegmentSize, startFP, endFp, filers);
-            autoGrowingFiler.mutate(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
-
+            autoGrowingFiler.mutate(segments, directory.version, maxBufferSegmentSize, duplicate, first, directory.count, length, fShift,
+                fseekMask);
         } else {
-            ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
-            duplicate(duplicate, filersLength, maxBufferSegmentSize, startFP, endFp, filers);
-            autoGrowingFiler = new AutoGrowingByteBufferBackedFiler(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
+            autoGrowingFiler = new AutoGrowingByteBufferBackedFiler(segments, directory.version, maxBufferSegmentSize, duplicate, first,
+                directory.count, length, fShift, fseekMask);
         }
         return autoGrowingFiler;
     }
 
-    private void duplicate(ByteBufferBackedFiler[] duplicate,
-        int duplicateLength,
-        long maxBufferSegmentSize,
-        long startFP,
-        long endFp,
-        ByteBufferBackedFiler[] filers) {
-        for (int i = 0; i < duplicateLength; i++) {
-            if ((i + 1) * maxBufferSegmentSize < startFP || (i - 1) * maxBufferSegmentSize > endFp) {
-                continue;
-            }
-            duplicate[i] = byteBufferFiler(filers[i].buffer.duplicate());
-        }
-    }
-
     public void recycle(AutoGrowingByteBufferBackedFiler recycle) {
         if (autoGrowingFilersStackDepth < autoGrowingFilers.length) {
             for (int i = 0; i < recycle.filers.length; i++) {
@@ -69,7 +62,7 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
                     recycle.filers[i] = null;
                 }
             }
-            recycle.mutate(-1, recycle.filers, -1, -1, -1, -1);
+            recycle.mutate(null, -1, -1, recycle.filers, 0, -1, -1, -1, -1);
             autoGrowingFilers[autoGrowingFilersStackDepth] = recycle;
             autoGrowingFilersStackDepth++;
         }
@@ -248,4 +248,24 @@ public class ByteArrayFiler implements Filer {
 
         return v;
     }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        write(v >>> 8);
+        write(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        write(v >>> 24);
+        write(v >>> 16);
+        write(v >>> 8);
+        write(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
 }
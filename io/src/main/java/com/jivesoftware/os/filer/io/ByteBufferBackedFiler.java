@@ -133,4 +133,43 @@ public class ByteBufferBackedFiler implements Filer {
     public long readLong() throws IOException {
         return buffer.getLong();
     }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        buffer.putLong(v);
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws IOException {
+        buffer.asIntBuffer().get(dst, off, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws IOException {
+        buffer.asIntBuffer().put(src, off, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
+    @Override
+    public void readLongs(long[] dst, int off, int len) throws IOException {
+        buffer.asLongBuffer().get(dst, off, len);
+        buffer.position(buffer.position() + len * 8);
+    }
+
+    @Override
+    public void writeLongs(long[] src, int off, int len) throws IOException {
+        buffer.asLongBuffer().put(src, off, len);
+        buffer.position(buffer.position() + len * 8);
+    }
 }
@@ -29,4 +29,34 @@ public interface ByteBufferFactory {
      */
     ByteBuffer reallocate(byte[] key, ByteBuffer oldBuffer, long newSize);
 
+    /**
+     * Factories which cannot give back space, or cannot do so while older views of the buffer may still be in use (a mapped file
+     * must not shrink under its mappings), keep this default and canTruncate's, callers then leave oldBuffer as it is.
+     *
+     * @param key
+     * @param oldBuffer
+     * @param newSize smaller than the oldBuffer's capacity. Zero means the buffer is no longer needed at all.
+     * @return a buffer holding the first newSize bytes of oldBuffer, null when newSize is zero or when this factory cannot truncate
+     */
+    default ByteBuffer truncate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+        return null;
+    }
+
+    /**
+     * Hands back a buffer which the caller replaced through reallocate or dropped after truncating it to zero, once nothing new can
+     * wrap it. Views made from it before must not be used afterwards. Factories which do not pool buffers keep this default.
+     *
+     * @param key
+     * @param buffer
+     */
+    default void release(byte[] key, ByteBuffer buffer) {
+    }
+
+    /**
+     * @return true if truncate gives back space, in which case views made before a truncate stay safe to use
+     */
+    default boolean canTruncate() {
+        return false;
+    }
+
 }
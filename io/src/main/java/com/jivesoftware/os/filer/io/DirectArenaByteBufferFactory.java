@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import com.jivesoftware.os.filer.io.chunk.ChunkMetrics;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A direct ByteBufferFactory which carves power of 2 blocks out of large slabs and keeps released blocks on a free list per size
+ * class, so growing and freeing buffers neither allocates native memory nor leaves work for the cleaner queue. Blocks larger than a
+ * slab are allocated on their own and are pooled the same way once released. Native memory is only given back by {@link #trim()}
+ * (free blocks larger than a slab) and {@link #close()} (everything).
+ *
+ * Buffers are handed out sliced to the requested size and zeroed. reallocate and truncate leave the old buffer outstanding, since
+ * duplicates of it may still be reading it. The owner hands it back through {@link #release(byte[], ByteBuffer)} once it is no longer
+ * published, which AutoGrowingByteBufferBackedFiler does after swapping a grown segment in or dropping a truncated one. Allocating past
+ * maxNativeBytes first splits larger free blocks and then fails with an OutOfMemoryError, like ByteBuffer.allocateDirect does when the
+ * JVM's direct memory runs out.
+ *
+ * @author jonathan.colt
+ */
+public class DirectArenaByteBufferFactory implements ByteBufferFactory {
+
+    public static final int MIN_SIZE_CLASS_POWER = 6;
+    public static final int MAX_SIZE_CLASS_POWER = 30;
+
+    private static final ChunkMetrics.ChunkMetric nativeBytesGauge = ChunkMetrics.getGauge("DirectArena", "total", "nativeBytes");
+    private static final ChunkMetrics.ChunkMetric usedBytesGauge = ChunkMetrics.getGauge("DirectArena", "total", "usedBytes");
+    private static final ChunkMetrics.ChunkMetric allocates = ChunkMetrics.get("DirectArena", "total", "allocate");
+    private static final ChunkMetrics.ChunkMetric reuses = ChunkMetrics.get("DirectArena", "total", "reuse");
+    private static final ChunkMetrics.ChunkMetric releases = ChunkMetrics.get("DirectArena", "total", "release");
+    private static final ChunkMetrics.ChunkMetric slabs = ChunkMetrics.get("DirectArena", "total", "slab");
+    private static final ChunkMetrics.ChunkMetric trimmedBytes = ChunkMetrics.get("DirectArena", "total", "trimmedBytes");
+    private static final byte[] zeros = new byte[4096];
+
+    private final int slabPower;
+    private final long maxNativeBytes;
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_SIZE_CLASS_POWER + 1];
+    private final Map<ByteBuffer, ByteBuffer> outstanding = new IdentityHashMap<>(); // handed out buffer -> its block
+    private final ArrayDeque<ByteBuffer> allSlabs = new ArrayDeque<>();
+    private ByteBuffer slab; // the slab being carved, its position is the next free byte
+    private long nativeBytes;
+    private long usedBytes;
+    private long freeBytes;
+
+    /**
+     * @param slabSize power of 2 size of the slabs blocks up to this size are carved from
+     * @param maxNativeBytes ceiling on the native memory held by slabs and stand alone blocks, free or not
+     */
+    public DirectArenaByteBufferFactory(long slabSize, long maxNativeBytes) {
+        if (slabSize < (1 << MIN_SIZE_CLASS_POWER) || slabSize > (1L << MAX_SIZE_CLASS_POWER) || (slabSize & (slabSize - 1)) != 0) {
+            throw new IllegalArgumentException("slabSize must be a power of 2 between " + (1 << MIN_SIZE_CLASS_POWER)
+                + " and " + (1L << MAX_SIZE_CLASS_POWER) + ": " + slabSize);
+        }
+        if (maxNativeBytes < slabSize) {
+            throw new IllegalArgumentException("maxNativeBytes must hold at least one slab: " + maxNativeBytes);
+        }
+        this.slabPower = Long.numberOfTrailingZeros(slabSize);
+        this.maxNativeBytes = maxNativeBytes;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public boolean exists(byte[] key) {
+        return false;
+    }
+
+    @Override
+    public ByteBuffer allocate(byte[] key, long size) {
+        if (size < 0 || size > (1L << MAX_SIZE_CLASS_POWER)) {
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes from a direct arena");
+        }
+        int power = FilerIO.chunkPower(size, MIN_SIZE_CLASS_POWER);
+        synchronized (this) {
+            ByteBuffer block = block(power);
+            zero(block, (int) size);
+            block.clear();
+            block.limit((int) size);
+            ByteBuffer buffer = block.slice();
+            outstanding.put(buffer, block);
+            usedBytes += block.capacity();
+            usedBytesGauge.inc(block.capacity());
+            return buffer;
+        }
+    }
+
+    @Override
+    public ByteBuffer reallocate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+        ByteBuffer newBuffer = allocate(key, newSize);
+        if (oldBuffer != null) {
+            ByteBuffer copy = oldBuffer.duplicate();
+            copy.clear();
+            copy.limit((int) Math.min(copy.capacity(), newSize));
+            newBuffer.put(copy);
+            newBuffer.position(0);
+        }
+        return newBuffer;
+    }
+
+    @Override
+    public boolean canTruncate() {
+        return true;
+    }
+
+    @Override
+    public ByteBuffer truncate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+        if (newSize == 0) {
+            // stays outstanding until the owner releases it
+            return null;
+        }
+        // share rather than copy so writes through outstanding duplicates are not lost, the block keeps its size class
+        synchronized (this) {
+            ByteBuffer block = outstanding.remove(oldBuffer);
+            if (block == null) {
+                throw new IllegalArgumentException("Buffer was not allocated by this arena or was already released");
+            }
+            ByteBuffer truncated = oldBuffer.duplicate();
+            truncated.position(0);
+            truncated.limit((int) newSize);
+            truncated = truncated.slice();
+            outstanding.put(truncated, block);
+            return truncated;
+        }
+    }
+
+    @Override
+    public void release(byte[] key, ByteBuffer buffer) {
+        release(buffer);
+    }
+
+    /**
+     * Returns a buffer handed out by this arena to its size class's free list.
+     *
+     * @throws IllegalArgumentException if the buffer did not come from this arena or was already released
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        ByteBuffer block = outstanding.remove(buffer);
+        if (block == null) {
+            throw new IllegalArgumentException("Buffer was not allocated by this arena or was already released");
+        }
+        free[Integer.numberOfTrailingZeros(block.capacity())].push(block);
+        usedBytes -= block.capacity();
+        freeBytes += block.capacity();
+        usedBytesGauge.inc(-block.capacity());
+        releases.inc(1);
+    }
+
+    /**
+     * Frees the free blocks which are larger than a slab. Slabs are never freed short of close.
+     *
+     * @return the number of native bytes given back
+     */
+    public synchronized long trim() {
+        long trimmed = 0;
+        for (int power = slabPower + 1; power <= MAX_SIZE_CLASS_POWER; power++) {
+            ByteBuffer block;
+            while ((block = free[power].poll()) != null) {
+                DirectBufferCleaner.clean(block);
+                trimmed += block.capacity();
+            }
+        }
+        nativeBytes -= trimmed;
+        freeBytes -= trimmed;
+        nativeBytesGauge.inc(-trimmed);
+        trimmedBytes.inc(trimmed);
+        return trimmed;
+    }
+
+    /**
+     * Frees every slab and block, whether or not it was released. Nothing handed out by this arena may be used afterwards.
+     */
+    public synchronized void close() {
+        for (ArrayDeque<ByteBuffer> blocks : free) {
+            for (ByteBuffer block : blocks) {
+                if (block.capacity() > (1L << slabPower)) {
+                    DirectBufferCleaner.clean(block);
+                }
+            }
+            blocks.clear();
+        }
+        for (ByteBuffer block : outstanding.values()) {
+            if (block.capacity() > (1L << slabPower)) {
+                DirectBufferCleaner.clean(block);
+            }
+        }
+        outstanding.clear();
+        for (ByteBuffer s : allSlabs) {
+            DirectBufferCleaner.clean(s);
+        }
+        allSlabs.clear();
+        slab = null;
+        nativeBytesGauge.inc(-nativeBytes);
+        usedBytesGauge.inc(-usedBytes);
+        nativeBytes = 0;
+        usedBytes = 0;
+        freeBytes = 0;
+    }
+
+    /**
+     * @return native bytes held by slabs and stand alone blocks
+     */
+    public synchronized long getNativeBytes() {
+        return nativeBytes;
+    }
+
+    /**
+     * @return bytes in blocks which are currently handed out, rounded up to their size class
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return bytes in released blocks waiting on the free lists
+     */
+    public synchronized long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public long getMaxNativeBytes() {
+        return maxNativeBytes;
+    }
+
+    private ByteBuffer block(int power) {
+        ByteBuffer block = free[power].poll();
+        if (block != null) {
+            freeBytes -= block.capacity();
+            reuses.inc(1);
+            return block;
+        }
+        long size = 1L << power;
+        if (power <= slabPower) {
+            block = carve(size);
+        } else if (nativeBytes + size <= maxNativeBytes) {
+            block = ByteBuffer.allocateDirect((int) size);
+            nativeBytes += size;
+            nativeBytesGauge.inc(size);
+        }
+        if (block == null) {
+            block = split(power);
+        }
+        if (block == null) {
+            throw new OutOfMemoryError("Direct arena of " + maxNativeBytes + " bytes cannot allocate " + size + " bytes, "
+                + usedBytes + " are in use and " + freeBytes + " are free in smaller size classes");
+        }
+        allocates.inc(1);
+        return block;
+    }
+
+    /**
+     * Carves a block from the current slab, starting a new slab when it runs out and the ceiling allows.
+     */
+    private ByteBuffer carve(long size) {
+        if (slab == null || slab.remaining() < size) {
+            long slabSize = 1L << slabPower;
+            if (nativeBytes + slabSize > maxNativeBytes) {
+                return null;
+            }
+            retireSlab();
+            slab = ByteBuffer.allocateDirect((int) slabSize);
+            allSlabs.add(slab);
+            nativeBytes += slabSize;
+            nativeBytesGauge.inc(slabSize);
+            slabs.inc(1);
+        }
+        int position = slab.position();
+        slab.limit(position + (int) size);
+        ByteBuffer block = slab.slice();
+        slab.limit(slab.capacity());
+        slab.position(position + (int) size);
+        return block;
+    }
+
+    /**
+     * Hands the tail of the current slab to the free lists as power of 2 blocks.
+     */
+    private void retireSlab() {
+        if (slab == null) {
+            return;
+        }
+        while (slab.remaining() >= (1 << MIN_SIZE_CLASS_POWER)) {
+            int power = 31 - Integer.numberOfLeadingZeros(slab.remaining());
+            ByteBuffer block = carve(1L << power);
+            free[power].push(block);
+            freeBytes += block.capacity();
+        }
+        slab = null;
+    }
+
+    /**
+     * Splits the smallest larger free block carved from a slab down to the requested power, leaving the other halves on the free
+     * lists. Stand alone blocks are never split so that trim can free them whole.
+     */
+    private ByteBuffer split(int power) {
+        int larger = power + 1;
+        while (larger <= slabPower && free[larger].isEmpty()) {
+            larger++;
+        }
+        if (larger > slabPower) {
+            return null;
+        }
+        ByteBuffer block = free[larger].poll();
+        freeBytes -= block.capacity();
+        while (larger > power) {
+            larger--;
+            int half = 1 << larger;
+            block.clear();
+            block.position(half);
+            ByteBuffer upper = block.slice();
+            free[larger].push(upper);
+            freeBytes += half;
+            block.clear();
+            block.limit(half);
+            block = block.slice();
+        }
+        return block;
+    }
+
+    private static void zero(ByteBuffer block, int length) {
+        block.clear();
+        while (block.position() < length) {
+            block.put(zeros, 0, Math.min(zeros.length, length - block.position()));
+        }
+    }
+}
@@ -38,6 +38,23 @@ public class DirectByteBufferFactory implements ByteBufferFactory {
         return newBuffer;
     }
 
+    @Override
+    public boolean canTruncate() {
+        return true;
+    }
+
+    @Override
+    public ByteBuffer truncate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+        if (newSize == 0) {
+            return null;
+        }
+        // share rather than copy so writes through outstanding duplicates are not lost
+        ByteBuffer truncated = oldBuffer.duplicate();
+        truncated.position(0);
+        truncated.limit((int) newSize);
+        return truncated.slice();
+    }
+
     @Override
     public boolean exists(byte[] key) {
         return false;
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the epoch in which each fixed size page of a filer was last written. Epochs are wall clock millis which only move
+ * forward, so an epoch handed out before a restart is older than baseEpoch and every page counts as dirty for it.
+ *
+ * @author jonathan.colt
+ */
+public class DirtyPages {
+
+    private final long pageSize;
+    private final int pageShift;
+    private final long baseEpoch;
+    private volatile long epoch;
+    private volatile AtomicLongArray stamps = new AtomicLongArray(0);
+    private final AtomicLong markedBytes = new AtomicLong();
+    private final long budgetBytes;
+    private final Runnable overBudget;
+
+    public DirtyPages(long pageSize) {
+        this(pageSize, 0, null);
+    }
+
+    /**
+     * @param pageSize
+     * @param budgetBytes once this many bytes are marked since the last drain every mark runs overBudget, 0 never runs it
+     * @param overBudget
+     */
+    public DirtyPages(long pageSize, long budgetBytes, Runnable overBudget) {
+        if (pageSize < 1 || pageSize > AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE || (pageSize & (pageSize - 1)) != 0) {
+            throw new IllegalArgumentException("pageSize must be a power of 2 no larger than a segment: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.pageShift = Long.numberOfTrailingZeros(pageSize);
+        this.baseEpoch = System.currentTimeMillis();
+        this.epoch = baseEpoch;
+        this.budgetBytes = budgetBytes;
+        this.overBudget = overBudget;
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Call after the bytes have been written. Pages are stamped with the epoch which is current once the stamps are in place, so a
+     * write racing {@link #advance()} is either seen by whoever advanced or carries the new epoch.
+     */
+    public void mark(long fp, long length) {
+        if (length <= 0) {
+            return;
+        }
+        int first = (int) (fp >>> pageShift);
+        int last = (int) ((fp + length - 1) >>> pageShift);
+        AtomicLongArray marked;
+        long stamp;
+        do {
+            marked = stamps;
+            if (last >= marked.length()) {
+                marked = grow(last + 1);
+            }
+            stamp = epoch;
+            for (int page = first; page <= last; page++) {
+                long current = marked.get(page);
+                while (current < stamp && !marked.compareAndSet(page, current, stamp)) {
+                    current = marked.get(page);
+                }
+            }
+        } while (marked != stamps || stamp != epoch);
+        if (budgetBytes > 0 && markedBytes.addAndGet(length) >= budgetBytes && overBudget != null) {
+            overBudget.run();
+        }
+    }
+
+    /**
+     * @return the bytes marked since the last drain, writes which overlap are counted twice
+     */
+    public long drainMarkedBytes() {
+        return markedBytes.getAndSet(0);
+    }
+
+    /**
+     * Starts a new epoch, later writes are stamped with it.
+     *
+     * @return the new epoch
+     */
+    public synchronized long advance() {
+        epoch = Math.max(epoch + 1, System.currentTimeMillis());
+        return epoch;
+    }
+
+    public boolean isDirty(long fp, long sinceEpoch) {
+        if (sinceEpoch <= baseEpoch) {
+            return true;
+        }
+        int page = (int) (fp >>> pageShift);
+        AtomicLongArray marked = stamps;
+        return page < marked.length() && marked.get(page) >= sinceEpoch;
+    }
+
+    private synchronized AtomicLongArray grow(int pages) {
+        AtomicLongArray marked = stamps;
+        if (pages > marked.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(pages, marked.length() * 2));
+            for (int i = 0; i < marked.length(); i++) {
+                grown.set(i, marked.get(i));
+            }
+            stamps = grown;
+            marked = grown;
+        }
+        return marked;
+    }
+}
@@ -6,7 +6,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import org.apache.commons.io.Charsets;
+import java.nio.charset.StandardCharsets;
 
 /**
  * TODO this implementation of ByteBufferFactory is inherently unsafe because its allocate() method is only capable of growing an existing buffer rather than
@@ -19,11 +19,25 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
     private final String prefix;
     private final int directoryOffset;
     private final File[] directories;
+    private final boolean readOnly;
 
     public FileBackedMemMappedByteBufferFactory(String prefix, int directoryOffset, File... directories) {
+        this(prefix, directoryOffset, false, directories);
+    }
+
+    /**
+     * @param readOnly when true files are mapped READ_ONLY at their current length and are never created, grown or truncated. A file
+     * which does not exist maps as an empty buffer.
+     */
+    public FileBackedMemMappedByteBufferFactory(String prefix, int directoryOffset, boolean readOnly, File... directories) {
         this.prefix = prefix;
         this.directoryOffset = directoryOffset;
         this.directories = directories;
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
     }
 
     private File getDirectory(String key) {
@@ -31,6 +45,9 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
     }
 
     public MappedByteBuffer open(String key) {
+        if (readOnly) {
+            return mapReadOnly(key);
+        }
         try {
             //System.out.println(String.format("Open key=%s for directories=%s", key, Arrays.toString(directories)));
             File directory = getDirectory(key);
@@ -49,7 +66,7 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
 
     @Override
     public boolean exists(byte[] key) {
-        String name = new String(key, Charsets.UTF_8);
+        String name = new String(key, StandardCharsets.UTF_8);
         File directory = getDirectory(name);
         if (directory.exists()) {
             return new File(directory, prefix + "-" + name).exists();
@@ -59,9 +76,13 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
 
     @Override
     public ByteBuffer allocate(byte[] key, long length) {
+        if (readOnly) {
+            MappedByteBuffer buffer = mapReadOnly(new String(key, StandardCharsets.UTF_8));
+            return buffer != null ? buffer : ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
         try {
             //System.out.println(String.format("Allocate key=%s length=%s for directories=%s", key, length, Arrays.toString(directories)));
-            String name = new String(key, Charsets.UTF_8);
+            String name = new String(key, StandardCharsets.UTF_8);
             File directory = getDirectory(name);
             ensureDirectory(directory);
             File file = new File(directory, prefix + "-" + name);
@@ -86,6 +107,20 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
         return allocate(key, newSize);
     }
 
+    private MappedByteBuffer mapReadOnly(String key) {
+        File file = new File(getDirectory(key), prefix + "-" + key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            try (FileChannel channel = raf.getChannel()) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void ensureDirectory(File directory) {
         if (!directory.exists()) {
             if (!directory.mkdirs()) {
@@ -1,6 +1,7 @@
 package com.jivesoftware.os.filer.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  *
@@ -71,4 +72,62 @@ public interface Filer extends Readable, Writeable {
     int readInt() throws IOException;
 
     long readLong() throws IOException;
+
+    /**
+     * Writes the low 16 bits of v big endian. The default encodes into a byte array, filers backed by byte buffers override the
+     * primitive writes to put straight into the buffer.
+     */
+    default void writeShort(int v) throws IOException {
+        write(new byte[]{(byte) (v >>> 8), (byte) v}, 0, 2);
+    }
+
+    default void writeInt(int v) throws IOException {
+        byte[] bytes = new byte[4];
+        FilerIO.intBytes(v, bytes, 0);
+        write(bytes, 0, 4);
+    }
+
+    default void writeLong(long v) throws IOException {
+        byte[] bytes = new byte[8];
+        FilerIO.longBytes(v, bytes, 0);
+        write(bytes, 0, 8);
+    }
+
+    /**
+     * Reads len big endian ints into dst[off, off + len). The default decodes from a byte array read in one go, filers backed by byte
+     * buffers override it with a bulk IntBuffer view.
+     */
+    default void readInts(int[] dst, int off, int len) throws IOException {
+        byte[] bytes = new byte[len * 4];
+        FilerIO.readFully(this, bytes);
+        ByteBuffer.wrap(bytes).asIntBuffer().get(dst, off, len);
+    }
+
+    /**
+     * Writes src[off, off + len) as big endian ints.
+     */
+    default void writeInts(int[] src, int off, int len) throws IOException {
+        byte[] bytes = new byte[len * 4];
+        ByteBuffer.wrap(bytes).asIntBuffer().put(src, off, len);
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads len big endian longs into dst[off, off + len). The default decodes from a byte array read in one go, filers backed by byte
+     * buffers override it with a bulk LongBuffer view.
+     */
+    default void readLongs(long[] dst, int off, int len) throws IOException {
+        byte[] bytes = new byte[len * 8];
+        FilerIO.readFully(this, bytes);
+        ByteBuffer.wrap(bytes).asLongBuffer().get(dst, off, len);
+    }
+
+    /**
+     * Writes src[off, off + len) as big endian longs.
+     */
+    default void writeLongs(long[] src, int off, int len) throws IOException {
+        byte[] bytes = new byte[len * 8];
+        ByteBuffer.wrap(bytes).asLongBuffer().put(src, off, len);
+        write(bytes, 0, bytes.length);
+    }
 }
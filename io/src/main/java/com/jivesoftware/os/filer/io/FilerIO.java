@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 
 /**
  *
@@ -166,6 +167,10 @@ public class FilerIO {
      */
     public static void writeShort(Writeable _filer, int v,
         String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            ((Filer) _filer).writeShort(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 8);
         stackBuffer.primitiveBuffer[1] = (byte) (v);
 
@@ -195,6 +200,10 @@ public class FilerIO {
      * @throws IOException
      */
     public static void writeInt(Writeable _filer, int v, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            ((Filer) _filer).writeInt(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 24);
         stackBuffer.primitiveBuffer[1] = (byte) (v >>> 16);
         stackBuffer.primitiveBuffer[2] = (byte) (v >>> 8);
@@ -211,6 +220,10 @@ public class FilerIO {
      */
     public static void writeLong(Writeable _filer, long v,
         String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            ((Filer) _filer).writeLong(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 56);
         stackBuffer.primitiveBuffer[1] = (byte) (v >>> 48);
         stackBuffer.primitiveBuffer[2] = (byte) (v >>> 40);
@@ -466,6 +479,10 @@ public class FilerIO {
         if (len < 0) {
             return;
         }
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeInts(array, 0, len);
+            return;
+        }
         int index = 0;
         byte[] ints = new byte[len * 4]; //peformance hack
         for (int i = 0; i < len; i++) {
@@ -530,6 +547,10 @@ public class FilerIO {
         if (len < 0) {
             return;
         }
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeLongs(array, 0, len);
+            return;
+        }
         for (int i = 0; i < len; i++) {
             long v = array[i];
             _filer.write(new byte[]{
@@ -560,6 +581,10 @@ public class FilerIO {
         if (_len < 0) {
             return;
         }
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeLongs(array, _start, _len);
+            return;
+        }
         for (int i = _start; i < _start + _len; i++) {
             long v = array[i];
             _filer.write(new byte[]{
@@ -824,6 +849,10 @@ public class FilerIO {
             return new int[0];
         }
         int[] array = new int[len];
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).readInts(array, 0, len);
+            return array;
+        }
         byte[] bytes = new byte[4 * len];
         _filer.read(bytes);
         int j;
@@ -881,6 +910,10 @@ public class FilerIO {
             return new long[0];
         }
         long[] array = new long[len];
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).readLongs(array, 0, len);
+            return array;
+        }
         byte[] bytes = new byte[8 * len];
         _filer.read(bytes);
         int j;
@@ -1007,6 +1040,25 @@ public class FilerIO {
         return new String(readCharArray(_filer, fieldName, stackBuffer));
     }
 
+    static void readFully(Readable _filer, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int read = _filer.read(bytes, offset, bytes.length - offset);
+            if (read <= 0) {
+                throw new EOFException("Expected " + bytes.length + " bytes but only read " + offset);
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Filers read and write primitives themselves, straight out of and into their byte buffers, rather than through the stack buffer's
+     * primitive scratch. RandomAccessFile's final readInt and friends go to the file a byte at a time, so it keeps the scratch path.
+     */
+    private static boolean primitiveFiler(Object _filer) {
+        return _filer instanceof Filer && !(_filer instanceof RandomAccessFile);
+    }
+
     // Reading
     /**
      *
@@ -1053,6 +1105,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static short readShort(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            return ((Filer) _filer).readShort();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 2);
         short v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1069,6 +1124,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static int readUnsignedShort(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            return ((Filer) _filer).readShort() & 0xFFFF;
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 2);
         int v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1114,6 +1172,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static int readInt(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            return ((Filer) _filer).readInt();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 4);
         int v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1134,6 +1195,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static long readLong(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (primitiveFiler(_filer)) {
+            return ((Filer) _filer).readLong();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 8);
         long v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The segment directory of one AutoGrowingByteBufferBackedFiler, shared by the filer and every duplicate made from it. Segments live in
+ * fixed size pages so that neither growing nor mapping a segment copies more than a page table, and the count, version and pages are
+ * published together in one immutable Directory through a single volatile reference. Readers never lock, a null entry is a full size
+ * segment which has not been mapped yet and is mapped by whoever touches it first.
+ *
+ * Only the owning filer grows, reallocates or truncates segments and it does so holding its own monitor. Mapping on first access
+ * holds nothing but this table's monitor, so views may map while holding stripe locks without ordering against the owner. Replacing
+ * or dropping a mapped segment bumps the version, which is how views learn that a buffer they wrapped is stale.
+ *
+ * @author jonathan.colt
+ */
+class SegmentTable {
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ByteBufferFactory byteBufferFactory;
+    private final long segmentSize;
+    private volatile Directory directory = new Directory(0, 0, newPages(0));
+
+    SegmentTable(ByteBufferFactory byteBufferFactory, long segmentSize) {
+        this.byteBufferFactory = byteBufferFactory;
+        this.segmentSize = segmentSize;
+    }
+
+    static byte[] key(int index) {
+        return String.valueOf(index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    Directory directory() {
+        return directory;
+    }
+
+    int count() {
+        return directory.count;
+    }
+
+    /**
+     * @return the segment's buffer or null if it is not mapped yet
+     */
+    ByteBuffer get(int index) {
+        return directory.get(index);
+    }
+
+    /**
+     * @return the segment's buffer, mapping it at full size first if needed
+     */
+    ByteBuffer map(int index) {
+        ByteBuffer buffer = get(index);
+        return (buffer != null) ? buffer : mapLocked(index);
+    }
+
+    private synchronized ByteBuffer mapLocked(int index) {
+        Directory current = directory;
+        if (index >= current.count) {
+            throw new IllegalStateException("Segment " + index + " is past the end of the table " + current.count);
+        }
+        ByteBuffer buffer = current.get(index);
+        if (buffer == null) {
+            buffer = byteBufferFactory.allocate(key(index), segmentSize);
+            publish(current.count, index, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Resizes the directory to count segments and stores buffer at index in the same publication. Segments added in between are left
+     * unmapped and segments past count are dropped.
+     */
+    synchronized void publish(int count, int index, ByteBuffer buffer) {
+        Directory current = directory;
+        AtomicReferenceArray<ByteBuffer>[] pages = current.pages;
+        int neededPages = (count + PAGE_MASK) >>> PAGE_SHIFT;
+        if (neededPages > pages.length) {
+            AtomicReferenceArray<ByteBuffer>[] grown = newPages(Math.max(neededPages, pages.length * 2));
+            System.arraycopy(pages, 0, grown, 0, pages.length);
+            pages = grown;
+        }
+        boolean replaced = false;
+        for (int i = count; i < current.count; i++) {
+            AtomicReferenceArray<ByteBuffer> page = pages[i >>> PAGE_SHIFT];
+            if (page != null) {
+                replaced |= page.getAndSet(i & PAGE_MASK, null) != null;
+            }
+        }
+        if (index > -1) {
+            AtomicReferenceArray<ByteBuffer> page = pages[index >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new AtomicReferenceArray<>(PAGE_SIZE);
+                pages[index >>> PAGE_SHIFT] = page;
+            }
+            ByteBuffer previous = page.getAndSet(index & PAGE_MASK, buffer);
+            replaced |= previous != null && previous != buffer;
+        }
+        directory = new Directory(count, replaced ? current.version + 1 : current.version, pages);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<ByteBuffer>[] newPages(int length) {
+        return new AtomicReferenceArray[length];
+    }
+
+    /**
+     * An immutable count and version over pages which are shared with later directories. Entries are atomic since a segment mapped
+     * into a page is seen by directories published before it.
+     */
+    static final class Directory {
+
+        final int count;
+        final long version;
+        private final AtomicReferenceArray<ByteBuffer>[] pages;
+
+        private Directory(int count, long version, AtomicReferenceArray<ByteBuffer>[] pages) {
+            this.count = count;
+            this.version = version;
+            this.pages = pages;
+        }
+
+        ByteBuffer get(int index) {
+            if (index >= count) {
+                return null;
+            }
+            AtomicReferenceArray<ByteBuffer> page = pages[index >>> PAGE_SHIFT];
+            return page != null ? page.get(index & PAGE_MASK) : null;
+        }
+    }
+}
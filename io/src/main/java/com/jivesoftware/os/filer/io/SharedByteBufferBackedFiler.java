@@ -126,4 +126,19 @@ public class SharedByteBufferBackedFiler implements Filer {
     public long readLong() throws IOException {
         return buffer.getLong();
     }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        buffer.putLong(v);
+    }
 }
@@ -3,6 +3,9 @@ package com.jivesoftware.os.filer.io.api;
 import com.jivesoftware.os.filer.io.Filer;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  *
@@ -19,6 +22,34 @@ public interface KeyedFilerStore<H, M> {
         StackBuffer stackBuffer) throws IOException,
         InterruptedException;
 
+    /**
+     * Reads each key on the executor with a StackBuffer taken from stackBuffers on the thread the read runs on. Stores which are split
+     * into partitions override this to read every partition concurrently, this default reads them all in a single task.
+     */
+    default <R> CompletableFuture<Void> readEachAsync(byte[][] eachKeyBytes,
+        H newFilerInitialCapacity,
+        IndexAlignedChunkTransaction<M, R> chunkTransaction,
+        R[] results,
+        Executor executor,
+        Supplier<StackBuffer> stackBuffers) {
+        return StackBufferCall.async(executor, stackBuffers, stackBuffer -> {
+            readEach(eachKeyBytes, newFilerInitialCapacity, chunkTransaction, results, stackBuffer);
+            return null;
+        });
+    }
+
+    /**
+     * Advises the store that the filers of eachKeyBytes are about to be read so it can start paging them in, see
+     * {@link com.jivesoftware.os.filer.io.chunk.ChunkStore#prefetch}. Purely advisory, this default does nothing.
+     *
+     * @param openFilers also open each filer's monkey, otherwise only its pages are touched
+     * @return the number of filers prefetched
+     */
+    default CompletableFuture<Integer> prefetch(byte[][] eachKeyBytes, boolean openFilers, StackBuffer stackBuffer) throws IOException,
+        InterruptedException {
+        return CompletableFuture.completedFuture(0);
+    }
+
     <R> R readWriteAutoGrow(byte[] keyBytes,
         H newFilerInitialCapacity,
         ChunkTransaction<M, R> transaction,
@@ -4,6 +4,7 @@ import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFilerDuplicateBuffer;
 import com.jivesoftware.os.filer.io.IBA;
 import com.jivesoftware.os.filer.io.chunk.Chunk;
+import com.jivesoftware.os.filer.io.chunk.ChunkDecodeBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 
@@ -18,6 +19,7 @@ public class StackBuffer {
     private int chunkFilerStackDepth = 0;
     private ChunkFiler[] chunkFilers = new ChunkFiler[8];
     public final AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer = new AutoGrowingByteBufferBackedFilerDuplicateBuffer(1024);
+    public final ChunkDecodeBuffer decodeBuffer = new ChunkDecodeBuffer();
 
     private int chunkyStackDepth = 0;
     private Chunky[] chunkys = new Chunky[8];
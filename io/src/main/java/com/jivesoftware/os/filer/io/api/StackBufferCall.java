@@ -0,0 +1,37 @@
+package com.jivesoftware.os.filer.io.api;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * A store call which needs a StackBuffer from the thread it runs on.
+ *
+ * @param <R>
+ */
+public interface StackBufferCall<R> {
+
+    R call(StackBuffer stackBuffer) throws IOException, InterruptedException;
+
+    /**
+     * Runs call on the executor with a StackBuffer taken from stackBuffers on the executing thread. The returned future completes with
+     * whatever the call returns or throws, and fails with the RejectedExecutionException if the executor refuses the task.
+     */
+    static <R> CompletableFuture<R> async(Executor executor, Supplier<StackBuffer> stackBuffers, StackBufferCall<R> call) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call(stackBuffers.get()));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
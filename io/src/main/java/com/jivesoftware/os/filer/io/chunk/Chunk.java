@@ -1,5 +1,7 @@
 package com.jivesoftware.os.filer.io.chunk;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  *
  */
@@ -10,13 +12,35 @@ public class Chunk<M> {
     final int chunkPower;
     final long startOfFP;
     final long endOfFP;
-    transient long acquisitions;
+    final boolean compressed; // startOfFP..endOfFP hold the encoded payload, see ChunkStore.compress
+    transient volatile long acquisitions;
+    transient int hits; // approximate, optimistic hits race each other
+    transient volatile ChunkDecodeBuffer.Decoded decoded; // compressed only, the payload decoded once and dropped with the chunk
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<Chunk> ACQUISITIONS = AtomicLongFieldUpdater.newUpdater(Chunk.class, "acquisitions");
 
     public Chunk(M monkey, long chunkFP, int chunkPower, long startOfFP, long endOfFP) {
+        this(monkey, chunkFP, chunkPower, startOfFP, endOfFP, false);
+    }
+
+    Chunk(M monkey, long chunkFP, int chunkPower, long startOfFP, long endOfFP, boolean compressed) {
         this.monkey = monkey;
         this.chunkFP = chunkFP;
         this.chunkPower = chunkPower;
         this.startOfFP = startOfFP;
         this.endOfFP = endOfFP;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Acquisitions are counted atomically because read optimized stripes acquire and release cached chunks without the stripe lock.
+     */
+    long acquire() {
+        return ACQUISITIONS.incrementAndGet(this);
+    }
+
+    long release() {
+        return ACQUISITIONS.decrementAndGet(this);
     }
 }
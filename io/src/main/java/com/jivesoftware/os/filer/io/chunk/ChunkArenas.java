@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out chunks which were reserved in bulk from a ChunkStore without taking the store's root lock. Each thread maps onto one
+ * arena and each arena holds an extent of preformatted chunks plus a bounded queue of recycled chunks per chunk power.
+ *
+ * Reserved and recycled chunks are only known to the arena, so they are leaked if the process dies before release() hands them back
+ * to the store's free lists.
+ *
+ * @author jonathan.colt
+ */
+class ChunkArenas {
+
+    private static final ChunkMetrics.ChunkMetric[] arenaHits = new ChunkMetrics.ChunkMetric[ChunkStore.maxChunkPower];
+    private static final ChunkMetrics.ChunkMetric[] arenaReserves = new ChunkMetrics.ChunkMetric[ChunkStore.maxChunkPower];
+    private static final ChunkMetrics.ChunkMetric[] arenaRecycles = new ChunkMetrics.ChunkMetric[ChunkStore.maxChunkPower];
+
+    static {
+        for (int i = 0; i < ChunkStore.maxChunkPower; i++) {
+            String size = ChunkStore.metricName(i);
+            arenaHits[i] = ChunkMetrics.get("ChunkStore", size, "arenaHit");
+            arenaReserves[i] = ChunkMetrics.get("ChunkStore", size, "arenaReserve");
+            arenaRecycles[i] = ChunkMetrics.get("ChunkStore", size, "arenaRecycle");
+        }
+    }
+
+    private static final long maxExtentBytes = 4 * 1024 * 1024;
+
+    private final Arena[] arenas;
+    private final int extentChunks;
+    private final int maxRecycledChunks;
+
+    ChunkArenas(int numberOfArenas, int extentChunks, int maxRecycledChunks) {
+        this.arenas = new Arena[numberOfArenas];
+        for (int i = 0; i < arenas.length; i++) {
+            arenas[i] = new Arena();
+        }
+        this.extentChunks = extentChunks;
+        this.maxRecycledChunks = maxRecycledChunks;
+    }
+
+    private Arena arena() {
+        return arenas[(int) (Thread.currentThread().getId() % arenas.length)];
+    }
+
+    long allocate(ChunkStore chunkStore, int chunkPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Arena arena = arena();
+        Long recycled = arena.recycled[chunkPower].poll();
+        if (recycled != null) {
+            arena.recycledCount[chunkPower].decrementAndGet();
+            arenaHits[0].inc(1);
+            arenaHits[chunkPower].inc(1);
+            return recycled;
+        }
+
+        AtomicReference<Extent> extentRef = arena.extents[chunkPower];
+        Extent extent = extentRef.get();
+        if (extent != null) {
+            int i = extent.next.getAndIncrement();
+            if (i < extent.fps.length) {
+                arenaHits[0].inc(1);
+                arenaHits[chunkPower].inc(1);
+                return extent.fps[i];
+            }
+        }
+
+        int count = (int) Math.max(1, Math.min(extentChunks, maxExtentBytes >> chunkPower));
+        long[] fps = chunkStore.reserveChunks(chunkPower, count, stackBuffer);
+        arenaReserves[0].inc(1);
+        arenaReserves[chunkPower].inc(1);
+
+        Extent reserved = new Extent(fps, 1);
+        if (!extentRef.compareAndSet(extent, reserved)) {
+            // lost the race to a concurrent reservation so keep what fits as recycled chunks and free the rest
+            for (int i = 1; i < fps.length; i++) {
+                if (!recycle(fps[i], chunkPower)) {
+                    chunkStore.freeChunk(fps[i], chunkPower, stackBuffer);
+                }
+            }
+        }
+        return fps[0];
+    }
+
+    /**
+     * @return false if the arena is full and the chunk should be freed by the store.
+     */
+    boolean recycle(long chunkFP, int chunkPower) {
+        Arena arena = arena();
+        if (arena.recycledCount[chunkPower].incrementAndGet() > maxRecycledChunks) {
+            arena.recycledCount[chunkPower].decrementAndGet();
+            return false;
+        }
+        arena.recycled[chunkPower].add(chunkFP);
+        arenaRecycles[0].inc(1);
+        arenaRecycles[chunkPower].inc(1);
+        return true;
+    }
+
+    void release(ChunkStore chunkStore, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        for (Arena arena : arenas) {
+            for (int chunkPower = 0; chunkPower < ChunkStore.maxChunkPower; chunkPower++) {
+                Extent extent = arena.extents[chunkPower].getAndSet(null);
+                if (extent != null) {
+                    for (int i = extent.next.getAndSet(extent.fps.length); i < extent.fps.length; i++) {
+                        chunkStore.freeChunk(extent.fps[i], chunkPower, stackBuffer);
+                    }
+                }
+                Long recycled;
+                while ((recycled = arena.recycled[chunkPower].poll()) != null) {
+                    arena.recycledCount[chunkPower].decrementAndGet();
+                    chunkStore.freeChunk(recycled, chunkPower, stackBuffer);
+                }
+            }
+        }
+    }
+
+    private static class Arena {
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private final AtomicReference<Extent>[] extents = new AtomicReference[ChunkStore.maxChunkPower];
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private final ConcurrentLinkedQueue<Long>[] recycled = new ConcurrentLinkedQueue[ChunkStore.maxChunkPower];
+        private final AtomicInteger[] recycledCount = new AtomicInteger[ChunkStore.maxChunkPower];
+
+        Arena() {
+            for (int i = 0; i < ChunkStore.maxChunkPower; i++) {
+                extents[i] = new AtomicReference<>();
+                recycled[i] = new ConcurrentLinkedQueue<>();
+                recycledCount[i] = new AtomicInteger();
+            }
+        }
+    }
+
+    private static class Extent {
+
+        private final long[] fps;
+        private final AtomicInteger next;
+
+        Extent(long[] fps, int next) {
+            this.fps = fps;
+            this.next = new AtomicInteger(next);
+        }
+    }
+}
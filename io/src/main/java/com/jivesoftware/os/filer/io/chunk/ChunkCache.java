@@ -15,78 +15,163 @@
  */
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
-import com.jivesoftware.os.filer.io.ByteBufferFactory;
-import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
-import com.jivesoftware.os.filer.io.map.MapContext;
-import com.jivesoftware.os.filer.io.map.MapStore;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 /**
+ * Open addressing (linear probing) table from chunkFP to chunk. Keys are stored inline in a long[] so lookups neither allocate nor
+ * touch a filer, and removal backward shifts the probe run so the table never accumulates tombstones.
+ *
+ * When bounded, inserting a new chunk past maxChunks runs a CLOCK sweep over the slots: referenced chunks get a second chance and
+ * acquired chunks are never evicted, so the bound is soft while every cached chunk is in flight.
+ *
  * @author jonathan.colt
  */
 public class ChunkCache {
 
-    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final ChunkMetrics.ChunkMetric[] evictions = new ChunkMetrics.ChunkMetric[ChunkStore.maxChunkPower];
+
+    static {
+        for (int i = 0; i < ChunkStore.maxChunkPower; i++) {
+            evictions[i] = ChunkMetrics.get("ChunkStore", ChunkStore.metricName(i), "cacheEvict");
+        }
+    }
+
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 8;
 
-    private final byte[] name;
-    private final ByteBufferFactory bufferFactory;
+    private final int initialCapacity;
+    private final int maxChunks;
 
-    private MapContext mapContext;
-    private ByteBufferBackedFiler mapFiler;
+    private long[] keys;
     private Chunk<?>[] chunks;
-    private long acquisitions;
+    private boolean[] referenced;
+    private int mask;
+    private int count;
+    private int hand;
 
-    public ChunkCache(byte[] name, ByteBufferFactory bufferFactory) {
-        this.name = name;
-        this.bufferFactory = bufferFactory;
+    public ChunkCache() {
+        this(Integer.MAX_VALUE);
     }
 
-    public long approxSize() throws IOException {
-        MapContext _mapContext = mapContext;
-        if (_mapContext == null) {
-            return 0;
+    public ChunkCache(int maxChunks) {
+        this(0, maxChunks);
+    }
+
+    /**
+     * @param initialCapacity number of chunks to size the table for on first use
+     * @param maxChunks number of cached chunks past which unacquired chunks are evicted
+     */
+    public ChunkCache(int initialCapacity, int maxChunks) {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException("maxChunks must be positive: " + maxChunks);
         }
-        return MapStore.INSTANCE.getApproxCount(mapContext);
+        this.initialCapacity = initialCapacity;
+        this.maxChunks = maxChunks;
+    }
+
+    public long approxSize() throws IOException {
+        return count;
     }
 
     <M> void set(long chunkFP, Chunk<M> chunk, int initialCapacity, StackBuffer stackBuffer) throws IOException {
         ensureCapacity(initialCapacity, stackBuffer);
-        long ai = MapStore.INSTANCE.add(mapFiler, mapContext, (byte) 1, FilerIO.longBytes(chunkFP), EMPTY_PAYLOAD, stackBuffer);
-        chunks[(int) ai] = chunk;
+        chunks[put(chunkFP)] = chunk;
+    }
+
+    public int getMaxChunks() {
+        return maxChunks;
     }
 
     public boolean contains(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            long ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            return ai > -1;
-        }
-        return false;
+        return indexOf(chunkFP) > -1;
+    }
+
+    boolean isAcquired(long chunkFP, StackBuffer stackBuffer) throws IOException {
+        int i = indexOf(chunkFP);
+        return i > -1 && chunks[i].acquisitions > 0;
     }
 
     public <M> Chunk<M> acquireIfPresent(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            long ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                Chunk<M> chunk = (Chunk<M>) chunks[(int) ai];
-                chunk.acquisitions++;
-                acquisitions++;
+        int i = indexOf(chunkFP);
+        if (i > -1) {
+            Chunk<M> chunk = (Chunk<M>) chunks[i];
+            chunk.acquire();
+            chunk.hits++;
+            referenced[i] = true;
+            return chunk;
+        }
+        return null;
+    }
+
+    /**
+     * Racy lookup for read optimized stripes, the caller holds no lock and must validate its optimistic stamp afterwards. A concurrent
+     * writer can make this miss or see a stale table but never hands back a chunk for another fp. Only the acquisition is taken here,
+     * the hit is recorded by markOptimisticHit once the stamp is validated.
+     */
+    Chunk<?> acquireOptimistic(long chunkFP) {
+        long[] _keys = keys;
+        Chunk<?>[] _chunks = chunks;
+        boolean[] _referenced = referenced;
+        if (_keys == null || _chunks == null || _referenced == null || _chunks.length != _keys.length || _referenced.length != _keys.length) {
+            return null;
+        }
+        int _mask = _keys.length - 1;
+        int i = hash(chunkFP) & _mask;
+        for (int probes = 0; probes < _keys.length; probes++, i = (i + 1) & _mask) {
+            long key = _keys[i];
+            if (key == chunkFP) {
+                Chunk<?> chunk = _chunks[i];
+                if (chunk == null || chunk.chunkFP != chunkFP) {
+                    return null;
+                }
+                chunk.acquire();
                 return chunk;
             }
+            if (key == EMPTY) {
+                return null;
+            }
         }
         return null;
+    }
 
+    /**
+     * Counts a validated optimistic hit and sets the chunk's referenced bit, unless a writer has moved the chunk to another slot or
+     * dropped it since, in which case the bit is left for its next hit.
+     */
+    void markOptimisticHit(long chunkFP, Chunk<?> chunk) {
+        chunk.hits++;
+        long[] _keys = keys;
+        Chunk<?>[] _chunks = chunks;
+        boolean[] _referenced = referenced;
+        if (_keys == null || _chunks == null || _referenced == null || _chunks.length != _keys.length || _referenced.length != _keys.length) {
+            return;
+        }
+        int _mask = _keys.length - 1;
+        int i = hash(chunkFP) & _mask;
+        for (int probes = 0; probes < _keys.length; probes++, i = (i + 1) & _mask) {
+            long key = _keys[i];
+            if (key == chunkFP) {
+                if (_chunks[i] == chunk && _keys[i] == chunkFP) {
+                    _referenced[i] = true;
+                }
+                return;
+            }
+            if (key == EMPTY) {
+                return;
+            }
+        }
     }
 
     public boolean release(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            int ai = (int) MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                chunks[ai].acquisitions--;
-                acquisitions--;
-                if (chunks[ai].acquisitions == 0 && chunks[ai].monkey == null) {
-                    remove(chunkFP, stackBuffer);
+        if (keys != null) {
+            int i = indexOf(chunkFP);
+            if (i > -1) {
+                Chunk<?> chunk = chunks[i];
+                if (chunk.release() == 0 && chunk.monkey == null) {
+                    removeAt(i);
                 }
                 return true;
             } else {
@@ -97,53 +182,182 @@ public class ChunkCache {
     }
 
     public <M> Chunk<M> remove(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            int ai = (int) MapStore.INSTANCE.remove(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                Chunk<M> chunk = (Chunk<M>) chunks[ai];
-                acquisitions -= chunk.acquisitions;
-                chunks[ai] = null;
-                return chunk;
-            }
+        int i = indexOf(chunkFP);
+        if (i > -1) {
+            Chunk<M> chunk = (Chunk<M>) chunks[i];
+            removeAt(i);
+            return chunk;
         }
         return null;
     }
 
+    /**
+     * Drops a chunk whose last acquisition was released without the stripe lock, unless it was reacquired or replaced meanwhile.
+     */
+    void removeIfReleased(long chunkFP, Chunk<?> chunk) {
+        int i = indexOf(chunkFP);
+        if (i > -1 && chunks[i] == chunk && chunk.acquisitions == 0) {
+            removeAt(i);
+        }
+    }
+
     <M> Chunk<M> promoteAndAcquire(long chunkFP, Chunk<M> chunk, int initialCapacity, StackBuffer stackBuffer) throws IOException {
         ensureCapacity(initialCapacity, stackBuffer);
-        long ai = MapStore.INSTANCE.add(mapFiler, mapContext, (byte) 1, FilerIO.longBytes(chunkFP), EMPTY_PAYLOAD, stackBuffer);
-        if (ai == -1) {
-            throw new IllegalStateException("Context has no room");
-        }
-        chunks[(int) ai] = chunk;
-        chunk.acquisitions++;
-        acquisitions++;
+        chunks[put(chunkFP)] = chunk;
+        chunk.acquire();
         return chunk;
     }
 
+    /**
+     * Hands every cached chunk to consumer.
+     */
+    void forEach(Consumer<Chunk<?>> consumer) {
+        if (chunks != null) {
+            for (Chunk<?> chunk : chunks) {
+                if (chunk != null) {
+                    consumer.accept(chunk);
+                }
+            }
+        }
+    }
+
     public boolean isRemovable() {
-        return acquisitions == 0;
+        if (chunks != null) {
+            for (Chunk<?> chunk : chunks) {
+                if (chunk != null && chunk.acquisitions > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     void ensureCapacity(int initialCapacity, StackBuffer stackBuffer) throws IOException {
-        if (mapContext == null) {
-            long size = MapStore.INSTANCE.computeFilerSize(initialCapacity, 8, false, 0, false);
-            mapFiler = new ByteBufferBackedFiler(bufferFactory.allocate(name, size));
-            mapContext = MapStore.INSTANCE.create(initialCapacity, 8, false, 0, false, mapFiler, stackBuffer);
-            chunks = new Chunk[mapContext.capacity];
-        } else if (MapStore.INSTANCE.isFull(mapContext)) {
-            int nextGrowSize = MapStore.INSTANCE.nextGrowSize(mapContext);
-            long newSize = MapStore.INSTANCE.computeFilerSize(nextGrowSize, 8, false, 0, false);
-            ByteBufferBackedFiler newMapFiler = new ByteBufferBackedFiler(bufferFactory.allocate(name, newSize));
-            MapContext newMapContext = MapStore.INSTANCE.create(nextGrowSize, 8, false, 0, false, newMapFiler, stackBuffer);
-            final Chunk<?>[] newChunks = new Chunk[newMapContext.capacity];
-            MapStore.INSTANCE.copyTo(mapFiler, mapContext, newMapFiler, newMapContext,
-                (fromIndex, toIndex) -> newChunks[(int) toIndex] = chunks[(int) fromIndex], stackBuffer);
-            mapFiler = newMapFiler;
-            mapContext = newMapContext;
-            chunks = newChunks;
+        if (keys == null) {
+            allocate(capacityFor(Math.min(Math.max(this.initialCapacity, initialCapacity), maxChunks)));
+            return;
+        }
+        if (count >= maxChunks) {
+            evict();
+        }
+        if ((count + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            Chunk<?>[] oldChunks = chunks;
+            boolean[] oldReferenced = referenced;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = put(oldKeys[i]);
+                    chunks[j] = oldChunks[i];
+                    referenced[j] = oldReferenced[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the clock hand until one unacquired, unreferenced chunk is evicted or two full turns find nothing evictable.
+     */
+    private void evict() {
+        for (int turns = keys.length * 2; turns > 0; turns--) {
+            int i = hand;
+            hand = (hand + 1) & mask;
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            Chunk<?> chunk = chunks[i];
+            if (chunk.acquisitions > 0) {
+                continue;
+            }
+            if (referenced[i]) {
+                referenced[i] = false;
+                continue;
+            }
+            removeAt(i);
+            // the backward shift may have moved an unvisited chunk into this slot
+            hand = i;
+            evictions[0].inc(1);
+            evictions[chunk.chunkPower].inc(1);
+            return;
+        }
+    }
 
+    private static int capacityFor(int initialCapacity) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < initialCapacity * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        chunks = new Chunk[capacity];
+        referenced = new boolean[capacity];
+        mask = capacity - 1;
+        count = 0;
+        hand = 0;
+    }
+
+    private static int hash(long chunkFP) {
+        // murmur3 fmix64, chunkFPs are aligned so the low bits alone probe poorly
+        long h = chunkFP;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private int indexOf(long chunkFP) {
+        if (keys == null) {
+            return -1;
+        }
+        for (int i = hash(chunkFP) & mask; ; i = (i + 1) & mask) {
+            long key = keys[i];
+            if (key == chunkFP) {
+                return i;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /** Caller must ensureCapacity first. */
+    private int put(long chunkFP) {
+        for (int i = hash(chunkFP) & mask; ; i = (i + 1) & mask) {
+            long key = keys[i];
+            if (key == chunkFP) {
+                return i;
+            }
+            if (key == EMPTY) {
+                keys[i] = chunkFP;
+                referenced[i] = true;
+                count++;
+                return i;
+            }
+        }
+    }
+
+    private void removeAt(int i) {
+        count--;
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // move j into the hole unless its home slot lies cyclically in (hole, j]
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                chunks[hole] = chunks[j];
+                referenced[hole] = referenced[j];
+                hole = j;
+            }
         }
+        keys[hole] = EMPTY;
+        chunks[hole] = null;
+        referenced[hole] = false;
     }
 
     public interface CacheOpener<M> {
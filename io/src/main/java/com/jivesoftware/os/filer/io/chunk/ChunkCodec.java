@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.io.IOException;
+
+/**
+ * How {@link ChunkStore#compress} encodes a cold chunk's payload and how reads of a compressed chunk decode it. The codec is not
+ * recorded in the store, so every open of a store which holds compressed chunks must be configured with the same codec.
+ *
+ * @author jonathan.colt
+ */
+public interface ChunkCodec {
+
+    /**
+     * @return the number of bytes written to encoded or -1 if raw does not encode into encodedLength bytes, in which case the chunk is
+     * left raw
+     */
+    int encode(byte[] raw, int rawLength, byte[] encoded, int encodedLength) throws IOException;
+
+    /**
+     * Fills raw[0, rawLength) from what encode wrote to encoded[0, encodedLength).
+     */
+    void decode(byte[] encoded, int encodedLength, byte[] raw, int rawLength) throws IOException;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An online compaction of a ChunkStore. The store only knows where its chunks live, not who refers to them, so whoever holds chunk fps
+ * walks them through relocate() and swaps in the returned fp. Once every holder has been walked finish() truncates the free tail.
+ *
+ * @author jonathan.colt
+ */
+public class ChunkCompaction {
+
+    private final ChunkStore chunkStore;
+    private final long boundaryFP;
+    private final long maxBytesPerSecond;
+    private final long startTimestamp = System.currentTimeMillis();
+    private final AtomicLong relocatedChunks = new AtomicLong();
+    private final AtomicLong relocatedBytes = new AtomicLong();
+
+    ChunkCompaction(ChunkStore chunkStore, long boundaryFP, long maxBytesPerSecond) {
+        this.chunkStore = chunkStore;
+        this.boundaryFP = boundaryFP;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    /**
+     * @return chunks at or beyond this fp will be moved if there is room for them below it.
+     */
+    public long getBoundaryFP() {
+        return boundaryFP;
+    }
+
+    public long getRelocatedChunks() {
+        return relocatedChunks.get();
+    }
+
+    public long getRelocatedBytes() {
+        return relocatedBytes.get();
+    }
+
+    /**
+     * The caller must hold chunkFP exclusively, see ChunkStore.relocate().
+     *
+     * @param chunkFP
+     * @param stackBuffer
+     * @return the fp which must now be used in place of chunkFP
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long relocate(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        if (chunkFP < boundaryFP) {
+            return chunkFP;
+        }
+        return chunkStore.relocate(chunkFP, this, stackBuffer);
+    }
+
+    void relocated(long bytes) {
+        relocatedChunks.incrementAndGet();
+        relocatedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Sleeps long enough to keep the copy rate under maxBytesPerSecond. Call between relocations rather than while holding a chunk.
+     *
+     * @throws InterruptedException
+     */
+    public void throttle() throws InterruptedException {
+        if (maxBytesPerSecond > 0) {
+            long expectedMillis = (relocatedBytes.get() * 1000) / maxBytesPerSecond;
+            long elapsedMillis = System.currentTimeMillis() - startTimestamp;
+            if (expectedMillis > elapsedMillis) {
+                Thread.sleep(expectedMillis - elapsedMillis);
+            }
+        }
+    }
+
+    /**
+     * @param stackBuffer
+     * @return the number of bytes handed back by truncating the free tail of the store
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long finish(StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return chunkStore.truncate(stackBuffer);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.FilerIO;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The heap buffers compressed chunks are decoded into, pooled per StackBuffer like its duplicates. A decoded chunk is handed out as a
+ * read only filer and comes back when its execute is done, so nested executes each get their own. Buffers larger than
+ * 2^cMaxPooledPower are dropped rather than kept around by every thread which once read a big chunk.
+ *
+ * @author jonathan.colt
+ */
+public class ChunkDecodeBuffer {
+
+    private static final int cMaxPooledPower = 20;
+
+    private byte[] encoded = new byte[0];
+    private Decoded[] inUse = new Decoded[8];
+    private int inUseDepth = 0;
+    private final Decoded[] free = new Decoded[8];
+    private int freeDepth = 0;
+
+    /**
+     * Scratch space for the encoded bytes of one chunk, only valid until the next call.
+     */
+    byte[] encoded(int length) {
+        if (encoded.length < length) {
+            encoded = new byte[length];
+        }
+        return encoded;
+    }
+
+    /**
+     * @return a buffer holding at least rawLength bytes and the read only filer over it
+     */
+    Decoded acquire(int rawLength) throws IOException {
+        long capacity = FilerIO.chunkLength(FilerIO.chunkPower(rawLength, 0));
+        Decoded decoded = null;
+        for (int i = freeDepth - 1; i >= 0; i--) {
+            if (free[i].raw.length == capacity) {
+                decoded = free[i];
+                free[i] = free[freeDepth - 1];
+                free[freeDepth - 1] = null;
+                freeDepth--;
+                break;
+            }
+        }
+        if (decoded == null) {
+            decoded = new Decoded(new byte[(int) capacity]);
+        }
+        if (inUseDepth == inUse.length) {
+            Decoded[] grown = new Decoded[inUse.length * 2];
+            System.arraycopy(inUse, 0, grown, 0, inUse.length);
+            inUse = grown;
+        }
+        inUse[inUseDepth] = decoded;
+        inUseDepth++;
+        return decoded;
+    }
+
+    /**
+     * @return a copy of the first rawLength bytes decoded into filer which outlives its execute, null if filer was not handed out by
+     * acquire or the copy would be larger than a pooled buffer
+     */
+    Decoded keep(AutoGrowingByteBufferBackedFiler filer, int rawLength) throws IOException {
+        if (rawLength == 0 || rawLength > FilerIO.chunkLength(cMaxPooledPower)) {
+            return null;
+        }
+        for (int i = inUseDepth - 1; i >= 0; i--) {
+            if (inUse[i].filer == filer) {
+                byte[] raw = new byte[rawLength];
+                System.arraycopy(inUse[i].raw, 0, raw, 0, rawLength);
+                Decoded kept = new Decoded(raw);
+                kept.filer.seek(0); // maps the view so executes can duplicate it
+                return kept;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if filer was handed out by acquire, false if it belongs to someone else
+     */
+    boolean recycle(AutoGrowingByteBufferBackedFiler filer) {
+        for (int i = inUseDepth - 1; i >= 0; i--) {
+            Decoded decoded = inUse[i];
+            if (decoded.filer == filer) {
+                System.arraycopy(inUse, i + 1, inUse, i, inUseDepth - i - 1);
+                inUseDepth--;
+                inUse[inUseDepth] = null;
+                if (freeDepth < free.length && decoded.raw.length <= FilerIO.chunkLength(cMaxPooledPower)) {
+                    free[freeDepth] = decoded;
+                    freeDepth++;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class Decoded {
+
+        final byte[] raw;
+        final AutoGrowingByteBufferBackedFiler filer;
+
+        private Decoded(byte[] raw) throws IOException {
+            this.raw = raw;
+            ByteBuffer view = ByteBuffer.wrap(raw).asReadOnlyBuffer();
+            this.filer = new AutoGrowingByteBufferBackedFiler(new ByteBufferFactory() {
+                @Override
+                public boolean exists(byte[] key) {
+                    return true;
+                }
+
+                @Override
+                public ByteBuffer allocate(byte[] key, long size) {
+                    return view;
+                }
+
+                @Override
+                public ByteBuffer reallocate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+                    return view;
+                }
+
+                @Override
+                public ByteBuffer truncate(byte[] key, ByteBuffer oldBuffer, long newSize) {
+                    throw new UnsupportedOperationException("A decoded chunk is read only");
+                }
+            }, raw.length, raw.length);
+        }
+    }
+}
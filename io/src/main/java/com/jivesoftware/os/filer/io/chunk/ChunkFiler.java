@@ -120,6 +120,55 @@ public class ChunkFiler implements Filer {
         return filer.readLong();
     }
 
+    @Override
+    public void writeShort(int v) throws IOException {
+        checkBulk(2);
+        filer.writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        checkBulk(4);
+        filer.writeInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        checkBulk(8);
+        filer.writeLong(v);
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws IOException {
+        checkBulk(len * 4L);
+        filer.readInts(dst, off, len);
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws IOException {
+        checkBulk(len * 4L);
+        filer.writeInts(src, off, len);
+    }
+
+    @Override
+    public void readLongs(long[] dst, int off, int len) throws IOException {
+        checkBulk(len * 8L);
+        filer.readLongs(dst, off, len);
+    }
+
+    @Override
+    public void writeLongs(long[] src, int off, int len) throws IOException {
+        checkBulk(len * 8L);
+        filer.writeLongs(src, off, len);
+    }
+
+    private void checkBulk(long length) throws IOException {
+        long fp = filer.getFilePointer();
+        if (fp < startOfFP || fp > (endOfFP - length)) {
+            throw new IndexOutOfBoundsException("Accessing " + length + " bytes at fp:" + fp + " will overflow bounds. " + this);
+        }
+    }
+
     @Override
     final public void write(int b) throws IOException {
         long fp = filer.getFilePointer();
@@ -17,7 +17,10 @@ package com.jivesoftware.os.filer.io.chunk;
 
 import java.lang.management.ManagementFactory;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanRegistrationException;
@@ -27,6 +30,8 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
 /**
+ * Counters, gauges and latency histograms which are registered as MXBeans and can also be scraped with {@link #snapshot(boolean)}.
+ * Every update lands in striped cells so hot metrics neither lose updates nor bounce a shared cache line.
  *
  * @author jonathan.colt
  */
@@ -39,45 +44,278 @@ public class ChunkMetrics {
         public String getType();
     }
 
+    static public interface ChunkHistogramMXBean {
+
+        public long getCount();
+
+        public long getMax();
+
+        public double getMean();
+
+        public long getP50();
+
+        public long getP90();
+
+        public long getP99();
+
+        public long getP999();
+
+        public String getType();
+    }
+
     public static class ChunkMetric implements ChunkMetricMXBean {
 
-        private volatile long count;
+        private final LongAdder count = new LongAdder();
+        private final boolean gauge;
+
+        ChunkMetric(boolean gauge) {
+            this.gauge = gauge;
+        }
 
         public void inc(long amount) {
-            count += amount;
+            count.add(amount);
         }
 
         @Override
         public long getValue() {
-            return count;
+            return count.sum();
+        }
+
+        @Override
+        public String getType() {
+            return gauge ? "ChunkGauge" : "ChunkMetric";
+        }
+
+        /**
+         * Gauges track a level which a reset would corrupt, so they are only read.
+         */
+        long snapshot(boolean reset) {
+            return (reset && !gauge) ? count.sumThenReset() : count.sum();
+        }
+    }
+
+    /**
+     * Log bucketed histogram in the spirit of HdrHistogram: every power of 2 is split into 8 linear sub buckets so any recorded value
+     * is reported within 12.5% of itself. Quantiles report the upper bound of their bucket. Threads record into one of several
+     * stripes of buckets, each with its own max, which are summed when a snapshot is taken.
+     */
+    public static class ChunkHistogram implements ChunkHistogramMXBean {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+        private static final int MAX = BUCKETS; // each stripe keeps its max after its buckets
+        private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1); // a power of 2 >= cores
+
+        private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+        private final LongAdder sum = new LongAdder();
+
+        public ChunkHistogram() {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new AtomicLongArray(BUCKETS + 1);
+            }
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            AtomicLongArray stripe = stripes[stripe()];
+            stripe.incrementAndGet(bucket(value));
+            sum.add(value);
+            long m = stripe.get(MAX);
+            while (value > m && !stripe.compareAndSet(MAX, m, value)) {
+                m = stripe.get(MAX);
+            }
+        }
+
+        private static int stripe() {
+            long id = Thread.currentThread().getId();
+            return (int) ((id ^ (id >>> 16)) * 0x9E3779B97F4A7C15L >>> 58) & (STRIPES - 1);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long sub = bucket & (SUB_BUCKETS - 1);
+            long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (lower + width - 1 < 0) ? Long.MAX_VALUE : lower + width - 1;
+        }
+
+        public Snapshot snapshot(boolean reset) {
+            long[] counts = new long[BUCKETS];
+            long max = 0;
+            for (AtomicLongArray stripe : stripes) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] += reset ? stripe.getAndSet(i, 0) : stripe.get(i);
+                }
+                max = Math.max(max, reset ? stripe.getAndSet(MAX, 0) : stripe.get(MAX));
+            }
+            return new Snapshot(counts, reset ? sum.sumThenReset() : sum.sum(), max);
+        }
+
+        @Override
+        public long getCount() {
+            return snapshot(false).getCount();
+        }
+
+        @Override
+        public long getMax() {
+            long max = 0;
+            for (AtomicLongArray stripe : stripes) {
+                max = Math.max(max, stripe.get(MAX));
+            }
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return snapshot(false).getMean();
+        }
+
+        @Override
+        public long getP50() {
+            return snapshot(false).getQuantile(0.5);
+        }
+
+        @Override
+        public long getP90() {
+            return snapshot(false).getQuantile(0.9);
+        }
+
+        @Override
+        public long getP99() {
+            return snapshot(false).getQuantile(0.99);
+        }
+
+        @Override
+        public long getP999() {
+            return snapshot(false).getQuantile(0.999);
         }
 
         @Override
         public String getType() {
-            return "ChunkMetric";
+            return "ChunkHistogram";
         }
 
+        public static class Snapshot {
+
+            private final long[] counts;
+            private final long count;
+            private final long sum;
+            private final long max;
+
+            Snapshot(long[] counts, long sum, long max) {
+                this.counts = counts;
+                long total = 0;
+                for (long c : counts) {
+                    total += c;
+                }
+                this.count = total;
+                this.sum = sum;
+                this.max = max;
+            }
+
+            public long getCount() {
+                return count;
+            }
+
+            public long getSum() {
+                return sum;
+            }
+
+            public long getMax() {
+                return max;
+            }
+
+            public double getMean() {
+                return count == 0 ? 0 : (double) sum / count;
+            }
+
+            public long getQuantile(double quantile) {
+                if (count == 0) {
+                    return 0;
+                }
+                long rank = Math.max(1, (long) Math.ceil(quantile * count));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        return Math.min(upperBound(i), max);
+                    }
+                }
+                return max;
+            }
+        }
     }
 
-    static Map<String, ChunkMetric> metrics = new ConcurrentHashMap<>();
+    private static final Map<String, ChunkMetric> metrics = new ConcurrentHashMap<>();
+    private static final Map<String, ChunkHistogram> histograms = new ConcurrentHashMap<>();
 
     public static ChunkMetric get(String category, String... name) {
-        StringBuilder sb = new StringBuilder();
-        for (String n : name) {
-            sb.append(n);
-            sb.append('.');
+        return metrics.computeIfAbsent(key(category, name), key -> register(category, name, new ChunkMetric(false)));
+    }
+
+    /**
+     * A metric which tracks a level, it is incremented and decremented and never reset.
+     */
+    public static ChunkMetric getGauge(String category, String... name) {
+        return metrics.computeIfAbsent(key(category, name), key -> register(category, name, new ChunkMetric(true)));
+    }
+
+    public static ChunkHistogram getHistogram(String category, String... name) {
+        return histograms.computeIfAbsent(key(category, name), key -> register(category, name, new ChunkHistogram()));
+    }
+
+    /**
+     * Every metric keyed by category:name. Histograms expand into .count, .sum, .max, .p50, .p90, .p99 and .p999 entries.
+     *
+     * @param reset when true counters and histograms start over, so consecutive snapshots are deltas. Gauges are never reset.
+     */
+    public static Map<String, Long> snapshot(boolean reset) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, ChunkMetric> entry : metrics.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(reset));
         }
-        ChunkMetric metric = metrics.get(sb.toString());
-        if (metric == null) {
-            metric = new ChunkMetric();
-            metrics.put(sb.toString(), metric);
-            register(category, name, metric);
+        for (Map.Entry<String, ChunkHistogram> entry : histograms.entrySet()) {
+            ChunkHistogram.Snapshot histogram = entry.getValue().snapshot(reset);
+            String key = entry.getKey();
+            snapshot.put(key + ".count", histogram.getCount());
+            snapshot.put(key + ".sum", histogram.getSum());
+            snapshot.put(key + ".max", histogram.getMax());
+            snapshot.put(key + ".p50", histogram.getQuantile(0.5));
+            snapshot.put(key + ".p90", histogram.getQuantile(0.9));
+            snapshot.put(key + ".p99", histogram.getQuantile(0.99));
+            snapshot.put(key + ".p999", histogram.getQuantile(0.999));
         }
-        return metric;
+        return snapshot;
+    }
 
+    private static String key(String category, String[] name) {
+        StringBuilder sb = new StringBuilder(category).append(':');
+        for (int i = 0; i < name.length; i++) {
+            if (i != 0) {
+                sb.append('.');
+            }
+            sb.append(name[i]);
+        }
+        return sb.toString();
     }
 
-    static private void register(String category, String[] path, Object mbean) {
+    static private <T> T register(String category, String[] path, T mbean) {
 
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < path.length; i++) {
@@ -110,6 +348,7 @@ public class ChunkMetrics {
             System.out.println("unable to register bean: " + objectName + "cause: " + e.getMessage());
             e.printStackTrace();
         }
+        return mbean;
     }
 
     private ChunkMetrics() {
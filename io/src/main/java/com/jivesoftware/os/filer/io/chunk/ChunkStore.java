@@ -17,6 +17,7 @@ package com.jivesoftware.os.filer.io.chunk;
 
 import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.Copyable;
+import com.jivesoftware.os.filer.io.DirtyPages;
 import com.jivesoftware.os.filer.io.CreateFiler;
 import com.jivesoftware.os.filer.io.Filer;
 import com.jivesoftware.os.filer.io.FilerIO;
@@ -25,48 +26,139 @@ import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.CorruptionException;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.api.StackBuffer.Chunky;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author jonathan.colt
  */
 public class ChunkStore implements Copyable<ChunkStore> {
 
-    private static final int maxChunkPower = 32;
+    static final int maxChunkPower = 32;
     private static ChunkMetrics.ChunkMetric[] allocates = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] reuses = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] removes = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] executeHits = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] executeMisses = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] splits = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] coalesces = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] freeChunks = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] lazyZeroes = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] relocates = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric truncatedBytes = ChunkMetrics.get("ChunkStore", "total", "truncatedBytes");
+    private static ChunkMetrics.ChunkMetric truncateSkipped = ChunkMetrics.get("ChunkStore", "total", "truncateSkipped");
+    private static ChunkMetrics.ChunkMetric freeBytes = ChunkMetrics.getGauge("ChunkStore", "total", "freeBytes");
+    private static ChunkMetrics.ChunkMetric doubleRemoves = ChunkMetrics.get("ChunkStore", "total", "doubleRemove");
+    private static ChunkMetrics.ChunkMetric snapshotPages = ChunkMetrics.get("ChunkStore", "total", "snapshotPages");
+    private static ChunkMetrics.ChunkHistogram executeHitNanos = ChunkMetrics.getHistogram("ChunkStore", "total", "executeHitNanos");
+    private static ChunkMetrics.ChunkHistogram executeMissNanos = ChunkMetrics.getHistogram("ChunkStore", "total", "executeMissNanos");
+    private static ChunkMetrics.ChunkHistogram newChunkNanos = ChunkMetrics.getHistogram("ChunkStore", "total", "newChunkNanos");
+    private static ChunkMetrics.ChunkHistogram removeNanos = ChunkMetrics.getHistogram("ChunkStore", "total", "removeNanos");
+    private static ChunkMetrics.ChunkHistogram decodeNanos = ChunkMetrics.getHistogram("ChunkStore", "total", "decodeNanos");
+    private static ChunkMetrics.ChunkMetric warmUpChunks = ChunkMetrics.get("ChunkStore", "total", "warmUpChunks");
+    private static ChunkMetrics.ChunkMetric warmUpBytes = ChunkMetrics.get("ChunkStore", "total", "warmUpBytes");
+    private static ChunkMetrics.ChunkMetric warmUpSkipped = ChunkMetrics.get("ChunkStore", "total", "warmUpSkipped");
+    private static ChunkMetrics.ChunkMetric warmUpRemaining = ChunkMetrics.getGauge("ChunkStore", "total", "warmUpRemaining");
+    private static final AtomicInteger warmUpThreadIds = new AtomicInteger();
+    private static ChunkMetrics.ChunkMetric prefetchChunks = ChunkMetrics.get("ChunkStore", "total", "prefetchChunks");
+    private static ChunkMetrics.ChunkMetric prefetchBytes = ChunkMetrics.get("ChunkStore", "total", "prefetchBytes");
+    private static ChunkMetrics.ChunkMetric prefetchSkipped = ChunkMetrics.get("ChunkStore", "total", "prefetchSkipped");
+    private static ChunkMetrics.ChunkMetric prefetchDropped = ChunkMetrics.get("ChunkStore", "total", "prefetchDropped");
+    private static final AtomicInteger prefetchThreadIds = new AtomicInteger();
+    private static final int maxQueuedPrefetches = 1024;
+    private static ChunkMetrics.ChunkMetric compressedChunks = ChunkMetrics.get("ChunkStore", "total", "compressedChunks");
+    private static ChunkMetrics.ChunkMetric compressedBytesSaved = ChunkMetrics.get("ChunkStore", "total", "compressedBytesSaved");
+    private static ChunkMetrics.ChunkMetric compressSkipped = ChunkMetrics.get("ChunkStore", "total", "compressSkipped");
+    private static ChunkMetrics.ChunkMetric decompressions = ChunkMetrics.get("ChunkStore", "total", "decompressions");
 
     static {
         for (int i = 0; i < maxChunkPower; i++) {
-            String size = (i == 0) ? "total" : "2_pow_" + (i > 9 ? i : "0" + i) + "_" + FilerIO.chunkLength(i) + "_bytes";
+            String size = metricName(i);
             allocates[i] = ChunkMetrics.get("ChunkStore", size, "allocate");
             reuses[i] = ChunkMetrics.get("ChunkStore", size, "reuse");
             removes[i] = ChunkMetrics.get("ChunkStore", size, "remove");
             executeHits[i] = ChunkMetrics.get("ChunkStore", size, "executeHit");
             executeMisses[i] = ChunkMetrics.get("ChunkStore", size, "executeMiss");
+            splits[i] = ChunkMetrics.get("ChunkStore", size, "split");
+            coalesces[i] = ChunkMetrics.get("ChunkStore", size, "coalesce");
+            freeChunks[i] = ChunkMetrics.getGauge("ChunkStore", size, "freeChunks");
+            lazyZeroes[i] = ChunkMetrics.get("ChunkStore", size, "lazyZero");
+            relocates[i] = ChunkMetrics.get("ChunkStore", size, "relocate");
         }
     }
 
+    static String metricName(int chunkPower) {
+        return (chunkPower == 0) ? "total" : "2_pow_" + (chunkPower > 9 ? chunkPower : "0" + chunkPower) + "_" + FilerIO.chunkLength(chunkPower) + "_bytes";
+    }
+
     private static final long cMagicNumber = Long.MAX_VALUE;
+    private static final long cSnapshotMagic = 0x494E4352534E4150L; // INCRSNAP
+    private static final long cHotChunksMagic = 0x484F544348554E4BL; // HOTCHUNK
     private static final byte[] zerosMax = new byte[(int) Math.pow(2, 16)]; // 65536 max used until min needed
 
-    private StripedFiler filer;
+    /*
+     * The chunkPower long only needs its low byte for the power. Bit 32 marks a chunk whose payload was not zeroed on remove and
+     * must be zeroed before it is handed out again. Bit 33 marks a chunk written by compress whose payload is the raw length (int),
+     * the encoded length (int) and the encoded bytes. Bit 34 marks a removed buddy chunk which is not on a free list, because an arena
+     * holds it or it is on its way to freeBuddyChunk, so it must not be coalesced.
+     */
+    private static final long cChunkPowerMask = 0xFFL;
+    private static final long cNeedsZero = 1L << 32;
+    private static final long cCompressed = 1L << 33;
+    private static final long cDetached = 1L << 34;
+
+    /*
+     * The long which legacy stores use for the first chunk's magic number (or the unused 2^64 free slot) holds the layout word
+     * for stores which opted into an alternate allocation layout.
+     */
+    private static final long cLayoutMagic = 0x4C41594F00000000L;
+    private static final long cLayoutMagicMask = 0xFFFFFFFF00000000L;
+    private static final long cLayoutBuddy = 1L;
+
+    private static final long cBuddyBase = 4096; // header is padded to a page so that buddy blocks >= 4k are page aligned
+    private static final int cMinBuddyPower = 6; // chunk header (32) + prevFree (8) must fit in the smallest block
+    private static final int cMaxBuddyPower = maxChunkPower - 1;
+
+    private volatile StripedFiler filer; // only replaced by reopen, read it once per operation
     private byte[] zerosMin;
     private int minPower;
     private long lengthOfFile;
     private long referenceNumber = 0;
+    private boolean buddy;
+    private volatile ChunkArenas arenas;
+    private volatile FreeChunkPolicy freeChunkPolicy = FreeChunkPolicy.ZERO_ON_REMOVE;
+    private HotChunkRecorder hotChunkRecorder; // null unless the config names a hot chunk manifest
+    private ThreadPoolExecutor prefetcher; // started by the first prefetch, guarded by this
+    private Thread warmUpThread; // running startWarmUp, guarded by this
+    private final long[] freeChunkCounts = new long[maxChunkPower]; // this store's share of the freeChunks gauges, guarded by itself
 
     public ChunkStore(StripedFiler filer) throws Exception {
         this.filer = filer;
     }
 
     public long getSkyHookFp() {
-        return 8 + 8 + (8 * (64 - minPower));
+        return buddy ? cBuddyBase : 8 + 8 + (8 * (64 - minPower));
     }
 
     /*
@@ -76,13 +168,23 @@ public class ChunkStore implements Copyable<ChunkStore> {
      * free 2^8
      * free 2^9
      * thru
-     * free 2^64
+     * free 2^64 (layout word when buddy allocating, padded with zeros to cBuddyBase)
      */
     public void setup(long _referenceNumber) {
+        setup(_referenceNumber, false);
+    }
+
+    /**
+     * @param _referenceNumber
+     * @param _buddyAllocation when true chunks are power of 2 blocks (header included) which are split to serve smaller requests
+     *                         and coalesced with their free buddy on remove. This choice is persisted and cannot be changed once created.
+     */
+    public void setup(long _referenceNumber, boolean _buddyAllocation) {
         referenceNumber = _referenceNumber;
         minPower = referenceNumber < 2 ? 8 : 0;
         zerosMin = new byte[(int) Math.pow(2, minPower)];
-        lengthOfFile = 8 + 8 + (8 * (64 - minPower));
+        buddy = _buddyAllocation;
+        lengthOfFile = buddy ? cBuddyBase : 8 + 8 + (8 * (64 - minPower));
     }
 
     /**
@@ -95,19 +197,32 @@ public class ChunkStore implements Copyable<ChunkStore> {
         return filer.length();
     }
 
+    /**
+     * @return sampled per stripe monitor wait and hold times, empty unless the store was configured with a contentionSampleRate.
+     */
+    public StripedFiler.StripeContention[] getStripeContention() {
+        return filer.getStripeContention();
+    }
+
     public void createAndOpen(StripedFiler filer, StackBuffer stackBuffer) throws Exception {
         this.filer = filer;
         this.filer.rootTx(-1L, (fp, chunkCache, txFiler) -> {
             txFiler.seek(0);
             FilerIO.writeLong(txFiler, lengthOfFile, "lengthOfFile", stackBuffer);
             FilerIO.writeLong(txFiler, referenceNumber, "referenceNumber", stackBuffer);
-            for (int i = minPower; i < 65; i++) {
+            for (int i = minPower; i < 64; i++) {
+                FilerIO.writeLong(txFiler, -1, "free", stackBuffer);
+            }
+            if (buddy) {
+                FilerIO.writeLong(txFiler, cLayoutMagic | cLayoutBuddy, "layout", stackBuffer);
+                txFiler.seek(lengthOfFile); //  force allocation of space
+            } else {
                 FilerIO.writeLong(txFiler, -1, "free", stackBuffer);
             }
             txFiler.flush();
             return null;
         });
-
+        startHotChunkRecorder();
     }
 
     public void open(StackBuffer stackBuffer) throws IOException, InterruptedException {
@@ -117,24 +232,437 @@ public class ChunkStore implements Copyable<ChunkStore> {
             referenceNumber = FilerIO.readLong(filer, "referenceNumber", stackBuffer);
             minPower = referenceNumber < 2 ? 8 : 0;
             zerosMin = new byte[(int) Math.pow(2, minPower)];
+            long layoutFP = freeSeek(64);
+            if (lengthOfFile >= layoutFP + 8) {
+                filer.seek(layoutFP);
+                long layout = FilerIO.readLong(filer, "layout", stackBuffer);
+                buddy = (layout & cLayoutMagicMask) == cLayoutMagic && (layout & cLayoutBuddy) != 0;
+            } else {
+                buddy = false;
+            }
+            // a reopen, copyTo or restore replaces whatever this store counted before
+            uncountFreeChunks();
+            if (buddy) {
+                for (int power = cMinBuddyPower; power <= cMaxBuddyPower; power++) {
+                    long count = 0;
+                    filer.seek(freeSeek(power));
+                    long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+                    while (freeFP != -1) {
+                        count++;
+                        freeFP = readNextFree(filer, freeFP, stackBuffer);
+                    }
+                    countFreeChunks(power, count);
+                }
+            }
             filer.seek(lengthOfFile);
             return null;
         });
+        startHotChunkRecorder();
+    }
+
+    /**
+     * Warms the chunks recorded in the configured hot chunk manifest on a background thread, see {@link #warmUp}. Closing the store
+     * stops the warm up.
+     *
+     * @param openFiler nullable, null only touches pages
+     * @return the number of chunks warmed, 0 without a manifest or warm up parallelism
+     */
+    public <M> CompletableFuture<Integer> startWarmUp(OpenFiler<M, ChunkFiler> openFiler) {
+        ChunkStoreConfig config = filer.getConfig();
+        CompletableFuture<Integer> warmed = new CompletableFuture<>();
+        if (config.getHotChunkManifest() == null || config.getWarmUpParallelism() == 0) {
+            warmed.complete(0);
+            return warmed;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                warmed.complete(warmUp(config.getHotChunkManifest(), openFiler, config.getWarmUpParallelism()));
+            } catch (Throwable t) {
+                warmed.completeExceptionally(t);
+            }
+        }, "chunk-store-warm-up-" + warmUpThreadIds.incrementAndGet());
+        thread.setDaemon(true);
+        synchronized (this) {
+            warmUpThread = thread;
+        }
+        thread.start();
+        return warmed;
+    }
+
+    private synchronized void startHotChunkRecorder() {
+        ChunkStoreConfig config = filer.getConfig();
+        if (hotChunkRecorder == null && config.getHotChunkManifest() != null) {
+            hotChunkRecorder = new HotChunkRecorder(this, config.getHotChunkManifest(), config.getHotChunkManifestIntervalMillis(),
+                config.getHotChunkManifestMaxChunks());
+        }
+    }
+
+    /**
+     * Moves a read only store onto a newer generation of its files, for instance after a writer's files were copied over the ones
+     * this store mapped. The new generation's header is read before it is published, so callers see either generation whole.
+     * Transactions already executing keep the chunk and mapping they started with, the previous generation's chunk caches are simply
+     * dropped and its mappings are released once the last of those transactions is done.
+     *
+     * @param root a filer over the newer generation, which must share this store's allocation layout
+     */
+    public void reopen(AutoGrowingByteBufferBackedFiler root, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        StripedFiler current = filer;
+        if (!current.getConfig().isReadOnly()) {
+            throw new IllegalStateException("Only a read only chunk store can be reopened");
+        }
+        StripedFiler next = new StripedFiler(root, current.getConfig());
+        long[] header = next.rootTx(-1L, (fp, chunkCache, filer) -> {
+            filer.seek(0);
+            long _lengthOfFile = FilerIO.readLong(filer, "lengthOfFile", stackBuffer);
+            long _referenceNumber = FilerIO.readLong(filer, "referenceNumber", stackBuffer);
+            long layout = -1;
+            if (buddy) {
+                filer.seek(freeSeek(64));
+                layout = FilerIO.readLong(filer, "layout", stackBuffer);
+            }
+            filer.seek(_lengthOfFile);
+            return new long[] { _lengthOfFile, _referenceNumber, layout };
+        });
+        if (header[1] != referenceNumber || (buddy && (header[2] & cLayoutMagicMask) != cLayoutMagic)) {
+            throw new CorruptionException("Generation does not share this store's layout: referenceNumber=" + header[1]);
+        }
+        synchronized (this) {
+            lengthOfFile = header[0];
+            filer = next;
+        }
+        current.close();
+    }
+
+    public ChunkStoreConfig getConfig() {
+        return filer.getConfig();
+    }
+
+    public boolean isReadOnly() {
+        return filer.getConfig().isReadOnly();
+    }
+
+    private void checkWritable() throws IOException {
+        if (filer.getConfig().isReadOnly()) {
+            throw new IOException("Chunk store is read only");
+        }
     }
 
     public void delete() throws IOException {
 
     }
 
+    /**
+     * Blocks until everything written to this store before the call is forced to storage, see {@link Durability}.
+     */
+    public void commit() throws IOException, InterruptedException {
+        filer.commit();
+    }
+
+    private void autoCommit() throws IOException, InterruptedException {
+        if (filer.getDurability() == Durability.GROUP_COMMIT) {
+            filer.commit();
+        }
+    }
+
+    /**
+     * Records the hot chunk manifest a last time and stops this store's group commit flusher after a final pass.
+     */
+    public void close() throws InterruptedException {
+        HotChunkRecorder recorder;
+        Thread warmingUp;
+        synchronized (this) {
+            recorder = hotChunkRecorder;
+            if (prefetcher != null) {
+                prefetcher.shutdownNow();
+                prefetcher = null;
+            }
+            warmingUp = warmUpThread;
+            warmUpThread = null;
+        }
+        if (warmingUp != null) {
+            warmingUp.interrupt();
+            warmingUp.join();
+        }
+        if (recorder != null) {
+            recorder.stop();
+        }
+        uncountFreeChunks();
+        filer.close();
+    }
+
+    /**
+     * Moves the freeChunks and freeBytes gauges by count chunks of chunkPower and remembers them as this store's share.
+     */
+    private void countFreeChunks(int chunkPower, long count) {
+        synchronized (freeChunkCounts) {
+            freeChunkCounts[chunkPower] += count;
+            freeChunks[0].inc(count);
+            freeChunks[chunkPower].inc(count);
+            freeBytes.inc(count * FilerIO.chunkLength(chunkPower));
+        }
+    }
+
+    /**
+     * Takes this store's share back out of the freeChunks and freeBytes gauges.
+     */
+    private void uncountFreeChunks() {
+        synchronized (freeChunkCounts) {
+            for (int power = 0; power < freeChunkCounts.length; power++) {
+                if (freeChunkCounts[power] != 0) {
+                    countFreeChunks(power, -freeChunkCounts[power]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the fp and extent of up to maxChunks of the chunks cached across all stripes to manifest, most hit first. Hit counts are
+     * halved afterwards so the manifest follows recent traffic. The manifest is written beside itself and moved into place, so it is
+     * always either the previous or the new one.
+     *
+     * @return the number of chunks recorded
+     */
+    public int saveHotChunks(Path manifest, int maxChunks) throws IOException, InterruptedException {
+        List<long[]> hot = new ArrayList<>();
+        filer.eachStripeTx((fp, chunkCache, stripeFiler) -> {
+            chunkCache.forEach(chunk -> {
+                hot.add(new long[] { chunk.chunkFP, chunk.endOfFP - chunk.chunkFP, chunk.hits });
+                chunk.hits >>>= 1;
+            });
+            return null;
+        });
+        hot.sort((a, b) -> Long.compare(b[2], a[2]));
+
+        int count = Math.min(maxChunks, hot.size());
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + (count * 16));
+        buffer.putLong(cHotChunksMagic);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(hot.get(i)[0]);
+            buffer.putLong(hot.get(i)[1]);
+        }
+        Path written = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(written, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Faults in the pages of the chunks recorded in manifest, most hit first, on parallelism threads. With an openFiler every recorded
+     * chunk which is still allocated is also opened into its stripe's cache, so its monkey is ready before the first request. A chunk
+     * which can no longer be warmed is skipped. Progress is reported through the warmUpChunks, warmUpBytes, warmUpSkipped and
+     * warmUpRemaining metrics.
+     *
+     * @param openFiler nullable, null only touches pages
+     * @return the number of chunks warmed, 0 without a manifest
+     */
+    public <M> int warmUp(Path manifest, OpenFiler<M, ChunkFiler> openFiler, int parallelism) throws IOException, InterruptedException {
+        if (!Files.exists(manifest)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(manifest));
+        if (buffer.remaining() < 12 || buffer.getLong() != cHotChunksMagic) {
+            throw new IOException("Not a hot chunk manifest: " + manifest);
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < count * 16L) {
+            throw new IOException("Truncated hot chunk manifest: " + manifest);
+        }
+        long[] hot = new long[count * 2];
+        buffer.asLongBuffer().get(hot);
+
+        warmUpRemaining.inc(count);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger warmed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "chunk-store-warm-up-" + warmUpThreadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.max(1, parallelism); i++) {
+                workers.add(executor.submit(() -> {
+                    StackBuffer stackBuffer = new StackBuffer();
+                    for (int h = next.getAndIncrement(); h < count && !Thread.currentThread().isInterrupted(); h = next.getAndIncrement()) {
+                        try {
+                            if (warmUpChunk(hot[h * 2], hot[h * 2 + 1], openFiler, stackBuffer)) {
+                                warmed.incrementAndGet();
+                            }
+                        } finally {
+                            warmUpRemaining.inc(-1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    throw new IOException("Warm up failed", cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            // chunks nobody claimed after a failure
+            warmUpRemaining.inc(-Math.max(0, count - next.get()));
+        }
+        return warmed.get();
+    }
+
+    private <M> boolean warmUpChunk(long chunkFP, long length, OpenFiler<M, ChunkFiler> openFiler, StackBuffer stackBuffer)
+        throws InterruptedException {
+        if (chunkFP < 0 || length <= 0 || chunkFP + length > lengthOfFile) {
+            warmUpSkipped.inc(1);
+            return false;
+        }
+        filer.touch(chunkFP, length);
+        warmUpBytes.inc(length);
+        if (openFiler != null) {
+            try {
+                if (!isAllocated(chunkFP, stackBuffer)) {
+                    warmUpSkipped.inc(1);
+                    return false;
+                }
+                execute(chunkFP, openFiler, (monkey, chunkFiler, stackBuffer1, lock) -> null, stackBuffer);
+            } catch (IOException e) {
+                // removed or reused since it was recorded
+                warmUpSkipped.inc(1);
+                return false;
+            }
+        }
+        warmUpChunks.inc(1);
+        return true;
+    }
+
+    public CompletableFuture<Integer> prefetch(long[] chunkFPs) {
+        return prefetch(chunkFPs, null);
+    }
+
+    /**
+     * Advises the store that chunkFPs are about to be executed against. The pages of each allocated chunk are faulted in on a bounded
+     * background pool (see {@link ChunkStoreConfig.Builder#setPrefetchParallelism}), and with an openFiler its monkey is opened into
+     * its stripe's cache, so the reads that follow overlap page-in with processing rather than faulting one chunk at a time. Advice is
+     * best effort: it is dropped when prefetching is disabled or the pool is backed up, and fps which are not allocated chunks are
+     * skipped.
+     *
+     * @param openFiler nullable, null only touches pages
+     * @return the number of chunks prefetched, completes exceptionally only if opening a monkey throws something other than an
+     * IOException
+     */
+    public <M> CompletableFuture<Integer> prefetch(long[] chunkFPs, OpenFiler<M, ChunkFiler> openFiler) {
+        CompletableFuture<Integer> prefetched = new CompletableFuture<>();
+        ThreadPoolExecutor executor = prefetcher();
+        if (executor == null || chunkFPs.length == 0) {
+            prefetchDropped.inc(chunkFPs.length);
+            prefetched.complete(0);
+            return prefetched;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    StackBuffer stackBuffer = new StackBuffer();
+                    int count = 0;
+                    for (long chunkFP : chunkFPs) {
+                        if (prefetchChunk(chunkFP, openFiler, stackBuffer)) {
+                            count++;
+                        }
+                    }
+                    prefetched.complete(count);
+                } catch (Throwable t) {
+                    prefetched.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prefetchDropped.inc(chunkFPs.length);
+            prefetched.complete(0);
+        }
+        return prefetched;
+    }
+
+    private synchronized ThreadPoolExecutor prefetcher() {
+        int parallelism = filer.getConfig().getPrefetchParallelism();
+        if (prefetcher == null && parallelism > 0) {
+            prefetcher = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedPrefetches),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "chunk-store-prefetch-" + prefetchThreadIds.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+        return prefetcher;
+    }
+
+    private <M> boolean prefetchChunk(long chunkFP, OpenFiler<M, ChunkFiler> openFiler, StackBuffer stackBuffer) throws InterruptedException {
+        try {
+            long extent = (chunkFP < 0 || chunkFP >= lengthOfFile) ? -1 : chunkExtent(chunkFP, stackBuffer);
+            if (extent == -1) {
+                prefetchSkipped.inc(1);
+                return false;
+            }
+            filer.touch(chunkFP, extent);
+            prefetchBytes.inc(extent);
+            if (openFiler != null) {
+                execute(chunkFP, openFiler, (monkey, chunkFiler, stackBuffer1, lock) -> null, stackBuffer);
+            }
+        } catch (IOException e) {
+            // removed or reused since it was advised
+            prefetchSkipped.inc(1);
+            return false;
+        }
+        prefetchChunks.inc(1);
+        return true;
+    }
+
+    /**
+     * @return the header plus payload length of the chunk at chunkFP, -1 when it is not an allocated chunk
+     */
+    private long chunkExtent(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            filer.seek(fp);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            if (magicNumber != cMagicNumber || chunkLength == -1) {
+                return -1L;
+            }
+            return filer.getFilePointer() + payloadLength((int) (powerAndFlags & cChunkPowerMask)) - fp;
+        });
+    }
+
+    private boolean isAllocated(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            if (chunkCache.contains(fp, stackBuffer)) {
+                return true;
+            }
+            filer.seek(fp);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            return magicNumber == cMagicNumber && chunkLength != -1;
+        });
+    }
+
     @Override
     public void copyTo(final ChunkStore to, StackBuffer stackBuffer) throws IOException, InterruptedException {
-        this.filer.rootTx(-1L, (fp, chunkCache, fromFiler) -> {
+        to.checkWritable();
+        this.filer.exclusiveTx(-1L, (fp, chunkCache, fromFiler) -> {
             to.filer.rootTx(-1L,
                 (fp1, chunkCache1, toFiler) -> {
-                    fromFiler.seek(0);
-                    toFiler.seek(0);
-                    //TODO if these filers are both byte buffer backed then it's much faster to do an NIO ByteBuffer.put()
-                    FilerIO.copy(fromFiler, toFiler, lengthOfFile, -1);
+                    fromFiler.copyTo(toFiler, lengthOfFile);
                     to.open(stackBuffer);
                     return null;
                 });
@@ -142,6 +670,133 @@ public class ChunkStore implements Copyable<ChunkStore> {
         });
     }
 
+    /**
+     * Writes a copy of this store into directory as chunkName-0, chunkName-1, ... segment files of the configured segmentSize, which
+     * is the layout ChunkStoreInitializer.openOrCreate expects for a single directory. Chunks cannot be opened, allocated or removed while
+     * the copy runs, but transactions already executing against an open chunk are not fenced, so quiesce writers for a point in time
+     * copy.
+     *
+     * @param directory created if missing, any previous snapshot of chunkName in it is replaced
+     * @param chunkName
+     * @param stackBuffer
+     * @return the number of bytes written
+     */
+    public long exportSnapshot(Path directory, String chunkName, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        long segmentSize = this.filer.getConfig().getSegmentSize();
+        return this.filer.exclusiveTx(-1L, (fp, chunkCache, rootFiler) -> {
+            int segment = 0;
+            for (long start = 0; start < lengthOfFile; start += segmentSize, segment++) {
+                try (FileChannel channel = FileChannel.open(directory.resolve(chunkName + "-" + segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    rootFiler.writeTo(channel, start, Math.min(segmentSize, lengthOfFile - start));
+                    channel.force(true);
+                }
+            }
+            while (Files.deleteIfExists(directory.resolve(chunkName + "-" + segment))) {
+                segment++;
+            }
+            return lengthOfFile;
+        });
+    }
+
+    /**
+     * Writes every page written since sinceEpoch to out, or every page when sinceEpoch predates this store's dirty page tracking so 0
+     * yields a full base. Requires a ChunkStoreConfig dirtyPageSize. As with exportSnapshot, chunk transactions which are already
+     * executing are not fenced.
+     *
+     * @param sinceEpoch the epoch returned by the previous increment
+     * @param out
+     * @param stackBuffer
+     * @return the epoch to pass as sinceEpoch for the next increment
+     */
+    public long incrementalSnapshot(long sinceEpoch, WritableByteChannel out, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return this.filer.exclusiveTx(-1L, (fp, chunkCache, rootFiler) -> {
+            DirtyPages dirtyPages = rootFiler.getDirtyPages();
+            if (dirtyPages == null) {
+                throw new IllegalStateException("Dirty page tracking is not enabled, see ChunkStoreConfig.Builder.setDirtyPageSize");
+            }
+            long epoch = dirtyPages.advance();
+            long pageSize = dirtyPages.getPageSize();
+            ByteBuffer header = ByteBuffer.allocate(8 * 5);
+            header.putLong(cSnapshotMagic).putLong(sinceEpoch).putLong(epoch).putLong(lengthOfFile).putLong(pageSize);
+            writeFully(out, header);
+
+            ByteBuffer pageHeader = ByteBuffer.allocate(8 + 4);
+            for (long pageFP = 0; pageFP < lengthOfFile; pageFP += pageSize) {
+                if (dirtyPages.isDirty(pageFP, sinceEpoch)) {
+                    int pageLength = (int) Math.min(pageSize, lengthOfFile - pageFP);
+                    pageHeader.clear();
+                    pageHeader.putLong(pageFP).putInt(pageLength);
+                    writeFully(out, pageHeader);
+                    rootFiler.writeTo(out, pageFP, pageLength);
+                    snapshotPages.inc(1);
+                }
+            }
+            pageHeader.clear();
+            pageHeader.putLong(-1).putInt(0);
+            writeFully(out, pageHeader);
+            return epoch;
+        });
+    }
+
+    /**
+     * Replays one incrementalSnapshot onto this store. Apply the full base first and then every increment in the order they were taken.
+     * Cached chunks are not invalidated so restore into a store which nothing else has open.
+     *
+     * @param in
+     * @param stackBuffer
+     * @return the epoch of the applied increment
+     */
+    public long restoreIncrementalSnapshot(ReadableByteChannel in, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        long epoch = this.filer.exclusiveTx(-1L, (fp, chunkCache, rootFiler) -> {
+            ByteBuffer header = readFully(in, ByteBuffer.allocate(8 * 5));
+            if (header.getLong() != cSnapshotMagic) {
+                throw new CorruptionException("Not an incremental snapshot");
+            }
+            header.getLong(); // sinceEpoch
+            long snapshotEpoch = header.getLong();
+            header.getLong(); // lengthOfFile, restored with the header page
+            byte[] page = new byte[(int) header.getLong()];
+
+            ByteBuffer pageHeader = ByteBuffer.allocate(8 + 4);
+            while (true) {
+                pageHeader.clear();
+                readFully(in, pageHeader);
+                long pageFP = pageHeader.getLong();
+                int pageLength = pageHeader.getInt();
+                if (pageFP == -1) {
+                    break;
+                }
+                readFully(in, ByteBuffer.wrap(page, 0, pageLength));
+                rootFiler.seek(pageFP);
+                rootFiler.write(page, 0, pageLength);
+            }
+            rootFiler.flush();
+            return snapshotEpoch;
+        });
+        open(stackBuffer);
+        return epoch;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("Incremental snapshot ended early");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
     public void rollCache() throws IOException {
         //chunkCache.roll();
     }
@@ -150,6 +805,55 @@ public class ChunkStore implements Copyable<ChunkStore> {
         return referenceNumber;
     }
 
+    public boolean isBuddyAllocation() {
+        return buddy;
+    }
+
+    public FreeChunkPolicy getFreeChunkPolicy() {
+        return freeChunkPolicy;
+    }
+
+    /**
+     * Chunks which were freed under ZERO_ON_REUSE are always zeroed before reuse, so the policy can be changed at any time.
+     *
+     * @param freeChunkPolicy
+     */
+    public void setFreeChunkPolicy(FreeChunkPolicy freeChunkPolicy) {
+        this.freeChunkPolicy = freeChunkPolicy;
+    }
+
+    /**
+     * Enables allocation arenas. newChunk and remove are then served from per thread arenas without taking the root lock, and the
+     * root lock is only taken to reserve a new extent of chunks. Reserved but unused chunks are leaked if the process dies before
+     * releaseArenas is called.
+     *
+     * @param numberOfArenas threads are spread across this many arenas
+     * @param extentChunks how many chunks of a given power to reserve at once (capped at 4mb worth of chunks)
+     * @param maxRecycledChunks how many removed chunks of a given power an arena holds onto before returning them to the free lists
+     */
+    public void enableAllocationArenas(int numberOfArenas, int extentChunks, int maxRecycledChunks) {
+        if (filer.getConfig().isReadOnly()) {
+            throw new IllegalStateException("Chunk store is read only");
+        }
+        arenas = new ChunkArenas(numberOfArenas, extentChunks, maxRecycledChunks);
+    }
+
+    /**
+     * Returns every reserved or recycled chunk held by the arenas to the free lists and disables arena allocation. The caller must
+     * ensure no chunks are being allocated or removed concurrently.
+     *
+     * @param stackBuffer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void releaseArenas(StackBuffer stackBuffer) throws IOException, InterruptedException {
+        ChunkArenas _arenas = arenas;
+        arenas = null;
+        if (_arenas != null) {
+            _arenas.release(this, stackBuffer);
+        }
+    }
+
     /**
      * @param <M>
      * @param <H>
@@ -161,67 +865,396 @@ public class ChunkStore implements Copyable<ChunkStore> {
     public <M, H> long newChunk(final H hint,
         final CreateFiler<H, M, ChunkFiler> createFiler,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        long start = System.nanoTime();
         long _capacity = createFiler.sizeInBytes(hint);
-        final int chunkPower = FilerIO.chunkPower(_capacity, minPower);
-        final long chunkLength = FilerIO.chunkLength(chunkPower)
-            + 8 // add magicNumber
-            + 8 // add chunkPower
-            + 8 // add next free chunk of equal size
-            + 8; // add bytesLength
-        final long chunkPosition = freeSeek(chunkPower);
-        final AtomicBoolean reused = new AtomicBoolean(false);
-        final AtomicLong chunkFP = new AtomicLong(-1);
+        final int chunkPower = chunkPower(_capacity);
 
-        this.filer.rootTx(-1L, (fp, chunkCache, filer) -> {
-            long reuseFp = reuseChunk(filer, chunkPosition, stackBuffer);
-
-            if (reuseFp == -1) {
-                long newChunkFP = lengthOfFile;
-                filer.seek(newChunkFP + chunkLength - 1); // last byte in chunk
-                filer.write(0); // cause file backed ChunkStore to grow file on disk. Use setLength()?
-                filer.seek(newChunkFP);
-                FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
-                FilerIO.writeLong(filer, chunkPower, "chunkPower", stackBuffer);
-                FilerIO.writeLong(filer, -1, "chunkNexFreeChunkFP", stackBuffer);
-                FilerIO.writeLong(filer, chunkLength, "chunkLength", stackBuffer);
-                lengthOfFile += chunkLength;
-                filer.seek(lengthOfFile); //  force allocation of space
+        long chunkFP;
+        ChunkArenas _arenas = arenas;
+        if (_arenas != null) {
+            chunkFP = _arenas.allocate(this, chunkPower, stackBuffer);
+        } else {
+            chunkFP = this.filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+                long reuseFp = allocateChunk(filer, chunkPower, stackBuffer);
                 filer.seek(0);
                 FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
                 filer.flush();
-                reuseFp = newChunkFP;
-                reused.set(true);
+                return reuseFp;
+            });
+        }
+
+        createChunk(chunkFP, chunkPower, hint, createFiler, stackBuffer);
+        autoCommit();
+        newChunkNanos.record(System.nanoTime() - start);
+        return chunkFP;
+    }
+
+    /**
+     * Allocates a chunk for every hint holding the root lock once, so the header is written and flushed once for the whole batch.
+     * Each chunk is then created under its own stripe just like newChunk.
+     *
+     * @param <M>
+     * @param <H>
+     * @param hints
+     * @param createFiler
+     * @param outFps receives the fp of the chunk created for the hint at the same index
+     * @param stackBuffer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public <M, H> void newChunks(final H[] hints,
+        final CreateFiler<H, M, ChunkFiler> createFiler,
+        final long[] outFps,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        if (outFps.length < hints.length) {
+            throw new IllegalArgumentException("Expected room for " + hints.length + " fps but only have " + outFps.length);
+        }
+        final int[] chunkPowers = new int[hints.length];
+        for (int i = 0; i < hints.length; i++) {
+            chunkPowers[i] = chunkPower(createFiler.sizeInBytes(hints[i]));
+        }
+
+        int reserved = 0;
+        int created = 0;
+        try {
+            ChunkArenas _arenas = arenas;
+            if (_arenas != null) {
+                for (; reserved < hints.length; reserved++) {
+                    outFps[reserved] = _arenas.allocate(this, chunkPowers[reserved], stackBuffer);
+                }
+            } else {
+                reserveChunks(chunkPowers, outFps, stackBuffer);
+                reserved = hints.length;
             }
-            chunkFP.set(reuseFp);
-            return null;
-        });
 
-        if (reused.get()) {
-            reuses[0].inc(1);
-            reuses[chunkPower].inc(1);
-        } else {
-            allocates[0].inc(1);
-            allocates[chunkPower].inc(1);
+            for (; created < hints.length; created++) {
+                createChunk(outFps[created], chunkPowers[created], hints[created], createFiler, stackBuffer);
+            }
+        } finally {
+            if (created < hints.length) {
+                // a batch is all or nothing, remove what was created (including the one which failed) and free what never was
+                for (int i = 0; i < reserved; i++) {
+                    if (reserved == hints.length && i <= created) {
+                        remove(outFps[i], stackBuffer);
+                    } else {
+                        freeChunk(outFps[i], chunkPowers[i], stackBuffer);
+                    }
+                }
+            }
         }
+        autoCommit();
+    }
 
-        filer.tx(chunkFP.get(), (fp, chunkCache, filer) -> {
+    private <M, H> void createChunk(long chunkFP,
+        int chunkPower,
+        H hint,
+        CreateFiler<H, M, ChunkFiler> createFiler,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        filer.tx(chunkFP, (fp, chunkCache, filer) -> {
             filer.seek(fp);
             long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
             if (magicNumber != cMagicNumber) {
                 throw new CorruptionException("Invalid chunkFP " + fp);
             }
-            int chunkPower1 = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            int chunkPower1 = (int) (powerAndFlags & cChunkPowerMask);
             FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-            FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
             long startOfFP = filer.getFilePointer();
-            long endOfFP = startOfFP + FilerIO.chunkLength(chunkPower1);
+            long endOfFP = startOfFP + payloadLength(chunkPower1);
+            if ((powerAndFlags & cNeedsZero) != 0) {
+                zeroFill(filer, endOfFP - startOfFP);
+                filer.seek(fp + 8);
+                FilerIO.writeLong(filer, chunkPower1, "chunkPower", stackBuffer);
+                lazyZeroes[0].inc(1);
+                lazyZeroes[chunkPower1].inc(1);
+            }
+            if (chunkLength == -1) {
+                // recycled by an arena or reused from a legacy free list, the payload is zeroed by now
+                filer.seek(fp + 8);
+                FilerIO.writeLong(filer, chunkPower1, "chunkPower", stackBuffer);
+                writeChunkLength(filer, fp, chunkPower1, stackBuffer);
+            }
             ChunkFiler chunkFiler = new ChunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), fp, startOfFP, endOfFP);
             chunkFiler.seek(0);
             M monkey = createFiler.create(hint, chunkFiler, stackBuffer);
             chunkCache.set(fp, new Chunk<>(monkey, fp, chunkPower, startOfFP, endOfFP), 2, stackBuffer);
             return null;
         });
-        return chunkFP.get();
+    }
+
+    /**
+     * Reserves count chunks of the given power holding the root lock once.
+     */
+    long[] reserveChunks(int chunkPower, int count, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        int[] chunkPowers = new int[count];
+        Arrays.fill(chunkPowers, chunkPower);
+        long[] fps = new long[count];
+        reserveChunks(chunkPowers, fps, stackBuffer);
+        return fps;
+    }
+
+    /**
+     * Reserves a chunk of each of the given powers into fps holding the root lock once.
+     */
+    private void reserveChunks(int[] chunkPowers, long[] fps, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            for (int i = 0; i < chunkPowers.length; i++) {
+                fps[i] = allocateChunk(filer, chunkPowers[i], stackBuffer);
+            }
+            filer.seek(0);
+            FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+            filer.flush();
+            return null;
+        });
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long allocateChunk(Filer filer, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long lengthBefore = lengthOfFile;
+        long chunkFP;
+        if (buddy) {
+            chunkFP = allocateBuddyChunk(filer, chunkPower, stackBuffer);
+        } else {
+            chunkFP = reuseChunk(filer, freeSeek(chunkPower), stackBuffer);
+            if (chunkFP == -1) {
+                chunkFP = appendChunk(filer, chunkPower, stackBuffer);
+            }
+        }
+        if (lengthOfFile == lengthBefore) {
+            reuses[0].inc(1);
+            reuses[chunkPower].inc(1);
+        } else {
+            allocates[0].inc(1);
+            allocates[chunkPower].inc(1);
+        }
+        return chunkFP;
+    }
+
+    private int chunkPower(long capacity) {
+        if (buddy) {
+            return FilerIO.chunkPower(capacity + 8 + 8 + 8 + 8, Math.max(minPower, cMinBuddyPower));
+        } else {
+            return FilerIO.chunkPower(capacity, minPower);
+        }
+    }
+
+    private long payloadLength(int chunkPower) {
+        if (buddy) {
+            return FilerIO.chunkLength(chunkPower) - (8 + 8 + 8 + 8);
+        } else {
+            return FilerIO.chunkLength(chunkPower);
+        }
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long appendChunk(Filer filer, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        final long chunkLength = FilerIO.chunkLength(chunkPower)
+            + 8 // add magicNumber
+            + 8 // add chunkPower
+            + 8 // add next free chunk of equal size
+            + 8; // add bytesLength
+        long newChunkFP = lengthOfFile;
+        filer.seek(newChunkFP + chunkLength - 1); // last byte in chunk
+        filer.write(0); // cause file backed ChunkStore to grow file on disk. Use setLength()?
+        filer.seek(newChunkFP);
+        FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
+        FilerIO.writeLong(filer, chunkPower, "chunkPower", stackBuffer);
+        FilerIO.writeLong(filer, -1, "chunkNexFreeChunkFP", stackBuffer);
+        FilerIO.writeLong(filer, chunkLength, "chunkLength", stackBuffer);
+        lengthOfFile += chunkLength;
+        filer.seek(lengthOfFile); //  force allocation of space
+        return newChunkFP;
+    }
+
+    /*
+     * Buddy blocks of power p are 2^p bytes including the chunk header and live at cBuddyBase + (k * 2^p). A free block is
+     * marked by a chunkLength of -1 and is doubly linked through chunkNexFreeChunkFP and the first long of its payload (prevFree).
+     * Free payloads are kept zeroed apart from prevFree, which is cleared when the block is handed out, unless the needs zero bit
+     * is set. Merging with a block which needs zeroes and splitting such a block carry the bit along.
+     */
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long allocateBuddyChunk(Filer filer, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        for (int power = chunkPower; power <= cMaxBuddyPower; power++) {
+            long blockFP = popBuddy(filer, power, stackBuffer);
+            if (blockFP != -1) {
+                return carveBuddyChunk(filer, blockFP, power, chunkPower, stackBuffer);
+            }
+        }
+        long chunkFP = appendBuddyChunk(filer, chunkPower, stackBuffer);
+        writeBuddyChunkHeader(filer, chunkFP, chunkPower, 0, stackBuffer);
+        return chunkFP;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long carveBuddyChunk(Filer filer, long blockFP, int blockPower, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long needsZero = readChunkPowerAndFlags(filer, blockFP, stackBuffer) & cNeedsZero;
+        for (int splitPower = blockPower - 1; splitPower >= chunkPower; splitPower--) {
+            long upperFP = blockFP + FilerIO.chunkLength(splitPower);
+            pushBuddy(filer, upperFP, splitPower, needsZero, stackBuffer);
+            splits[0].inc(1);
+            splits[splitPower + 1].inc(1);
+        }
+        writeBuddyChunkHeader(filer, blockFP, chunkPower, needsZero, stackBuffer);
+        return blockFP;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void writeBuddyChunkHeader(Filer filer, long chunkFP, int chunkPower, long needsZero, StackBuffer stackBuffer) throws IOException {
+        filer.seek(chunkFP);
+        FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
+        FilerIO.writeLong(filer, chunkPower | needsZero, "chunkPower", stackBuffer);
+        FilerIO.writeLong(filer, -1, "chunkNexFreeChunkFP", stackBuffer);
+        FilerIO.writeLong(filer, FilerIO.chunkLength(chunkPower), "chunkLength", stackBuffer);
+        FilerIO.writeLong(filer, 0, "prevFree", stackBuffer);
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long appendBuddyChunk(Filer filer, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long chunkLength = FilerIO.chunkLength(chunkPower);
+        long offset = lengthOfFile - cBuddyBase;
+        long aligned = (offset + chunkLength - 1) & ~(chunkLength - 1);
+
+        filer.seek(cBuddyBase + aligned + chunkLength - 1); // last byte in chunk
+        filer.write(0); // cause file backed ChunkStore to grow file on disk.
+
+        // carve the alignment gap into the largest aligned free blocks that fit
+        while (offset < aligned) {
+            int power = Math.min(Long.numberOfTrailingZeros(offset), cMaxBuddyPower);
+            while (offset + FilerIO.chunkLength(power) > aligned) {
+                power--;
+            }
+            long gapFP = cBuddyBase + offset;
+            offset += FilerIO.chunkLength(power);
+            lengthOfFile = cBuddyBase + offset;
+            freeBuddyChunk(filer, gapFP, power, stackBuffer);
+        }
+
+        lengthOfFile = cBuddyBase + aligned + chunkLength;
+        filer.seek(lengthOfFile); //  force allocation of space
+        return cBuddyBase + aligned;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void freeBuddyChunk(Filer filer, long chunkFP, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long needsZero = readChunkPowerAndFlags(filer, chunkFP, stackBuffer) & cNeedsZero;
+        while (chunkPower < cMaxBuddyPower) {
+            long chunkLength = FilerIO.chunkLength(chunkPower);
+            long buddyFP = cBuddyBase + ((chunkFP - cBuddyBase) ^ chunkLength);
+            if (buddyFP + chunkLength > lengthOfFile) {
+                break;
+            }
+            long buddyPowerAndFlags = freeBuddyPowerAndFlags(filer, buddyFP, stackBuffer);
+            if (buddyPowerAndFlags == -1 || (buddyPowerAndFlags & cChunkPowerMask) != chunkPower) {
+                break;
+            }
+            needsZero |= buddyPowerAndFlags & cNeedsZero;
+            unlinkBuddy(filer, buddyFP, chunkPower, stackBuffer);
+
+            // the absorbed upper half becomes payload of the merged block
+            filer.seek(Math.max(chunkFP, buddyFP));
+            filer.write(zerosMax, 0, 8 + 8 + 8 + 8 + 8);
+
+            coalesces[0].inc(1);
+            coalesces[chunkPower].inc(1);
+            chunkFP = Math.min(chunkFP, buddyFP);
+            chunkPower++;
+        }
+        pushBuddy(filer, chunkFP, chunkPower, needsZero, stackBuffer);
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     *
+     * @return the chunkPower long of the free block at chunkFP or -1 if there isn't a free block there
+     */
+    private long freeBuddyPowerAndFlags(Filer filer, long chunkFP, StackBuffer stackBuffer) throws IOException {
+        filer.seek(chunkFP);
+        long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+        long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+        FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+        long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+        return (magicNumber == cMagicNumber && chunkLength == -1 && (powerAndFlags & cDetached) == 0) ? powerAndFlags : -1;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void pushBuddy(Filer filer, long chunkFP, int chunkPower, long needsZero, StackBuffer stackBuffer) throws IOException {
+        long position = freeSeek(chunkPower);
+        filer.seek(position);
+        long headFP = FilerIO.readLong(filer, "free", stackBuffer);
+
+        filer.seek(chunkFP);
+        FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
+        FilerIO.writeLong(filer, chunkPower | needsZero, "chunkPower", stackBuffer);
+        FilerIO.writeLong(filer, headFP, "chunkNexFreeChunkFP", stackBuffer);
+        FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
+        FilerIO.writeLong(filer, -1, "prevFree", stackBuffer);
+        if (headFP != -1) {
+            writePrevFree(filer, headFP, chunkFP, stackBuffer);
+        }
+        filer.seek(position);
+        FilerIO.writeLong(filer, chunkFP, "free", stackBuffer);
+
+        countFreeChunks(chunkPower, 1);
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long popBuddy(Filer filer, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        filer.seek(freeSeek(chunkPower));
+        long headFP = FilerIO.readLong(filer, "free", stackBuffer);
+        if (headFP != -1) {
+            unlinkBuddy(filer, headFP, chunkPower, stackBuffer);
+        }
+        return headFP;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void unlinkBuddy(Filer filer, long chunkFP, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long nextFP = readNextFree(filer, chunkFP, stackBuffer);
+        FilerIO.readLong(filer, "chunkLength", stackBuffer);
+        long prevFP = FilerIO.readLong(filer, "prevFree", stackBuffer);
+        if (prevFP == -1) {
+            filer.seek(freeSeek(chunkPower));
+            FilerIO.writeLong(filer, nextFP, "free", stackBuffer);
+        } else {
+            writeNextFree(filer, prevFP, nextFP, stackBuffer);
+        }
+        if (nextFP != -1) {
+            writePrevFree(filer, nextFP, prevFP, stackBuffer);
+        }
+
+        countFreeChunks(chunkPower, -1);
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void writePrevFree(Filer filer, long _chunkFP, long _prevFreeFP, StackBuffer stackBuffer) throws IOException {
+        filer.seek(_chunkFP + 8 + 8 + 8 + 8);
+        FilerIO.writeLong(filer, _prevFreeFP, "prevFree", stackBuffer);
     }
 
     /**
@@ -239,6 +1272,23 @@ public class ChunkStore implements Copyable<ChunkStore> {
         return reuseFP;
     }
 
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long readChunkPowerAndFlags(Filer filer, long _chunkFP, StackBuffer stackBuffer) throws IOException {
+        filer.seek(_chunkFP);
+        FilerIO.readLong(filer, "magicNumber", stackBuffer);
+        return FilerIO.readLong(filer, "chunkPower", stackBuffer);
+    }
+
+    /**
+     * Marks a chunk which came off a legacy free list as allocated again, see isAllocated. Removing a chunk sets its length to -1.
+     */
+    private void writeChunkLength(Filer filer, long _chunkFP, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        filer.seek(_chunkFP + 8 + 8 + 8);
+        FilerIO.writeLong(filer, chunkBytes(chunkPower), "chunkLength", stackBuffer);
+    }
+
     /**
      * Synchronize externally on filer.lock()
      */
@@ -274,64 +1324,187 @@ public class ChunkStore implements Copyable<ChunkStore> {
         StackBuffer stackBuffer)
         throws IOException, InterruptedException {
 
-        Chunky<M> chunky = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
-            Chunk<M> chunk = chunkCache.acquireIfPresent(chunkFP, stackBuffer);
-            if (chunk == null) {
-                filer.seek(chunkFP);
-                long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
-                if (magicNumber != cMagicNumber) {
-                    throw new CorruptionException("Invalid chunkFP " + chunkFP);
-                }
-                int chunkPower = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
-                FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-                FilerIO.readLong(filer, "chunkLength", stackBuffer);
-                long startOfFP = filer.getFilePointer();
-
-                long endOfFP = startOfFP + FilerIO.chunkLength(chunkPower);
-                ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), chunkFP,
-                    startOfFP, endOfFP);
-                chunkFiler.seek(0);
-
-                M monkey = openFiler.open(chunkFiler, stackBuffer);
-                chunk = new Chunk<>(monkey, chunkFP, chunkPower, startOfFP, endOfFP);
-                chunkCache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer);
-
-                executeMisses[0].inc(1);
-                executeMisses[chunkPower].inc(1);
-            } else {
-                executeHits[0].inc(1);
-                executeHits[chunk.chunkPower].inc(1);
-            }
-
-            //ChunkFiler chunkFiler = new ChunkFiler(ChunkStore.this, filer.duplicate(chunk.startOfFP, chunk.endOfFP), chunkFP, chunk.startOfFP,
-            //    chunk.endOfFP);
-            AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, chunk.startOfFP, chunk.endOfFP);
-            ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, duplicate, chunkFP, chunk.startOfFP,
-                chunk.endOfFP);
-            chunkFiler.seek(0);
-            return stackBuffer.chunky(duplicate, chunkFiler, chunk);
+        long start = System.nanoTime();
+        StripedFiler stripedFiler = this.filer;
+        @SuppressWarnings("unchecked")
+        Chunky<M> chunky = stripedFiler.optimisticTx(chunkFP, (fp, chunk, filer) -> {
+            executeHits[0].inc(1);
+            executeHits[chunk.chunkPower].inc(1);
+            return chunky(fp, (Chunk<M>) chunk, filer, stackBuffer);
         });
+        if (chunky == null) {
+            chunky = stripedFiler.tx(chunkFP, (fp, chunkCache, filer) -> {
+                Chunk<M> chunk = chunkCache.acquireIfPresent(chunkFP, stackBuffer);
+                if (chunk == null) {
+                    filer.seek(chunkFP);
+                    long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+                    if (magicNumber != cMagicNumber) {
+                        throw new CorruptionException("Invalid chunkFP " + chunkFP);
+                    }
+                    long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+                    int chunkPower = (int) (powerAndFlags & cChunkPowerMask);
+                    boolean compressed = (powerAndFlags & cCompressed) != 0;
+                    FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+                    FilerIO.readLong(filer, "chunkLength", stackBuffer);
+                    long startOfFP = filer.getFilePointer();
+
+                    long endOfFP = startOfFP + payloadLength(chunkPower);
+                    if (compressed) {
+                        // open from a decoded copy and hand the same copy to the transaction rather than decoding twice
+                        Chunky<M> decoded = decodedChunky(chunkFP, null, filer, startOfFP, endOfFP, stackBuffer);
+                        M monkey;
+                        try {
+                            monkey = openFiler.open(decoded.filer, stackBuffer);
+                            decoded.filer.seek(0);
+                        } catch (IOException | RuntimeException e) {
+                            stackBuffer.decodeBuffer.recycle(decoded.duplicate);
+                            throw e;
+                        }
+                        chunk = new Chunk<>(monkey, chunkFP, chunkPower, startOfFP, endOfFP, true);
+                        chunk.decoded = stackBuffer.decodeBuffer.keep(decoded.duplicate, (int) decoded.filer.length());
+                        chunkCache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer);
+                        decoded.monkey = chunk;
+
+                        executeMisses[0].inc(1);
+                        executeMisses[chunkPower].inc(1);
+                        executeMissNanos.record(System.nanoTime() - start);
+                        return decoded;
+                    }
+                    ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP),
+                        chunkFP, startOfFP, endOfFP);
+                    chunkFiler.seek(0);
+
+                    M monkey = openFiler.open(chunkFiler, stackBuffer);
+                    chunk = new Chunk<>(monkey, chunkFP, chunkPower, startOfFP, endOfFP);
+                    chunkCache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer);
+
+                    executeMisses[0].inc(1);
+                    executeMisses[chunkPower].inc(1);
+                    executeMissNanos.record(System.nanoTime() - start);
+                } else {
+                    executeHits[0].inc(1);
+                    executeHits[chunk.chunkPower].inc(1);
+                    executeHitNanos.record(System.nanoTime() - start);
+                }
+                return chunky(chunkFP, chunk, filer, stackBuffer);
+            });
+        } else {
+            executeHitNanos.record(System.nanoTime() - start);
+        }
 
         try {
             return chunkTransaction.commit(chunky.monkey.monkey, chunky.filer, stackBuffer, chunky.monkey);
         } finally {
 
-            filer.tx(chunkFP, (fp, chunkCache, filer1) -> {
-                chunkCache.release(chunkFP, stackBuffer);
-                return null;
-            });
+            stripedFiler.release(chunkFP, chunky.monkey);
 
             ChunkFiler chunkyFiler = chunky.filer;
             AutoGrowingByteBufferBackedFiler chunkyDuplicate = chunky.duplicate;
             stackBuffer.recycle(chunkyFiler);
-            stackBuffer.duplicateBuffer.recycle(chunkyDuplicate);
+            if (!stackBuffer.decodeBuffer.recycle(chunkyDuplicate)) {
+                stackBuffer.duplicateBuffer.recycle(chunkyDuplicate);
+            }
             stackBuffer.recycle(chunky);
         }
     }
 
+    private <M> Chunky<M> chunky(long chunkFP, Chunk<M> chunk, AutoGrowingByteBufferBackedFiler filer, StackBuffer stackBuffer) throws IOException {
+        if (chunk.compressed) {
+            ChunkDecodeBuffer.Decoded decoded = chunk.decoded;
+            if (decoded == null) {
+                return decodedChunky(chunkFP, chunk, filer, chunk.startOfFP, chunk.endOfFP, stackBuffer);
+            }
+            AutoGrowingByteBufferBackedFiler duplicate = decoded.filer.duplicate(stackBuffer.duplicateBuffer, 0, decoded.raw.length);
+            ChunkFiler chunkFiler = stackBuffer.chunkFiler(this, duplicate, chunkFP, 0, decoded.raw.length);
+            chunkFiler.seek(0);
+            return stackBuffer.chunky(duplicate, chunkFiler, chunk);
+        }
+        AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, chunk.startOfFP, chunk.endOfFP);
+        ChunkFiler chunkFiler = stackBuffer.chunkFiler(this, duplicate, chunkFP, chunk.startOfFP, chunk.endOfFP);
+        chunkFiler.seek(0);
+        return stackBuffer.chunky(duplicate, chunkFiler, chunk);
+    }
+
+    /**
+     * Decodes the compressed payload in [startOfFP, endOfFP) into a pooled buffer which is exposed to the transaction read only. Reads
+     * only go through a duplicate, so this is as safe without the stripe monitor as chunky is. A copy of the decoded payload is kept on
+     * a cached chunk so later executes skip the decode.
+     */
+    private <M> Chunky<M> decodedChunky(long chunkFP,
+        Chunk<M> chunk,
+        AutoGrowingByteBufferBackedFiler filer,
+        long startOfFP,
+        long endOfFP,
+        StackBuffer stackBuffer) throws IOException {
+        ChunkCodec codec = this.filer.getConfig().getChunkCodec();
+        if (codec == null) {
+            throw new IOException("Chunk " + chunkFP + " is compressed but no chunk codec is configured");
+        }
+        AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP);
+        int rawLength;
+        int encodedLength;
+        byte[] encoded;
+        try {
+            duplicate.seek(startOfFP);
+            rawLength = FilerIO.readInt(duplicate, "rawLength", stackBuffer);
+            encodedLength = FilerIO.readInt(duplicate, "encodedLength", stackBuffer);
+            if (rawLength < 0 || encodedLength < 0 || encodedLength > endOfFP - startOfFP - 8) {
+                throw new CorruptionException("Invalid compressed chunkFP " + chunkFP + " rawLength:" + rawLength
+                    + " encodedLength:" + encodedLength);
+            }
+            encoded = stackBuffer.decodeBuffer.encoded(encodedLength);
+            duplicate.read(encoded, 0, encodedLength);
+        } finally {
+            stackBuffer.duplicateBuffer.recycle(duplicate);
+        }
+
+        ChunkDecodeBuffer.Decoded decoded = stackBuffer.decodeBuffer.acquire(rawLength);
+        long start = System.nanoTime();
+        try {
+            codec.decode(encoded, encodedLength, decoded.raw, rawLength);
+            decodeNanos.record(System.nanoTime() - start);
+            if (chunk != null && chunk.decoded == null) {
+                chunk.decoded = stackBuffer.decodeBuffer.keep(decoded.filer, rawLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            stackBuffer.decodeBuffer.recycle(decoded.filer);
+            throw e;
+        }
+        decompressions.inc(1);
+        ChunkFiler chunkFiler = stackBuffer.chunkFiler(this, decoded.filer, chunkFP, 0, rawLength);
+        chunkFiler.seek(0);
+        return stackBuffer.chunky(decoded.filer, chunkFiler, chunk);
+    }
+
     public void remove(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        long start = System.nanoTime();
+        int chunkPower = clearChunk(chunkFP, stackBuffer);
+        if (chunkPower == -1) {
+            // some one is removing the same chunk more than once
+            doubleRemoves.inc(1);
+            return;
+        }
+
+        ChunkArenas _arenas = arenas;
+        if (_arenas == null || !_arenas.recycle(chunkFP, chunkPower)) {
+            freeChunk(chunkFP, chunkPower, stackBuffer);
+        }
+
+        removes[0].inc(1);
+        removes[chunkPower].inc(1);
+        autoCommit();
+        removeNanos.record(System.nanoTime() - start);
+    }
 
-        final Integer chunkPower = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+    /**
+     * Evicts the chunk, marks it free and zeroes (or marks for zeroing) its payload per the free chunk policy. A chunk which is
+     * recycled by an arena rather than freed reads as free from here on, so removing it again is caught like any other double remove.
+     *
+     * @return the chunk's power or -1 if the chunk was already free
+     */
+    private int clearChunk(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return filer.tx(chunkFP, (fp, chunkCache, filer) -> {
             chunkCache.remove(fp, stackBuffer);
 
             filer.seek(fp);
@@ -339,25 +1512,43 @@ public class ChunkStore implements Copyable<ChunkStore> {
             if (magicNumber != cMagicNumber) {
                 throw new CorruptionException("Invalid chunkFP " + fp);
             }
-            int chunkPower1 = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            int chunkPower1 = (int) (powerAndFlags & cChunkPowerMask);
             FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-            FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
-            long chunkLength = FilerIO.chunkLength(chunkPower1); // bytes
-            // fill with zeros
-            while (chunkLength >= zerosMax.length) {
-                filer.write(zerosMax);
-                chunkLength -= zerosMax.length;
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            if (chunkLength == -1) {
+                return -1;
             }
-            while (chunkLength >= zerosMin.length) {
-                filer.write(zerosMin);
-                chunkLength -= zerosMin.length;
+            filer.seek(fp + 8 + 8 + 8);
+            FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
+            long detached = buddy ? cDetached : 0;
+            if (freeChunkPolicy == FreeChunkPolicy.ZERO_ON_REUSE) {
+                filer.seek(fp + 8);
+                FilerIO.writeLong(filer, chunkPower1 | cNeedsZero | detached, "chunkPower", stackBuffer);
+            } else {
+                zeroFill(filer, payloadLength(chunkPower1));
+                if ((powerAndFlags & cCompressed) != 0 || detached != 0) {
+                    filer.seek(fp + 8);
+                    FilerIO.writeLong(filer, chunkPower1 | detached, "chunkPower", stackBuffer);
+                }
             }
             filer.flush();
             return chunkPower1;
         });
+    }
 
+    /**
+     * Puts a chunk which is either zeroed or marked as needing zeroes onto the free lists.
+     */
+    void freeChunk(long chunkFP, int chunkPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
         filer.rootTx(chunkFP, (fp, chunkCache, filer) -> {
 
+            if (buddy) {
+                freeBuddyChunk(filer, fp, chunkPower, stackBuffer);
+                filer.flush();
+                return null;
+            }
+
             // save as free chunk
             long position = freeSeek(chunkPower);
             filer.seek(position);
@@ -369,16 +1560,389 @@ public class ChunkStore implements Copyable<ChunkStore> {
                 filer.seek(position);
                 FilerIO.writeLong(filer, fp, "free", stackBuffer);
             } else {
-                System.err.println("WARNING: Some one is removing the same chunk more than once. chunkFP:" + fp);
-                new RuntimeException().printStackTrace();
+                // already the head of its free list, linking it again would point it at itself
+                doubleRemoves.inc(1);
+                return null;
             }
             writeNextFree(filer, fp, freeFP, stackBuffer);
+            // reserved chunks which were never handed out skip clearChunk
+            FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
             filer.flush();
             return null;
         });
+    }
 
-        removes[0].inc(1);
-        removes[chunkPower].inc(1);
+    /**
+     * Starts an online compaction. Live chunks at or beyond the returned compaction's boundary should be handed to
+     * ChunkCompaction.relocate() by whoever holds their fps, and ChunkCompaction.finish() then drops the free tail of the file.
+     *
+     * @param maxBytesPerSecond caps how fast chunks are copied, zero or less for no limit
+     * @param stackBuffer
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ChunkCompaction startCompaction(long maxBytesPerSecond, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        long boundaryFP = filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            long[] freeFPs = freeChunkFPs(filer, stackBuffer);
+            long liveBytes = 0;
+            for (long chunkFP = getSkyHookFp(); chunkFP < lengthOfFile; ) {
+                long chunkBytes = chunkBytesAt(filer, chunkFP, stackBuffer);
+                if (Arrays.binarySearch(freeFPs, chunkFP) < 0) {
+                    liveBytes += chunkBytes;
+                }
+                chunkFP += chunkBytes;
+            }
+            // the smallest boundary with enough free space below it to hold everything live above it
+            long freeBytes = 0;
+            for (long chunkFP = getSkyHookFp(); chunkFP < lengthOfFile; ) {
+                if (freeBytes >= liveBytes) {
+                    return chunkFP;
+                }
+                long chunkBytes = chunkBytesAt(filer, chunkFP, stackBuffer);
+                if (Arrays.binarySearch(freeFPs, chunkFP) < 0) {
+                    liveBytes -= chunkBytes;
+                } else {
+                    freeBytes += chunkBytes;
+                }
+                chunkFP += chunkBytes;
+            }
+            return lengthOfFile;
+        });
+        return new ChunkCompaction(this, boundaryFP, maxBytesPerSecond);
+    }
+
+    /**
+     * Moves a chunk at or beyond the boundary into a free chunk of the same power below the boundary. The caller must ensure that no
+     * one else is using chunkFP and must replace every reference to chunkFP with the returned fp.
+     *
+     * @return the chunk's new fp or chunkFP if it was left in place
+     */
+    long relocate(long chunkFP, ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long boundaryFP = compaction.getBoundaryFP();
+        if (chunkFP < boundaryFP || chunkFP == getSkyHookFp()) {
+            return chunkFP;
+        }
+
+        int[] chunkPower = {-1};
+        long toFP = filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            filer.seek(chunkFP);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            if (magicNumber != cMagicNumber) {
+                throw new CorruptionException("Invalid chunkFP " + chunkFP);
+            }
+            long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            chunkPower[0] = (int) (powerAndFlags & cChunkPowerMask);
+            long reuseFP = buddy
+                ? allocateBuddyChunkBelow(filer, chunkPower[0], boundaryFP, stackBuffer)
+                : reuseChunkBelow(filer, chunkPower[0], boundaryFP, stackBuffer);
+            if (reuseFP != -1) {
+                // the payload is about to be overwritten so it doesn't matter if it needed zeroes
+                filer.seek(reuseFP + 8);
+                FilerIO.writeLong(filer, chunkPower[0] | (powerAndFlags & cCompressed), "chunkPower", stackBuffer);
+                writeChunkLength(filer, reuseFP, chunkPower[0], stackBuffer);
+                filer.flush();
+            }
+            return reuseFP;
+        });
+        if (toFP == -1) {
+            return chunkFP;
+        }
+
+        long payloadLength = payloadLength(chunkPower[0]);
+        boolean copied = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            if (chunkCache.isAcquired(fp, stackBuffer)) {
+                return false;
+            }
+            chunkCache.remove(fp, stackBuffer);
+            byte[] buffer = new byte[(int) Math.min(payloadLength, zerosMax.length)];
+            for (long offset = 0; offset < payloadLength; offset += buffer.length) {
+                int length = (int) Math.min(buffer.length, payloadLength - offset);
+                filer.seek(fp + 8 + 8 + 8 + 8 + offset);
+                filer.read(buffer, 0, length);
+                filer.seek(toFP + 8 + 8 + 8 + 8 + offset);
+                filer.write(buffer, 0, length);
+            }
+            filer.flush();
+            return true;
+        });
+        if (!copied) {
+            freeChunk(toFP, chunkPower[0], stackBuffer);
+            return chunkFP;
+        }
+
+        clearChunk(chunkFP, stackBuffer);
+        freeChunk(chunkFP, chunkPower[0], stackBuffer);
+
+        relocates[0].inc(1);
+        relocates[chunkPower[0]].inc(1);
+        compaction.relocated(payloadLength);
+        return toFP;
+    }
+
+    /**
+     * Re-encodes a cold chunk with the configured {@link ChunkCodec} into the smallest power which holds the encoded payload. Like
+     * relocate the caller must ensure that no one else is using chunkFP and must replace every reference to chunkFP with the returned
+     * fp. A compressed chunk opens and reads like any other but its filer is read only, so only compress chunks which are done being
+     * written. Chunks which are acquired, already compressed or would not move to a smaller power are left in place.
+     *
+     * @return the chunk's new fp or chunkFP if it was left in place
+     */
+    public long compress(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        checkWritable();
+        ChunkCodec codec = filer.getConfig().getChunkCodec();
+        if (codec == null) {
+            throw new IllegalStateException("No chunk codec is configured");
+        }
+        if (chunkFP == getSkyHookFp()) {
+            return chunkFP;
+        }
+
+        int[] powers = {-1, -1};
+        byte[][] encoded = {null};
+        int[] encodedLength = {-1};
+        filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            if (chunkCache.isAcquired(fp, stackBuffer)) {
+                return null;
+            }
+            filer.seek(fp);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            if (magicNumber != cMagicNumber) {
+                throw new CorruptionException("Invalid chunkFP " + fp);
+            }
+            long powerAndFlags = FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            int chunkPower = (int) (powerAndFlags & cChunkPowerMask);
+            long rawLength = payloadLength(chunkPower);
+            if ((powerAndFlags & cCompressed) != 0 || chunkPower <= minPower || rawLength > Integer.MAX_VALUE) {
+                return null;
+            }
+            byte[] raw = new byte[(int) rawLength];
+            filer.seek(fp + 8 + 8 + 8 + 8);
+            filer.read(raw, 0, raw.length);
+
+            // only worth it if the encoded payload lands at least one power lower
+            int maxEncodedLength = (int) (payloadLength(chunkPower - 1) - 4 - 4);
+            if (maxEncodedLength <= 0) {
+                return null;
+            }
+            byte[] encode = new byte[maxEncodedLength];
+            int length = codec.encode(raw, raw.length, encode, maxEncodedLength);
+            if (length >= 0 && chunkPower(4 + 4 + length) < chunkPower) {
+                powers[0] = chunkPower;
+                powers[1] = chunkPower(4 + 4 + length);
+                encoded[0] = encode;
+                encodedLength[0] = length;
+            }
+            return null;
+        });
+        if (encoded[0] == null) {
+            compressSkipped.inc(1);
+            return chunkFP;
+        }
+
+        int chunkPower = powers[0];
+        int toPower = powers[1];
+        long toFP = filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            long allocatedFP = allocateChunk(filer, toPower, stackBuffer);
+            filer.seek(0);
+            FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+            // the payload is about to be overwritten and the tail past the encoded bytes is never read
+            filer.seek(allocatedFP + 8);
+            FilerIO.writeLong(filer, toPower | cCompressed, "chunkPower", stackBuffer);
+            writeChunkLength(filer, allocatedFP, toPower, stackBuffer);
+            filer.flush();
+            return allocatedFP;
+        });
+
+        boolean written = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            if (chunkCache.isAcquired(fp, stackBuffer)) {
+                return false;
+            }
+            chunkCache.remove(fp, stackBuffer);
+            filer.seek(toFP + 8 + 8 + 8 + 8);
+            FilerIO.writeInt(filer, (int) payloadLength(chunkPower), "rawLength", stackBuffer);
+            FilerIO.writeInt(filer, encodedLength[0], "encodedLength", stackBuffer);
+            filer.write(encoded[0], 0, encodedLength[0]);
+            filer.flush();
+            return true;
+        });
+        if (!written) {
+            clearChunk(toFP, stackBuffer);
+            freeChunk(toFP, toPower, stackBuffer);
+            compressSkipped.inc(1);
+            return chunkFP;
+        }
+
+        clearChunk(chunkFP, stackBuffer);
+        freeChunk(chunkFP, chunkPower, stackBuffer);
+        autoCommit();
+
+        compressedChunks.inc(1);
+        compressedBytesSaved.inc(chunkBytes(chunkPower) - chunkBytes(toPower));
+        return toFP;
+    }
+
+    /**
+     * Drops the run of free chunks at the end of the file and shrinks the backing filer to match. When the ByteBufferFactory cannot
+     * truncate, as memory mapped files never do because older mappings of the tail would fault, the tail is only dropped from the free
+     * lists and zeroed, and later chunks are appended over it.
+     *
+     * @return the number of bytes reclaimed
+     */
+    long truncate(StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            long[] freeFPs = freeChunkFPs(filer, stackBuffer);
+            long tailFP = -1;
+            for (long chunkFP = getSkyHookFp(); chunkFP < lengthOfFile; ) {
+                if (Arrays.binarySearch(freeFPs, chunkFP) < 0) {
+                    tailFP = -1;
+                } else if (tailFP == -1) {
+                    tailFP = chunkFP;
+                }
+                chunkFP += chunkBytesAt(filer, chunkFP, stackBuffer);
+            }
+            if (tailFP == -1) {
+                return 0L;
+            }
+
+            for (int power = minPower; power < (buddy ? cMaxBuddyPower + 1 : 64); power++) {
+                long prevFP = -1;
+                filer.seek(freeSeek(power));
+                long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+                while (freeFP != -1) {
+                    long nextFP = readNextFree(filer, freeFP, stackBuffer);
+                    if (freeFP < tailFP) {
+                        prevFP = freeFP;
+                    } else if (buddy) {
+                        unlinkBuddy(filer, freeFP, power, stackBuffer);
+                    } else if (prevFP == -1) {
+                        filer.seek(freeSeek(power));
+                        FilerIO.writeLong(filer, nextFP, "free", stackBuffer);
+                    } else {
+                        writeNextFree(filer, prevFP, nextFP, stackBuffer);
+                    }
+                    freeFP = nextFP;
+                }
+            }
+
+            long reclaimed = lengthOfFile - tailFP;
+            lengthOfFile = tailFP;
+            filer.seek(0);
+            FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+            filer.flush();
+            if (this.filer.truncate(lengthOfFile)) {
+                truncatedBytes.inc(reclaimed);
+            } else {
+                // appended chunks are not zeroed, so don't leave payloads which were removed under ZERO_ON_REUSE behind
+                filer.seek(lengthOfFile);
+                zeroFill(filer, reclaimed);
+                filer.flush();
+                truncateSkipped.inc(1);
+            }
+            return reclaimed;
+        });
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     *
+     * @return the sorted fps of every chunk on the free lists
+     */
+    private long[] freeChunkFPs(Filer filer, StackBuffer stackBuffer) throws IOException {
+        long[] freeFPs = new long[16];
+        int count = 0;
+        for (int power = minPower; power < (buddy ? cMaxBuddyPower + 1 : 64); power++) {
+            filer.seek(freeSeek(power));
+            long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+            while (freeFP != -1) {
+                if (count == freeFPs.length) {
+                    freeFPs = Arrays.copyOf(freeFPs, count * 2);
+                }
+                freeFPs[count++] = freeFP;
+                freeFP = readNextFree(filer, freeFP, stackBuffer);
+            }
+        }
+        freeFPs = Arrays.copyOf(freeFPs, count);
+        Arrays.sort(freeFPs);
+        return freeFPs;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long chunkBytesAt(Filer filer, long chunkFP, StackBuffer stackBuffer) throws IOException {
+        filer.seek(chunkFP);
+        long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+        if (magicNumber != cMagicNumber) {
+            throw new CorruptionException("Invalid chunkFP " + chunkFP);
+        }
+        return chunkBytes(FilerIO.readLong(filer, "chunkPower", stackBuffer));
+    }
+
+    private long chunkBytes(long powerAndFlags) {
+        long chunkLength = FilerIO.chunkLength((int) (powerAndFlags & cChunkPowerMask));
+        return buddy ? chunkLength : chunkLength + 8 + 8 + 8 + 8;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long reuseChunkBelow(Filer filer, int chunkPower, long boundaryFP, StackBuffer stackBuffer) throws IOException {
+        long position = freeSeek(chunkPower);
+        long prevFP = -1;
+        filer.seek(position);
+        long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+        while (freeFP != -1) {
+            long nextFP = readNextFree(filer, freeFP, stackBuffer);
+            if (freeFP + chunkBytes(chunkPower) <= boundaryFP) {
+                if (prevFP == -1) {
+                    filer.seek(position);
+                    FilerIO.writeLong(filer, nextFP, "free", stackBuffer);
+                } else {
+                    writeNextFree(filer, prevFP, nextFP, stackBuffer);
+                }
+                return freeFP;
+            }
+            prevFP = freeFP;
+            freeFP = nextFP;
+        }
+        return -1;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private long allocateBuddyChunkBelow(Filer filer, int chunkPower, long boundaryFP, StackBuffer stackBuffer) throws IOException {
+        for (int power = chunkPower; power <= cMaxBuddyPower; power++) {
+            filer.seek(freeSeek(power));
+            long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+            while (freeFP != -1) {
+                if (freeFP + FilerIO.chunkLength(chunkPower) <= boundaryFP) {
+                    unlinkBuddy(filer, freeFP, power, stackBuffer);
+                    return carveBuddyChunk(filer, freeFP, power, chunkPower, stackBuffer);
+                }
+                freeFP = readNextFree(filer, freeFP, stackBuffer);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Synchronize externally on filer.lock()
+     */
+    private void zeroFill(Filer filer, long length) throws IOException {
+        while (length >= zerosMax.length) {
+            filer.write(zerosMax);
+            length -= zerosMax.length;
+        }
+        while (length >= zerosMin.length) {
+            filer.write(zerosMin);
+            length -= zerosMin.length;
+        }
+        if (length > 0) {
+            filer.write(zerosMax, 0, (int) length);
+        }
     }
 
     private long freeSeek(long _chunkPower) {
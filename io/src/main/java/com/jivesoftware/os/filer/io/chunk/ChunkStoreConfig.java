@@ -0,0 +1,420 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
+import java.nio.file.Path;
+
+/**
+ * How a ChunkStore stripes its filer and bounds the chunks each stripe keeps open. None of this is persisted so it may change
+ * between opens, except buddyAllocation which is only honored when the store is created and segmentSize and chunkCodec which must not
+ * change.
+ *
+ * @author jonathan.colt
+ */
+final public class ChunkStoreConfig {
+
+    private static final int MIN_ADAPTIVE_STRIPES = 8;
+    private static final int MAX_ADAPTIVE_STRIPES = 1024;
+
+    final private int numberOfStripes;
+    final private int initialChunksPerStripe;
+    final private int maxChunksPerStripe;
+    final private boolean readOptimized;
+    final private int contentionSampleRate;
+    final private boolean buddyAllocation;
+    final private long dirtyPageSize;
+    final private Durability durability;
+    final private long groupCommitMaxDelayMillis;
+    final private long groupCommitMaxUnflushedBytes;
+    final private Path hotChunkManifest;
+    final private long hotChunkManifestIntervalMillis;
+    final private int hotChunkManifestMaxChunks;
+    final private int warmUpParallelism;
+    final private int prefetchParallelism;
+    final private boolean readOnly;
+    final private long segmentSize;
+    final private ChunkCodec chunkCodec;
+
+    private ChunkStoreConfig(int numberOfStripes,
+        int initialChunksPerStripe,
+        int maxChunksPerStripe,
+        boolean readOptimized,
+        int contentionSampleRate,
+        boolean buddyAllocation,
+        long dirtyPageSize,
+        Durability durability,
+        long groupCommitMaxDelayMillis,
+        long groupCommitMaxUnflushedBytes,
+        Path hotChunkManifest,
+        long hotChunkManifestIntervalMillis,
+        int hotChunkManifestMaxChunks,
+        int warmUpParallelism,
+        int prefetchParallelism,
+        boolean readOnly,
+        long segmentSize,
+        ChunkCodec chunkCodec) {
+        this.numberOfStripes = numberOfStripes;
+        this.initialChunksPerStripe = initialChunksPerStripe;
+        this.maxChunksPerStripe = maxChunksPerStripe;
+        this.readOptimized = readOptimized;
+        this.contentionSampleRate = contentionSampleRate;
+        this.buddyAllocation = buddyAllocation;
+        this.dirtyPageSize = dirtyPageSize;
+        this.durability = durability;
+        this.groupCommitMaxDelayMillis = groupCommitMaxDelayMillis;
+        this.groupCommitMaxUnflushedBytes = groupCommitMaxUnflushedBytes;
+        this.hotChunkManifest = hotChunkManifest;
+        this.hotChunkManifestIntervalMillis = hotChunkManifestIntervalMillis;
+        this.hotChunkManifestMaxChunks = hotChunkManifestMaxChunks;
+        this.warmUpParallelism = warmUpParallelism;
+        this.prefetchParallelism = prefetchParallelism;
+        this.readOnly = readOnly;
+        this.segmentSize = segmentSize;
+        this.chunkCodec = chunkCodec;
+    }
+
+    public int getNumberOfStripes() {
+        return numberOfStripes;
+    }
+
+    public int getInitialChunksPerStripe() {
+        return initialChunksPerStripe;
+    }
+
+    public int getMaxChunksPerStripe() {
+        return maxChunksPerStripe;
+    }
+
+    public boolean isReadOptimized() {
+        return readOptimized;
+    }
+
+    public int getContentionSampleRate() {
+        return contentionSampleRate;
+    }
+
+    public boolean isBuddyAllocation() {
+        return buddyAllocation;
+    }
+
+    public long getDirtyPageSize() {
+        return dirtyPageSize;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getGroupCommitMaxDelayMillis() {
+        return groupCommitMaxDelayMillis;
+    }
+
+    public long getGroupCommitMaxUnflushedBytes() {
+        return groupCommitMaxUnflushedBytes;
+    }
+
+    public Path getHotChunkManifest() {
+        return hotChunkManifest;
+    }
+
+    public long getHotChunkManifestIntervalMillis() {
+        return hotChunkManifestIntervalMillis;
+    }
+
+    public int getHotChunkManifestMaxChunks() {
+        return hotChunkManifestMaxChunks;
+    }
+
+    public int getWarmUpParallelism() {
+        return warmUpParallelism;
+    }
+
+    public int getPrefetchParallelism() {
+        return prefetchParallelism;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public ChunkCodec getChunkCodec() {
+        return chunkCodec;
+    }
+
+    /**
+     * Four stripes per available processor rounded up to a power of two, so a store is striped for the box it runs on.
+     */
+    public static int adaptiveNumberOfStripes() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        return Math.max(MIN_ADAPTIVE_STRIPES, Math.min(MAX_ADAPTIVE_STRIPES, stripes));
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static Builder newBuilder(ChunkStoreConfig config) {
+        return new Builder(config);
+    }
+
+    final public static class Builder {
+
+        private int numberOfStripes = 0;
+        private int initialChunksPerStripe = 2;
+        private int maxChunksPerStripe = Integer.MAX_VALUE;
+        private boolean readOptimized = false;
+        private int contentionSampleRate = 0;
+        private boolean buddyAllocation = false;
+        private long dirtyPageSize = 0;
+        private Durability durability = Durability.NONE;
+        private long groupCommitMaxDelayMillis = 10;
+        private long groupCommitMaxUnflushedBytes = 64 * 1024 * 1024;
+        private Path hotChunkManifest = null;
+        private long hotChunkManifestIntervalMillis = 60_000;
+        private int hotChunkManifestMaxChunks = 10_000;
+        private int warmUpParallelism = 0;
+        private int prefetchParallelism = 2;
+        private boolean readOnly = false;
+        private long segmentSize = AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE;
+        private ChunkCodec chunkCodec = null;
+
+        private Builder() {
+        }
+
+        private Builder(ChunkStoreConfig config) {
+            this.numberOfStripes = config.getNumberOfStripes();
+            this.initialChunksPerStripe = config.getInitialChunksPerStripe();
+            this.maxChunksPerStripe = config.getMaxChunksPerStripe();
+            this.readOptimized = config.isReadOptimized();
+            this.contentionSampleRate = config.getContentionSampleRate();
+            this.buddyAllocation = config.isBuddyAllocation();
+            this.dirtyPageSize = config.getDirtyPageSize();
+            this.durability = config.getDurability();
+            this.groupCommitMaxDelayMillis = config.getGroupCommitMaxDelayMillis();
+            this.groupCommitMaxUnflushedBytes = config.getGroupCommitMaxUnflushedBytes();
+            this.hotChunkManifest = config.getHotChunkManifest();
+            this.hotChunkManifestIntervalMillis = config.getHotChunkManifestIntervalMillis();
+            this.hotChunkManifestMaxChunks = config.getHotChunkManifestMaxChunks();
+            this.warmUpParallelism = config.getWarmUpParallelism();
+            this.prefetchParallelism = config.getPrefetchParallelism();
+            this.readOnly = config.isReadOnly();
+            this.segmentSize = config.getSegmentSize();
+            this.chunkCodec = config.getChunkCodec();
+        }
+
+        /**
+         * @param numberOfStripes 0 picks {@link ChunkStoreConfig#adaptiveNumberOfStripes()}
+         */
+        public Builder setNumberOfStripes(int numberOfStripes) {
+            this.numberOfStripes = numberOfStripes;
+            return this;
+        }
+
+        public Builder setInitialChunksPerStripe(int initialChunksPerStripe) {
+            this.initialChunksPerStripe = initialChunksPerStripe;
+            return this;
+        }
+
+        /**
+         * Unacquired chunks past this bound are evicted and reopened on their next use, see {@link ChunkCache}.
+         */
+        public Builder setMaxChunksPerStripe(int maxChunksPerStripe) {
+            this.maxChunksPerStripe = maxChunksPerStripe;
+            return this;
+        }
+
+        /**
+         * Acquire cached chunks under an optimistic read stamp instead of the stripe monitor, see {@link StripedFiler#optimisticTx}.
+         */
+        public Builder setReadOptimized(boolean readOptimized) {
+            this.readOptimized = readOptimized;
+            return this;
+        }
+
+        /**
+         * @param contentionSampleRate time the stripe monitor wait and hold for roughly 1 in contentionSampleRate txs, 0 disables sampling
+         */
+        public Builder setContentionSampleRate(int contentionSampleRate) {
+            this.contentionSampleRate = contentionSampleRate;
+            return this;
+        }
+
+        public Builder setBuddyAllocation(boolean buddyAllocation) {
+            this.buddyAllocation = buddyAllocation;
+            return this;
+        }
+
+        /**
+         * @param dirtyPageSize power of 2 granularity at which writes are tracked for {@link ChunkStore#incrementalSnapshot}, 0 disables
+         * tracking
+         */
+        public Builder setDirtyPageSize(long dirtyPageSize) {
+            this.dirtyPageSize = dirtyPageSize;
+            return this;
+        }
+
+        public Builder setDurability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * @param groupCommitMaxDelayMillis longest a committer waits for the flusher to start a pass
+         */
+        public Builder setGroupCommitMaxDelayMillis(long groupCommitMaxDelayMillis) {
+            this.groupCommitMaxDelayMillis = groupCommitMaxDelayMillis;
+            return this;
+        }
+
+        /**
+         * @param groupCommitMaxUnflushedBytes bytes written after which the flusher starts a pass without waiting out the delay, 0 only
+         * flushes on the delay
+         */
+        public Builder setGroupCommitMaxUnflushedBytes(long groupCommitMaxUnflushedBytes) {
+            this.groupCommitMaxUnflushedBytes = groupCommitMaxUnflushedBytes;
+            return this;
+        }
+
+        /**
+         * @param hotChunkManifest where the store periodically records its hottest chunks, see
+         * {@link ChunkStore#saveHotChunks(Path, int)}. Null records nothing.
+         */
+        public Builder setHotChunkManifest(Path hotChunkManifest) {
+            this.hotChunkManifest = hotChunkManifest;
+            return this;
+        }
+
+        /**
+         * @param hotChunkManifestIntervalMillis time between recordings, 0 only records when the store is closed
+         */
+        public Builder setHotChunkManifestIntervalMillis(long hotChunkManifestIntervalMillis) {
+            this.hotChunkManifestIntervalMillis = hotChunkManifestIntervalMillis;
+            return this;
+        }
+
+        public Builder setHotChunkManifestMaxChunks(int hotChunkManifestMaxChunks) {
+            this.hotChunkManifestMaxChunks = hotChunkManifestMaxChunks;
+            return this;
+        }
+
+        /**
+         * @param warmUpParallelism threads which pre-touch the recorded hot chunks in the background when an existing store is opened,
+         * 0 skips the warm up. Monkeys can only be pre-opened by calling {@link ChunkStore#startWarmUp} with an opener.
+         */
+        public Builder setWarmUpParallelism(int warmUpParallelism) {
+            this.warmUpParallelism = warmUpParallelism;
+            return this;
+        }
+
+        /**
+         * @param prefetchParallelism threads which carry out {@link ChunkStore#prefetch} advice in the background, started on first use.
+         * 0 ignores the advice.
+         */
+        public Builder setPrefetchParallelism(int prefetchParallelism) {
+            this.prefetchParallelism = prefetchParallelism;
+            return this;
+        }
+
+        /**
+         * A read only store rejects every allocation and removal and is always read optimized, see
+         * {@link ChunkStore#reopen}. Requires {@link Durability#NONE}.
+         */
+        public Builder setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * @param segmentSize power of 2 size of the segment files of a file backed store, at most
+         * {@link AutoGrowingByteBufferBackedFiler#MAX_BUFFER_SEGMENT_SIZE}. Unlike the rest of the config this is the file layout, so an
+         * existing store must be opened with the segment size it was created with.
+         */
+        public Builder setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param chunkCodec encodes the chunks passed to {@link ChunkStore#compress} and decodes them on read. Null leaves compress
+         * unsupported. Like segmentSize this must not change while the store holds compressed chunks.
+         */
+        public Builder setChunkCodec(ChunkCodec chunkCodec) {
+            this.chunkCodec = chunkCodec;
+            return this;
+        }
+
+        public ChunkStoreConfig build() {
+            if (numberOfStripes < 0) {
+                throw new IllegalArgumentException("numberOfStripes must not be negative: " + numberOfStripes);
+            }
+            if (initialChunksPerStripe < 1 || maxChunksPerStripe < 1) {
+                throw new IllegalArgumentException("chunks per stripe must be positive: initial=" + initialChunksPerStripe
+                    + " max=" + maxChunksPerStripe);
+            }
+            if (contentionSampleRate < 0) {
+                throw new IllegalArgumentException("contentionSampleRate must not be negative: " + contentionSampleRate);
+            }
+            if (dirtyPageSize < 0 || (dirtyPageSize & (dirtyPageSize - 1)) != 0) {
+                throw new IllegalArgumentException("dirtyPageSize must be 0 or a power of 2: " + dirtyPageSize);
+            }
+            if (durability == null) {
+                throw new IllegalArgumentException("durability is required");
+            }
+            if (groupCommitMaxDelayMillis < 1 || groupCommitMaxUnflushedBytes < 0) {
+                throw new IllegalArgumentException("invalid group commit budget: maxDelayMillis=" + groupCommitMaxDelayMillis
+                    + " maxUnflushedBytes=" + groupCommitMaxUnflushedBytes);
+            }
+            if (hotChunkManifestIntervalMillis < 0 || hotChunkManifestMaxChunks < 1 || warmUpParallelism < 0) {
+                throw new IllegalArgumentException("invalid hot chunk manifest: intervalMillis=" + hotChunkManifestIntervalMillis
+                    + " maxChunks=" + hotChunkManifestMaxChunks + " warmUpParallelism=" + warmUpParallelism);
+            }
+            if (prefetchParallelism < 0) {
+                throw new IllegalArgumentException("prefetchParallelism must not be negative: " + prefetchParallelism);
+            }
+            if (segmentSize < 1 || segmentSize > AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE
+                || (segmentSize & (segmentSize - 1)) != 0) {
+                throw new IllegalArgumentException("segmentSize must be a power of 2 no larger than "
+                    + AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE + ": " + segmentSize);
+            }
+            if (readOnly && durability != Durability.NONE) {
+                throw new IllegalArgumentException("a read only store has nothing to commit: durability=" + durability);
+            }
+            return new ChunkStoreConfig(numberOfStripes == 0 ? adaptiveNumberOfStripes() : numberOfStripes,
+                initialChunksPerStripe,
+                maxChunksPerStripe,
+                readOptimized || readOnly,
+                contentionSampleRate,
+                buddyAllocation,
+                dirtyPageSize,
+                durability,
+                groupCommitMaxDelayMillis,
+                groupCommitMaxUnflushedBytes,
+                hotChunkManifest,
+                hotChunkManifestIntervalMillis,
+                hotChunkManifestMaxChunks,
+                warmUpParallelism,
+                prefetchParallelism,
+                readOnly,
+                segmentSize,
+                chunkCodec);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate (no zlib header or checksum) using the JDK's Deflater and Inflater, which are created per call and ended straight
+ * away since cold chunks are encoded rarely and decoded only on the reads that miss them.
+ *
+ * @author jonathan.colt
+ */
+public class DeflaterChunkCodec implements ChunkCodec {
+
+    private final int level;
+
+    public DeflaterChunkCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level {@link Deflater#BEST_SPEED} through {@link Deflater#BEST_COMPRESSION} or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflaterChunkCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int encode(byte[] raw, int rawLength, byte[] encoded, int encodedLength) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < encodedLength) {
+                length += deflater.deflate(encoded, length, encodedLength - length);
+            }
+            return deflater.finished() ? length : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decode(byte[] encoded, int encodedLength, byte[] raw, int rawLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(encoded, 0, encodedLength);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Expected " + rawLength + " decoded bytes but only got " + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Failed to decode chunk", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+/**
+ * When the writes to a memory mapped ChunkStore are forced to storage.
+ *
+ * @author jonathan.colt
+ */
+public enum Durability {
+
+    /**
+     * Nothing is forced unless ChunkStore.commit() is called, which then forces every segment synchronously. The OS writes dirty
+     * pages back whenever it likes, so a crash can lose any amount of data.
+     */
+    NONE,
+    /**
+     * A background flusher forces the segments written since its last pass once the group commit delay or byte budget is reached.
+     * Nothing waits for it unless ChunkStore.commit() is called.
+     */
+    ASYNC,
+    /**
+     * Like ASYNC but newChunk, newChunks and remove also wait for the flusher, so once they return the allocation is durable.
+     * Committers which arrive during the same delay share one force.
+     */
+    GROUP_COMMIT
+}
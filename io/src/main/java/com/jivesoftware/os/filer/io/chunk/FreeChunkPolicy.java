@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+/**
+ * How a ChunkStore guarantees that a newly created chunk has a zeroed payload.
+ *
+ * @author jonathan.colt
+ */
+public enum FreeChunkPolicy {
+
+    /**
+     * Payloads are zeroed by remove() while it holds the chunk's stripe lock.
+     */
+    ZERO_ON_REMOVE,
+    /**
+     * remove() only marks the chunk header as needing zeroes and the payload is zeroed when the chunk is handed out again. Chunks
+     * which are never reused are never rewritten so their pages are never dirtied.
+     */
+    ZERO_ON_REUSE
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.DirtyPages;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One daemon thread which forces the segments written since its last pass, every maxDelayMillis or as soon as maxUnflushedBytes have
+ * been written, and then wakes every committer which was waiting on that pass at once.
+ *
+ * @author jonathan.colt
+ */
+public class GroupCommit {
+
+    private static final ChunkMetrics.ChunkMetric flushes = ChunkMetrics.get("ChunkStore", "total", "groupCommitFlush");
+    private static final ChunkMetrics.ChunkMetric forcedSegments = ChunkMetrics.get("ChunkStore", "total", "groupCommitForcedSegments");
+    private static final ChunkMetrics.ChunkMetric commits = ChunkMetrics.get("ChunkStore", "total", "groupCommitCommits");
+    private static final AtomicInteger flusherIds = new AtomicInteger();
+
+    private final AutoGrowingByteBufferBackedFiler root;
+    private final long maxDelayMillis;
+    private final DirtyPages unflushedSegments;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Thread flusher;
+
+    private volatile long durableEpoch = -1;
+    private volatile boolean running = true;
+    private Throwable failure;
+
+    /**
+     * Tracks the root and every duplicate made after this call, so construct before the root is striped.
+     */
+    public GroupCommit(AutoGrowingByteBufferBackedFiler root, long maxDelayMillis, long maxUnflushedBytes) {
+        this.root = root;
+        this.maxDelayMillis = maxDelayMillis;
+        this.unflushedSegments = new DirtyPages(root.getMaxBufferSegmentSize(), maxUnflushedBytes, this::requestFlush);
+        root.trackUnflushedPages(unflushedSegments);
+        this.flusher = new Thread(this::run, "chunk-store-group-commit-" + flusherIds.incrementAndGet());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Blocks until everything written before this call has been forced.
+     */
+    public void commit() throws IOException, InterruptedException {
+        long epoch = unflushedSegments.getEpoch();
+        commits.inc(1);
+        synchronized (this) {
+            while (true) {
+                if (failure != null) {
+                    // a failed pass is never retried for the pages it covered
+                    throw new IOException("Group commit failed", failure);
+                }
+                if (durableEpoch >= epoch) {
+                    return;
+                }
+                if (!running) {
+                    throw new IOException("Group commit was stopped");
+                }
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Forces once more and stops the flusher, later commits fail.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        requestFlush();
+        flusher.join();
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void run() {
+        boolean stopping = false;
+        while (!stopping) {
+            stopping = !running;
+            try {
+                if (!stopping) {
+                    synchronized (this) {
+                        if (!flushRequested.get()) {
+                            wait(maxDelayMillis);
+                        }
+                    }
+                }
+                flushRequested.set(false);
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopping = true;
+            } catch (Throwable t) {
+                synchronized (this) {
+                    failure = t;
+                    notifyAll();
+                }
+            }
+        }
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+    }
+
+    private void flush() throws IOException {
+        // pages are stamped with the epoch which is current after the stamp lands, so every write stamped generation is visible below
+        long generation = unflushedSegments.getEpoch();
+        unflushedSegments.advance();
+        unflushedSegments.drainMarkedBytes();
+
+        long segmentSize = root.getMaxBufferSegmentSize();
+        long length;
+        synchronized (root) {
+            length = root.length();
+        }
+        for (long fp = 0; fp < length; fp += segmentSize) {
+            if (unflushedSegments.isDirty(fp, generation)) {
+                root.force(fp, segmentSize);
+                forcedSegments.inc(1);
+            }
+        }
+        flushes.inc(1);
+        synchronized (this) {
+            durableEpoch = generation;
+            notifyAll();
+        }
+    }
+}
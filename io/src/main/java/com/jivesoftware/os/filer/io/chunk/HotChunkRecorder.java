@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One daemon thread which records a store's hottest chunks to its manifest every intervalMillis and once more when stopped. A failed
+ * recording is counted and tried again on the next interval, the manifest on disk is only ever replaced whole.
+ *
+ * @author jonathan.colt
+ */
+public class HotChunkRecorder {
+
+    private static final ChunkMetrics.ChunkMetric recordings = ChunkMetrics.get("ChunkStore", "total", "hotChunkRecordings");
+    private static final ChunkMetrics.ChunkMetric recordingFailures = ChunkMetrics.get("ChunkStore", "total", "hotChunkRecordingFailures");
+    private static final AtomicInteger recorderIds = new AtomicInteger();
+
+    private final ChunkStore chunkStore;
+    private final Path manifest;
+    private final long intervalMillis;
+    private final int maxChunks;
+    private final Thread recorder;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param intervalMillis 0 only records when stopped
+     */
+    public HotChunkRecorder(ChunkStore chunkStore, Path manifest, long intervalMillis, int maxChunks) {
+        this.chunkStore = chunkStore;
+        this.manifest = manifest;
+        this.intervalMillis = intervalMillis;
+        this.maxChunks = maxChunks;
+        this.recorder = new Thread(this::run, "chunk-store-hot-chunk-recorder-" + recorderIds.incrementAndGet());
+        this.recorder.setDaemon(true);
+        this.recorder.start();
+    }
+
+    /**
+     * Records once more and stops the recorder.
+     */
+    public void stop() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        recorder.join();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                synchronized (this) {
+                    if (running) {
+                        wait(intervalMillis);
+                    }
+                }
+                if (running && intervalMillis > 0) {
+                    record();
+                }
+            }
+            record();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record() throws InterruptedException {
+        try {
+            chunkStore.saveHotChunks(manifest, maxChunks);
+            recordings.inc(1);
+        } catch (IOException e) {
+            recordingFailures.inc(1);
+        }
+    }
+}
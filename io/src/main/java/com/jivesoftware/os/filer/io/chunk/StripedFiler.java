@@ -16,35 +16,126 @@
 package com.jivesoftware.os.filer.io.chunk;
 
 import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
-import com.jivesoftware.os.filer.io.ByteBufferFactory;
-import com.jivesoftware.os.filer.io.FilerIO;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 /**
+ * Every stripe is guarded by a monitor. Read optimized stripes additionally carry a StampedLock which only the (outermost) holder of
+ * the monitor write locks, so cache hits can acquire a chunk under an optimistic read stamp without entering the monitor.
+ * Read only stripes are always read optimized, so once a chunk is cached every execute against it skips the monitor.
+ *
  * @author jonathan.colt
  */
 public class StripedFiler {
 
+    private static final ChunkMetrics.ChunkMetric stripeSamples = ChunkMetrics.get("ChunkStore", "total", "stripeSamples");
+    private static final ChunkMetrics.ChunkMetric stripeWaitNanos = ChunkMetrics.get("ChunkStore", "total", "stripeWaitNanos");
+    private static final ChunkMetrics.ChunkMetric stripeHoldNanos = ChunkMetrics.get("ChunkStore", "total", "stripeHoldNanos");
+
+    private final ChunkStoreConfig config;
     private final AutoGrowingByteBufferBackedFiler root;
     private final Object[] locks;
     private final AutoGrowingByteBufferBackedFiler[] stripes;
-    private final byte[] name;
-    private final ByteBufferFactory bufferFactory;
     private final ChunkCache[] stripesChunkCaches;
+    private final int initialChunksPerStripe;
+    private final int maxChunksPerStripe;
+    private final StampedLock[] stamps; // null unless read optimized
+    private final int[] writeDepths;
+    private final int contentionSampleRate;
+    private final StripeContention[] contention; // null unless sampled
+    private final Durability durability;
+    private final GroupCommit groupCommit; // null unless durability is not NONE
 
     public StripedFiler(AutoGrowingByteBufferBackedFiler root,
-        byte[] name,
-        ByteBufferFactory bufferFactory,
         int numberOfStripes) {
+        this(root, ChunkStoreConfig.newBuilder().setNumberOfStripes(numberOfStripes).build());
+    }
+
+    public StripedFiler(AutoGrowingByteBufferBackedFiler root,
+        ChunkStoreConfig config) {
+        int numberOfStripes = config.getNumberOfStripes();
+        this.config = config;
         this.root = root;
-        this.name = name;
-        this.bufferFactory = bufferFactory;
+        if (config.getDirtyPageSize() > 0 && root.getDirtyPages() == null) {
+            root.trackDirtyPages(config.getDirtyPageSize());
+        }
+        this.durability = config.getDurability();
+        this.groupCommit = (durability == Durability.NONE) ? null
+            : new GroupCommit(root, config.getGroupCommitMaxDelayMillis(), config.getGroupCommitMaxUnflushedBytes());
+        this.initialChunksPerStripe = config.getInitialChunksPerStripe();
+        this.maxChunksPerStripe = config.getMaxChunksPerStripe();
         this.locks = new Object[numberOfStripes];
         for (int i = 0; i < locks.length; i++) {
             locks[i] = new Object();
         }
         this.stripes = new AutoGrowingByteBufferBackedFiler[numberOfStripes];
         this.stripesChunkCaches = new ChunkCache[numberOfStripes];
+        if (config.isReadOptimized()) {
+            this.stamps = new StampedLock[numberOfStripes];
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = new StampedLock();
+            }
+            this.writeDepths = new int[numberOfStripes];
+        } else {
+            this.stamps = null;
+            this.writeDepths = null;
+        }
+        this.contentionSampleRate = config.getContentionSampleRate();
+        if (contentionSampleRate > 0) {
+            this.contention = new StripeContention[numberOfStripes];
+            for (int i = 0; i < contention.length; i++) {
+                contention[i] = new StripeContention(i);
+            }
+        } else {
+            this.contention = null;
+        }
+    }
+
+    public ChunkStoreConfig getConfig() {
+        return config;
+    }
+
+    public int getNumberOfStripes() {
+        return locks.length;
+    }
+
+    public boolean isReadOptimized() {
+        return stamps != null;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Blocks until everything written before this call is forced to storage. Without a group commit flusher every segment is forced
+     * by the calling thread.
+     */
+    public void commit() throws IOException, InterruptedException {
+        if (config.isReadOnly()) {
+            return;
+        }
+        if (groupCommit != null) {
+            groupCommit.commit();
+        } else {
+            long length;
+            synchronized (root) {
+                length = root.length();
+            }
+            root.force(0, length);
+        }
+    }
+
+    /**
+     * Stops the group commit flusher after a final pass, if there is one.
+     */
+    public void close() throws InterruptedException {
+        if (groupCommit != null) {
+            groupCommit.stop();
+        }
     }
 
     public long length() throws IOException {
@@ -67,16 +158,233 @@ public class StripedFiler {
         return (int) (seed >>> (48 - 32));
     }
 
+    private int stripe(long fp) {
+        return Math.abs(hashFP(fp) % stripes.length);
+    }
+
     public <R> R tx(long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
-        int stripe = Math.abs(hashFP(fp) % stripes.length);
+        int stripe = stripe(fp);
+        if (contention != null && ThreadLocalRandom.current().nextInt(contentionSampleRate) == 0) {
+            long start = System.nanoTime();
+            synchronized (locks[stripe]) {
+                long acquired = System.nanoTime();
+                try {
+                    return lockedTx(stripe, fp, stripeTx);
+                } finally {
+                    contention[stripe].sample(acquired - start, System.nanoTime() - acquired);
+                }
+            }
+        }
         synchronized (locks[stripe]) {
+            return lockedTx(stripe, fp, stripeTx);
+        }
+    }
+
+    /** Synchronize externally on locks[stripe] */
+    private <R> R lockedTx(int stripe, long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
+        long stamp = writeStamp(stripe);
+        try {
             if (stripes[stripe] == null) {
+                // stripes pick up the root's growth from the shared segment directory, they are only replaced after a truncate
                 stripes[stripe] = root.duplicateAll();
-                stripesChunkCaches[stripe] = new ChunkCache(join(name, FilerIO.intBytes(stripe)), bufferFactory);
-            } else if (root.length() > stripes[stripe].length()) {
-                stripes[stripe] = root.duplicateNew(stripes[stripe]);
+                if (stripesChunkCaches[stripe] == null) {
+                    stripesChunkCaches[stripe] = new ChunkCache(initialChunksPerStripe, maxChunksPerStripe);
+                }
             }
             return stripeTx.tx(fp, stripesChunkCaches[stripe], stripes[stripe]);
+        } finally {
+            unlockWriteStamp(stripe, stamp);
+        }
+    }
+
+    /**
+     * Runs stripeTx against every stripe which has been used, one at a time holding that stripe's lock.
+     */
+    public void eachStripeTx(StripeTx<Void> stripeTx) throws IOException, InterruptedException {
+        for (int stripe = 0; stripe < locks.length; stripe++) {
+            synchronized (locks[stripe]) {
+                if (stripesChunkCaches[stripe] != null) {
+                    long stamp = writeStamp(stripe);
+                    try {
+                        stripeTx.tx(-1L, stripesChunkCaches[stripe], stripes[stripe]);
+                    } finally {
+                        unlockWriteStamp(stripe, stamp);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Faults in the pages of [fp, fp + length) without taking any lock, see {@link AutoGrowingByteBufferBackedFiler#touch}.
+     */
+    public long touch(long fp, long length) {
+        return root.touch(fp, length);
+    }
+
+    /**
+     * @return the sampled wait and hold times of every stripe's monitor, empty unless the config set a contentionSampleRate.
+     */
+    public StripeContention[] getStripeContention() {
+        return contention == null ? new StripeContention[0] : contention.clone();
+    }
+
+    /**
+     * Cache hit path for read optimized stripes. Acquires the cached chunk under an optimistic read stamp and hands it to optimisticTx
+     * with the stripe's filer, which stays valid for the acquired chunk even if a writer replaces it afterwards. The filer is only
+     * duplicated from, and duplicates read the root's current segments from the shared directory.
+     *
+     * @return null when the stripe is not read optimized, the chunk is not cached or a writer raced the lookup, callers then fall back to
+     * tx.
+     */
+    public <R> R optimisticTx(long fp, OptimisticTx<R> optimisticTx) throws IOException, InterruptedException {
+        if (stamps == null) {
+            return null;
+        }
+        int stripe = stripe(fp);
+        StampedLock lock = stamps[stripe];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp == 0) {
+            return null;
+        }
+        ChunkCache chunkCache = stripesChunkCaches[stripe];
+        AutoGrowingByteBufferBackedFiler filer = stripes[stripe];
+        if (chunkCache == null || filer == null) {
+            return null;
+        }
+        Chunk<?> chunk = chunkCache.acquireOptimistic(fp);
+        if (chunk == null) {
+            return null;
+        }
+        if (!lock.validate(stamp)) {
+            release(fp, chunk);
+            return null;
+        }
+        chunkCache.markOptimisticHit(fp, chunk);
+        boolean committed = false;
+        try {
+            R result = optimisticTx.tx(fp, chunk, filer);
+            committed = true;
+            return result;
+        } finally {
+            if (!committed) {
+                release(fp, chunk);
+            }
+        }
+    }
+
+    /**
+     * Releases an acquisition taken by tx or optimisticTx. Only the last release of a chunk without a monkey enters the stripe.
+     */
+    public void release(long fp, Chunk<?> chunk) throws IOException, InterruptedException {
+        if (chunk.release() == 0 && chunk.monkey == null) {
+            tx(fp, (fp1, chunkCache, filer) -> {
+                chunkCache.removeIfReleased(fp1, chunk);
+                return null;
+            });
+        }
+    }
+
+    /** Synchronize externally on locks[stripe] */
+    private long writeStamp(int stripe) {
+        if (stamps != null && writeDepths[stripe]++ == 0) {
+            return stamps[stripe].writeLock();
+        }
+        return 0;
+    }
+
+    /** Synchronize externally on locks[stripe] */
+    private void unlockWriteStamp(int stripe, long stamp) {
+        if (stamps != null && --writeDepths[stripe] == 0) {
+            stamps[stripe].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs stripeTx against the root filer while holding the root and every stripe lock, so no chunk can be opened, allocated or
+     * removed meanwhile.
+     */
+    public <R> R exclusiveTx(long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
+        synchronized (root) {
+            return exclusiveTx(0, fp, stripeTx);
+        }
+    }
+
+    private <R> R exclusiveTx(int stripe, long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
+        if (stripe == locks.length) {
+            return stripeTx.tx(fp, null, root);
+        }
+        synchronized (locks[stripe]) {
+            long stamp = writeStamp(stripe);
+            try {
+                return exclusiveTx(stripe + 1, fp, stripeTx);
+            } finally {
+                unlockWriteStamp(stripe, stamp);
+            }
+        }
+    }
+
+    /**
+     * Shrinks the root filer while holding the root and every stripe lock. Each stripe re-duplicates the root on its next tx.
+     *
+     * @param length
+     * @return false when the root's ByteBufferFactory cannot truncate, see {@link AutoGrowingByteBufferBackedFiler#truncate}
+     * @throws IOException
+     */
+    public boolean truncate(long length) throws IOException, InterruptedException {
+        return exclusiveTx(-1L, (fp, chunkCache, filer) -> {
+            Arrays.fill(stripes, null);
+            return filer.truncate(length);
+        });
+    }
+
+    /**
+     * Sampled time spent waiting for and holding one stripe's monitor. Only roughly 1 in contentionSampleRate txs are timed, so scale
+     * the sums by the rate to estimate totals.
+     */
+    public static class StripeContention {
+
+        private final int stripe;
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong holdNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        StripeContention(int stripe) {
+            this.stripe = stripe;
+        }
+
+        void sample(long wait, long hold) {
+            samples.incrementAndGet();
+            waitNanos.addAndGet(wait);
+            holdNanos.addAndGet(hold);
+            long max = maxWaitNanos.get();
+            while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+                max = maxWaitNanos.get();
+            }
+            stripeSamples.inc(1);
+            stripeWaitNanos.inc(wait);
+            stripeHoldNanos.inc(hold);
+        }
+
+        public int getStripe() {
+            return stripe;
+        }
+
+        public long getSamples() {
+            return samples.get();
+        }
+
+        public long getWaitNanos() {
+            return waitNanos.get();
+        }
+
+        public long getHoldNanos() {
+            return holdNanos.get();
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos.get();
         }
     }
 
@@ -85,11 +393,9 @@ public class StripedFiler {
         R tx(long fp, ChunkCache chunkCache, AutoGrowingByteBufferBackedFiler filer) throws IOException, InterruptedException;
     }
 
-    static byte[] join(byte[] array1, byte[] array2) {
-        final byte[] joinedArray = new byte[array1.length + array2.length];
-        System.arraycopy(array1, 0, joinedArray, 0, array1.length);
-        System.arraycopy(array2, 0, joinedArray, array1.length, array2.length);
-        return joinedArray;
+    public static interface OptimisticTx<R> {
+
+        R tx(long fp, Chunk<?> chunk, AutoGrowingByteBufferBackedFiler filer) throws IOException;
     }
 
 }
@@ -15,7 +15,6 @@
  */
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.ByteBufferFactory;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkCache.CacheOpener;
 import java.io.IOException;
@@ -33,20 +32,15 @@ public class TwoPhasedChunkCache {
     private static final ChunkMetrics.ChunkMetric ROLLS_ALLOWED = ChunkMetrics.get("TwoPhasedChunkCache", "chunkCache", "rollsAllowed");
     private static final ChunkMetrics.ChunkMetric ROLLS_REFUSED = ChunkMetrics.get("TwoPhasedChunkCache", "chunkCache", "rollsRefused");
 
-    private static final byte[] name = new byte[]{0};
-
-    private final ByteBufferFactory bufferFactory;
     private ChunkCache oldCache;
     private ChunkCache newCache;
     private final int initialCacheSize;
     private final int maxNewCacheSize;
 
-    public TwoPhasedChunkCache(ByteBufferFactory bufferFactory,
-        int initialCacheSize,
+    public TwoPhasedChunkCache(int initialCacheSize,
         int maxNewCacheSize) {
-        this.bufferFactory = bufferFactory;
-        this.oldCache = new ChunkCache(name, bufferFactory);
-        this.newCache = new ChunkCache(name, bufferFactory);
+        this.oldCache = new ChunkCache();
+        this.newCache = new ChunkCache();
         this.initialCacheSize = initialCacheSize;
         this.maxNewCacheSize = maxNewCacheSize;
     }
@@ -109,7 +103,7 @@ public class TwoPhasedChunkCache {
         EVICTIONS.inc(1);
         EVICTED.inc((int) oldCache.approxSize());
         oldCache = newCache;
-        newCache = new ChunkCache(name, bufferFactory);
+        newCache = new ChunkCache();
     }
 
     public boolean contains(long chunkFP, StackBuffer stackBuffer) throws IOException {
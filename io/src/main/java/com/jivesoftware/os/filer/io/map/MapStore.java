@@ -1,6 +1,7 @@
 package com.jivesoftware.os.filer.io.map;
 
 import com.jivesoftware.os.filer.io.Filer;
+import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import java.io.IOException;
 import java.util.Arrays;
@@ -281,9 +282,23 @@ public class MapStore {
     public long add(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, int keyOffset, byte[] payload, int _payloadOffset,
         StackBuffer stackBuffer)
         throws IOException {
+        return add(filer, context, mode, keyHash, key, keyOffset, payload, _payloadOffset, 0L, stackBuffer);
+    }
+
+    /**
+     * Adds a key whose payload is a single big endian long, such as a chunk FP, without encoding it into a byte array first.
+     *
+     * @throws IllegalArgumentException if the map's payloads are smaller than a long
+     */
+    public long add(Filer filer, MapContext context, byte mode, byte[] key, long payload, StackBuffer stackBuffer) throws IOException {
+        checkLongPayload(context);
+        return add(filer, context, mode, hash(key, 0, key.length), key, 0, null, 0, payload, stackBuffer);
+    }
+
+    private long add(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, int keyOffset, byte[] payload, int _payloadOffset,
+        long longPayload, StackBuffer stackBuffer) throws IOException {
         int capacity = context.capacity;
         int keySize = context.keySize;
-        int payloadSize = context.payloadSize;
         for (long i = keyHash % (capacity - 1), j = 0, k = capacity; // stack vars for efficiency
             j < k; // max search for available slot
             i = (++i) % k, j++) { // wraps around table
@@ -296,33 +311,50 @@ public class MapStore {
                 }
                 write(filer, ai, mode);
                 write(filer, (ai + 1), 0, context.keyLengthSize, key, keySize, keyOffset, stackBuffer);
-                write(filer, (ai + 1 + context.keyLengthSize + keySize), 0, context.payloadLengthSize, payload, payloadSize, _payloadOffset,
-                    stackBuffer);
+                writePayload(filer, (ai + 1 + context.keyLengthSize + keySize), context, payload, _payloadOffset, longPayload, stackBuffer);
                 setCount(context, filer, context.count + 1, stackBuffer);
                 return i;
             }
             if (equals(filer, ai, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
                 write(filer, ai, mode);
-                write(filer, (ai + 1 + context.keyLengthSize + keySize), 0, context.payloadLengthSize, payload, payloadSize, _payloadOffset,
-                    stackBuffer);
+                writePayload(filer, (ai + 1 + context.keyLengthSize + keySize), context, payload, _payloadOffset, longPayload, stackBuffer);
                 return i;
             }
         }
         return -1;
     }
 
-    private void write(Filer filer, long offset, int destOffset, int length, byte[] key, int size, int keyOffset, StackBuffer stackBuffer) throws IOException {
+    private void writePayload(Filer filer, long offset, MapContext context, byte[] payload, int payloadOffset, long longPayload,
+        StackBuffer stackBuffer) throws IOException {
+        if (payload != null) {
+            write(filer, offset, 0, context.payloadLengthSize, payload, context.payloadSize, payloadOffset, stackBuffer);
+            return;
+        }
+        writeLength(filer, offset, context.payloadLengthSize, 8, stackBuffer);
+        filer.seek(offset + context.payloadLengthSize);
+        FilerIO.writeLong(filer, longPayload, "payload", stackBuffer);
+        int padding = context.payloadSize - 8;
+        if (padding > 0) {
+            write(filer, offset + context.payloadLengthSize + 8, new byte[padding], 0, padding);
+        }
+    }
 
-        if (length == 0) {
-        } else if (length == 1) {
-            write(filer, offset + destOffset, (byte) key.length);
-        } else if (length == 2) {
-            writeUnsignedShort(filer, offset + destOffset, key.length, stackBuffer);
-        } else if (length == 4) {
-            writeInt(filer, offset + destOffset, key.length, stackBuffer);
+    private void writeLength(Filer filer, long offset, int lengthSize, int length, StackBuffer stackBuffer) throws IOException {
+        if (lengthSize == 0) {
+        } else if (lengthSize == 1) {
+            write(filer, offset, (byte) length);
+        } else if (lengthSize == 2) {
+            writeUnsignedShort(filer, offset, length, stackBuffer);
+        } else if (lengthSize == 4) {
+            writeInt(filer, offset, length, stackBuffer);
         } else {
-            throw new RuntimeException("Unsupported length. 0,1,2,4 valid but encounterd:" + length);
+            throw new RuntimeException("Unsupported length. 0,1,2,4 valid but encounterd:" + lengthSize);
         }
+    }
+
+    private void write(Filer filer, long offset, int destOffset, int length, byte[] key, int size, int keyOffset, StackBuffer stackBuffer) throws IOException {
+
+        writeLength(filer, offset + destOffset, length, key.length, stackBuffer);
         write(filer, offset + destOffset + length, key, keyOffset, key.length);
 
         int padding = size - destOffset - key.length;
@@ -432,13 +464,57 @@ public class MapStore {
     }
 
     public byte[] getKey(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
+        return getKey(filer, context, i, null, stackBuffer);
+    }
+
+    /**
+     * Reads the key at index i into reuse when it is the right length, so callers walking many fixed size keys allocate once.
+     */
+    public byte[] getKey(Filer filer, MapContext context, long i, byte[] reuse, StackBuffer stackBuffer) throws IOException {
         long ai = index(i, context.entrySize);
         int length = length(filer, context.keyLengthSize, context.keySize, ai + 1, stackBuffer);
-        byte[] k = new byte[length];
+        byte[] k = (reuse != null && reuse.length == length) ? reuse : new byte[length];
         read(filer, ai + 1 + context.keyLengthSize, k, 0, length);
         return k;
     }
 
+    /**
+     * The key at index i is the getKeyLength bytes of filer starting here.
+     */
+    public long startOfKeyBytes(MapContext context, long i) {
+        return index(i, context.entrySize) + 1 + context.keyLengthSize;
+    }
+
+    public int getKeyLength(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
+        return length(filer, context.keyLengthSize, context.keySize, index(i, context.entrySize) + 1, stackBuffer);
+    }
+
+    /**
+     * The payload at index i is the getPayloadLength bytes of filer starting here.
+     */
+    public long startOfPayloadBytes(MapContext context, long i) {
+        return index(i, context.entrySize) + 1 + context.keyLengthSize + context.keySize + context.payloadLengthSize;
+    }
+
+    public int getPayloadLength(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
+        return length(filer, context.payloadLengthSize, context.payloadSize, index(i, context.entrySize) + 1 + context.keyLengthSize
+            + context.keySize, stackBuffer);
+    }
+
+    /**
+     * Reads the first 8 bytes of the payload at index i as a big endian long, the counterpart of adding a long payload.
+     */
+    public long getPayloadLong(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
+        checkLongPayload(context);
+        return readLong(filer, startOfPayloadBytes(context, i), stackBuffer);
+    }
+
+    private static void checkLongPayload(MapContext context) {
+        if (context.payloadSize < 8) {
+            throw new IllegalArgumentException("A long payload needs a payloadSize of at least 8 but was " + context.payloadSize);
+        }
+    }
+
     private int length(Filer filer, byte lengthSize, int size, long i, StackBuffer stackBuffer) throws IOException {
         if (lengthSize == 0) {
             return size;
@@ -706,11 +782,15 @@ public class MapStore {
         } else {
             throw new RuntimeException("Unsupported keylength=" + keyLength);
         }
-        byte[] currentKey = new byte[keySize];
         filer.seek(start);
-        filer.read(currentKey);
-        for (int i = 0; i < keySize; i++) {
-            if (currentKey[i] != b[boffset + i]) {
+        int i = 0;
+        for (; i + 8 <= keySize; i += 8) {
+            if (FilerIO.readLong(filer, "key", stackBuffer) != FilerIO.bytesLong(b, boffset + i)) {
+                return false;
+            }
+        }
+        for (; i < keySize; i++) {
+            if ((byte) filer.read() != b[boffset + i]) {
                 return false;
             }
         }
@@ -729,113 +809,42 @@ public class MapStore {
 
     int readShort(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        byte[] bytes = new byte[2];
-        filer.read(bytes);
-        short v = 0;
-        v |= (bytes[0] & 0xFF);
-        v <<= 8;
-        v |= (bytes[1] & 0xFF);
-        return v;
+        return FilerIO.readShort(filer, "short", stackBuffer);
     }
 
     int readUnsignedShort(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        byte[] bytes = new byte[2];
-        filer.read(bytes);
-        int v = 0;
-        v |= (bytes[0] & 0xFF);
-        v <<= 8;
-        v |= (bytes[1] & 0xFF);
-        return v;
+        return FilerIO.readUnsignedShort(filer, "unsignedShort", stackBuffer);
     }
 
     int readInt(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 4);
-        int v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        return v;
+        return FilerIO.readInt(filer, "int", stackBuffer);
     }
 
     float readFloat(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 4);
-        int v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        return Float.intBitsToFloat(v);
+        return Float.intBitsToFloat(FilerIO.readInt(filer, "float", stackBuffer));
     }
 
     long readLong(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 8);
-        long v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[4] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[5] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[6] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[7] & 0xFF);
-        return v;
+        return FilerIO.readLong(filer, "long", stackBuffer);
     }
 
     double readDouble(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 8);
-        long v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[4] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[5] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[6] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[7] & 0xFF);
-        return Double.longBitsToDouble(v);
+        return Double.longBitsToDouble(FilerIO.readLong(filer, "double", stackBuffer));
     }
 
     void writeUnsignedShort(Filer filer, long start, int v, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        stackBuffer.primitiveBuffer[0] = (byte) (v >>> 8);
-        stackBuffer.primitiveBuffer[1] = (byte) (v);
-        filer.write(stackBuffer.primitiveBuffer, 0, 2);
+        FilerIO.writeShort(filer, v, "unsignedShort", stackBuffer);
     }
 
     void writeInt(Filer filer, long start, int v, StackBuffer stackBuffer) throws IOException {
         filer.seek(start);
-        stackBuffer.primitiveBuffer[0] = (byte) (v >>> 24);
-        stackBuffer.primitiveBuffer[1] = (byte) (v >>> 16);
-        stackBuffer.primitiveBuffer[2] = (byte) (v >>> 8);
-        stackBuffer.primitiveBuffer[3] = (byte) (v);
-
-        filer.write(stackBuffer.primitiveBuffer, 0, 4);
+        FilerIO.writeInt(filer, v, "int", stackBuffer);
     }
 
     void read(Filer filer, long start, byte[] read, int offset, int length) throws IOException {
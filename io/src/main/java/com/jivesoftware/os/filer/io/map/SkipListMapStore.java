@@ -32,6 +32,7 @@ public class SkipListMapStore {
     private static ChunkMetrics.ChunkMetric[] addAppends = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] copyToCounts = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] copyToTimes = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkHistogram addNanos = ChunkMetrics.getHistogram("SkipListMapStore", "total", "addNanos");
 
     static {
         for (int i = 0; i < maxChunkPower; i++) {
@@ -132,6 +133,15 @@ public class SkipListMapStore {
     }
 
     public long add(Filer filer, SkipListMapContext context, byte[] key, byte[] _payload, StackBuffer stackBuffer) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return addKey(filer, context, key, _payload, stackBuffer);
+        } finally {
+            addNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    private long addKey(Filer filer, SkipListMapContext context, byte[] key, byte[] _payload, StackBuffer stackBuffer) throws IOException {
 
         int power = FilerIO.chunkPower(context.mapContext.capacity, 0);
         addCounts[power].inc(1);
@@ -149,6 +159,7 @@ public class SkipListMapStore {
         int level = context.maxHeight - 1;
         int ilevel = columnLength(filer, context, insertsIndex);
         int atIndex = context.headIndex;
+        byte[] nextKey = null; // reused across comparisons when keys are fixed size
         while (level > 0) {
             int nextIndex = rcolumnLevel(filer, context, atIndex, level, stackBuffer);
             if (nextIndex == -1) {
@@ -161,8 +172,8 @@ public class SkipListMapStore {
                 }
                 level--;
             } else {
-                int compare = context.keyComparator.compare(MapStore.INSTANCE.getKey(filer, context.mapContext, nextIndex, stackBuffer),
-                    MapStore.INSTANCE.getKey(filer, context.mapContext, insertsIndex, stackBuffer));
+                nextKey = MapStore.INSTANCE.getKey(filer, context.mapContext, nextIndex, nextKey, stackBuffer);
+                int compare = context.keyComparator.compare(nextKey, key);
                 if (compare == 0) {
                     throw new RuntimeException("should be impossible");
                 } else if (compare < 0) { // keep looking forward
@@ -299,6 +310,20 @@ public class SkipListMapStore {
         }
     }
 
+    /**
+     * Reads the first 8 bytes of the key's payload as a big endian long without copying the payload out.
+     *
+     * @return missing when the key is absent
+     */
+    public long getExistingPayloadLong(Filer filer, SkipListMapContext context, byte[] key, long missing, StackBuffer stackBuffer) throws IOException {
+        int index = (int) MapStore.INSTANCE.get(filer, context.mapContext, key, stackBuffer);
+        if (index == -1) {
+            return missing;
+        }
+        return MapStore.INSTANCE.readLong(filer, MapStore.INSTANCE.startOfPayloadBytes(context.mapContext, index) + columnSize(context.maxHeight),
+            stackBuffer);
+    }
+
     public byte[] getExistingPayload(Filer filer, SkipListMapContext context, byte[] key, StackBuffer stackBuffer) throws IOException {
         int index = (int) MapStore.INSTANCE.get(filer, context.mapContext, key, stackBuffer);
         if (index == -1) {
@@ -16,8 +16,12 @@
 package com.jivesoftware.os.filer.io;
 
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -36,6 +40,7 @@ public class AutoGrowingByteBufferBackedFilerNGTest {
             ByteBufferFactory[] bufferFactorys = new ByteBufferFactory[]{
                 new HeapByteBufferFactory(),
                 new DirectByteBufferFactory(),
+                new DirectArenaByteBufferFactory(1024 * 1024, 64 * 1024 * 1024),
                 new FileBackedMemMappedByteBufferFactory("f", 0, createTempDirectory.toFile())
             };
             for (ByteBufferFactory bf : bufferFactorys) {
@@ -59,6 +64,7 @@ public class AutoGrowingByteBufferBackedFilerNGTest {
             ByteBufferFactory[] bufferFactorys = new ByteBufferFactory[]{
                 new HeapByteBufferFactory(),
                 new DirectByteBufferFactory(),
+                new DirectArenaByteBufferFactory(1024 * 1024, 64 * 1024 * 1024),
                 new FileBackedMemMappedByteBufferFactory("f", 0, createTempDirectory.toFile())
             };
             for (ByteBufferFactory bf : bufferFactorys) {
@@ -84,6 +90,7 @@ public class AutoGrowingByteBufferBackedFilerNGTest {
             ByteBufferFactory[] bufferFactorys = new ByteBufferFactory[]{
                 new HeapByteBufferFactory(),
                 new DirectByteBufferFactory(),
+                new DirectArenaByteBufferFactory(1024 * 1024, 64 * 1024 * 1024),
                 new FileBackedMemMappedByteBufferFactory("f", 0, createTempDirectory.toFile())
             };
             for (ByteBufferFactory bf : bufferFactorys) {
@@ -119,4 +126,183 @@ public class AutoGrowingByteBufferBackedFilerNGTest {
         }
     }
 
+    @Test
+    public void lazySegmentsTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AtomicInteger allocations = new AtomicInteger();
+        ByteBufferFactory counting = new HeapByteBufferFactory() {
+            @Override
+            public ByteBuffer allocate(byte[] key, long size) {
+                allocations.incrementAndGet();
+                return super.allocate(key, size);
+            }
+        };
+
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(counting, 16, 16);
+        filer.seek(16 * 10 + 8);
+        Assert.assertEquals(allocations.get(), 1, "only the segment holding the position is mapped");
+        Assert.assertEquals(filer.length(), 16 * 11);
+
+        AutoGrowingByteBufferBackedFiler view = filer.duplicateAll();
+        Assert.assertEquals(allocations.get(), 1, "duplicating maps nothing");
+
+        view.seek(16 * 3 + 12);
+        FilerIO.writeLong(view, 42L, "value", stackBuffer);
+        Assert.assertEquals(allocations.get(), 3, "a write spanning two segments maps both");
+
+        filer.seek(16 * 3 + 12);
+        Assert.assertEquals(FilerIO.readLong(filer, "value", stackBuffer), 42L);
+        Assert.assertEquals(allocations.get(), 3, "the root sees the segments the view mapped");
+
+        AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, 16 * 5, 16 * 6);
+        duplicate.seek(16 * 5);
+        Assert.assertEquals(FilerIO.readLong(duplicate, "zero", stackBuffer), 0L);
+        Assert.assertEquals(allocations.get(), 4);
+    }
+
+    @Test
+    public void segmentDirectoryTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 4, 16);
+        filer.seek(0);
+        FilerIO.writeLong(filer, 7L, "first", stackBuffer);
+
+        // a view made before the root grew and reallocated its last segment keeps up without being duplicated again
+        AutoGrowingByteBufferBackedFiler view = filer.duplicateAll();
+        filer.seek(16 * 3000);
+        FilerIO.writeLong(filer, 3000L, "far", stackBuffer);
+        filer.seek(0);
+        FilerIO.writeLong(filer, 8L, "first", stackBuffer);
+
+        view.seek(0);
+        Assert.assertEquals(FilerIO.readLong(view, "first", stackBuffer), 8L);
+        view.seek(16 * 3000);
+        Assert.assertEquals(FilerIO.readLong(view, "far", stackBuffer), 3000L);
+        Assert.assertEquals(view.length(), filer.length());
+
+        AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, 16 * 3000, 16 * 3000 + 8);
+        duplicate.seek(16 * 3000);
+        Assert.assertEquals(FilerIO.readLong(duplicate, "far", stackBuffer), 3000L);
+        duplicate.seek(0);
+        Assert.assertEquals(FilerIO.readLong(duplicate, "first", stackBuffer), 8L, "segments outside the window are wrapped on demand");
+    }
+
+    @Test
+    public void pastOneHundredGigabytesTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 16,
+            AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE);
+        long fp = AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE * 200;
+        filer.seek(fp);
+        FilerIO.writeLong(filer, 200L, "far", stackBuffer);
+        filer.seek(fp);
+        Assert.assertEquals(FilerIO.readLong(filer, "far", stackBuffer), 200L);
+        Assert.assertTrue(filer.length() > fp);
+    }
+
+    @Test
+    public void mappedFilesAreNotTruncatedTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File directory = Files.createTempDirectory("mappedFilesAreNotTruncatedTest").toFile();
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(
+            new FileBackedMemMappedByteBufferFactory("t", 0, directory), 64, 64);
+        filer.seek(200);
+        FilerIO.writeLong(filer, 7, "tail", stackBuffer);
+        AutoGrowingByteBufferBackedFiler view = filer.duplicate(new AutoGrowingByteBufferBackedFilerDuplicateBuffer(1), 0, 208);
+        long length = filer.length();
+
+        // the older view still maps the tail, so neither the segment table nor the files may shrink
+        Assert.assertFalse(filer.truncate(100));
+        Assert.assertEquals(filer.length(), length);
+        Assert.assertEquals(new File(directory, "t-3").length(), 64);
+        view.seek(200);
+        Assert.assertEquals(FilerIO.readLong(view, "tail", stackBuffer), 7);
+    }
+
+    @Test
+    public void bulkPrimitivesTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        Path createTempDirectory = Files.createTempDirectory("bulkPrimitivesTest");
+        long[] longs = new long[100];
+        int[] ints = new int[100];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = Long.MAX_VALUE - i * 31L;
+            ints[i] = Integer.MIN_VALUE + i * 17;
+        }
+
+        ByteBufferFactory[] bufferFactorys = new ByteBufferFactory[]{
+            new HeapByteBufferFactory(),
+            new DirectByteBufferFactory(),
+            new DirectArenaByteBufferFactory(1024 * 1024, 64 * 1024 * 1024),
+            new FileBackedMemMappedByteBufferFactory("bulk", 0, createTempDirectory.toFile())
+        };
+        Filer[] filers = new Filer[bufferFactorys.length + 1];
+        for (int i = 0; i < bufferFactorys.length; i++) {
+            // odd offsets into 64 byte segments so that values straddle segments
+            filers[i] = new AutoGrowingByteBufferBackedFiler(bufferFactorys[i], 64, 64);
+        }
+        filers[bufferFactorys.length] = new RandomAccessFiler(new File(createTempDirectory.toFile(), "raf"), "rw");
+
+        for (Filer filer : filers) {
+            filer.seek(3);
+            filer.writeLongs(longs, 0, longs.length);
+            filer.writeInts(ints, 0, ints.length);
+            FilerIO.writeLongArray(filer, longs, "longs", stackBuffer);
+            FilerIO.writeIntArray(filer, ints, "ints", stackBuffer);
+
+            filer.seek(3);
+            long[] readLongs = new long[longs.length + 2];
+            filer.readLongs(readLongs, 1, longs.length);
+            Assert.assertEquals(Arrays.copyOfRange(readLongs, 1, longs.length + 1), longs, "longs " + filer);
+            int[] readInts = new int[ints.length];
+            filer.readInts(readInts, 0, ints.length);
+            Assert.assertEquals(readInts, ints, "ints " + filer);
+            Assert.assertEquals(FilerIO.readLongArray(filer, "longs", stackBuffer), longs, "long array " + filer);
+            Assert.assertEquals(FilerIO.readIntArray(filer, "ints", stackBuffer), ints, "int array " + filer);
+
+            // bulk writes are byte for byte what element wise writes would have been
+            filer.seek(3 + 8 * 7);
+            Assert.assertEquals(FilerIO.readLong(filer, "long", stackBuffer), longs[7]);
+            filer.seek(3 + 8 * longs.length + 4 * 9);
+            Assert.assertEquals(FilerIO.readInt(filer, "int", stackBuffer), ints[9]);
+            filer.close();
+        }
+    }
+
+    @Test
+    public void primitivesTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        Path createTempDirectory = Files.createTempDirectory("primitivesTest");
+        ByteBufferFactory[] bufferFactorys = new ByteBufferFactory[]{
+            new HeapByteBufferFactory(),
+            new DirectByteBufferFactory(),
+            new FileBackedMemMappedByteBufferFactory("primitives", 0, createTempDirectory.toFile())
+        };
+        for (ByteBufferFactory bf : bufferFactorys) {
+            // 16 byte segments, so every offset from 9 to 15 makes some value straddle two segments
+            AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(bf, 16, 16);
+            ByteArrayFiler expected = new ByteArrayFiler();
+            for (Filer f : new Filer[]{filer, expected}) {
+                for (int offset = 0; offset < 16; offset++) {
+                    f.seek(offset * 14);
+                    FilerIO.writeShort(f, -offset, "short", stackBuffer);
+                    FilerIO.writeInt(f, Integer.MIN_VALUE + offset, "int", stackBuffer);
+                    FilerIO.writeLong(f, Long.MAX_VALUE - offset, "long", stackBuffer);
+                }
+            }
+
+            byte[] bytes = new byte[16 * 14];
+            filer.seek(0);
+            FilerIO.read(filer, bytes);
+            Assert.assertEquals(bytes, Arrays.copyOf(expected.leakBytes(), bytes.length), "bytes " + bf);
+            for (int offset = 0; offset < 16; offset++) {
+                filer.seek(offset * 14);
+                Assert.assertEquals(FilerIO.readShort(filer, "short", stackBuffer), (short) -offset);
+                Assert.assertEquals(FilerIO.readInt(filer, "int", stackBuffer), Integer.MIN_VALUE + offset);
+                Assert.assertEquals(FilerIO.readLong(filer, "long", stackBuffer), Long.MAX_VALUE - offset);
+                filer.seek(offset * 14);
+                Assert.assertEquals(FilerIO.readUnsignedShort(filer, "unsignedShort", stackBuffer), (-offset) & 0xFFFF);
+            }
+        }
+    }
 }
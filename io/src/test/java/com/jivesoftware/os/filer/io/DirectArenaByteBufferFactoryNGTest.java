@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import java.nio.ByteBuffer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan.colt
+ */
+public class DirectArenaByteBufferFactoryNGTest {
+
+    @Test
+    public void recycleTest() throws Exception {
+        DirectArenaByteBufferFactory arena = new DirectArenaByteBufferFactory(4096, 8192);
+        ByteBuffer a = arena.allocate(null, 100);
+        Assert.assertTrue(a.isDirect());
+        Assert.assertEquals(a.capacity(), 100);
+        Assert.assertEquals(arena.getNativeBytes(), 4096);
+        Assert.assertEquals(arena.getUsedBytes(), 128);
+        a.put(0, (byte) 7);
+
+        arena.release(a);
+        Assert.assertEquals(arena.getUsedBytes(), 0);
+        Assert.assertEquals(arena.getFreeBytes(), 128);
+
+        // the released block is handed out again zeroed
+        ByteBuffer b = arena.allocate(null, 128);
+        Assert.assertEquals(b.get(0), 0);
+        Assert.assertEquals(arena.getFreeBytes(), 0);
+        Assert.assertEquals(arena.getNativeBytes(), 4096);
+
+        try {
+            arena.release(a);
+            Assert.fail("Expected a double release to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        arena.close();
+        Assert.assertEquals(arena.getNativeBytes(), 0);
+    }
+
+    @Test
+    public void reallocateAndTruncateTest() throws Exception {
+        DirectArenaByteBufferFactory arena = new DirectArenaByteBufferFactory(4096, 1024 * 1024);
+        ByteBuffer buffer = arena.allocate(null, 64);
+        for (int i = 0; i < 64; i++) {
+            buffer.put(i, (byte) i);
+        }
+        ByteBuffer old = buffer;
+        buffer = arena.reallocate(null, old, 10_000); // past a slab
+        Assert.assertEquals(buffer.capacity(), 10_000);
+        for (int i = 0; i < 64; i++) {
+            Assert.assertEquals(buffer.get(i), (byte) i);
+        }
+        Assert.assertEquals(buffer.get(64), 0);
+
+        // the old block outlives reallocate so views of it stay valid, it is only freed by an explicit release
+        Assert.assertEquals(arena.getUsedBytes(), 16_384 + 64);
+        Assert.assertEquals(arena.getFreeBytes(), 0);
+        Assert.assertEquals(old.get(63), 63);
+        arena.release(old);
+        Assert.assertEquals(arena.getUsedBytes(), 16_384);
+        Assert.assertEquals(arena.getFreeBytes(), 64);
+
+        ByteBuffer truncated = arena.truncate(null, buffer, 32);
+        Assert.assertEquals(truncated.capacity(), 32);
+        Assert.assertEquals(truncated.get(31), 31);
+        Assert.assertNull(arena.truncate(null, truncated, 0));
+        Assert.assertEquals(truncated.get(31), 31);
+        Assert.assertEquals(arena.getUsedBytes(), 16_384);
+        arena.release(null, truncated);
+        Assert.assertEquals(arena.getUsedBytes(), 0);
+
+        Assert.assertEquals(arena.trim(), 16_384);
+        Assert.assertEquals(arena.getNativeBytes(), 4096);
+    }
+
+    @Test
+    public void growingFilerRecyclesTest() throws Exception {
+        DirectArenaByteBufferFactory arena = new DirectArenaByteBufferFactory(64 * 1024, 1024 * 1024);
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(arena, 64, 64 * 1024);
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 100; i++) {
+            filer.write(bytes);
+        }
+
+        // every block the segment outgrew went back to the free lists and only the current one is in use
+        Assert.assertEquals(arena.getUsedBytes(), 128 * 1024);
+        Assert.assertTrue(arena.getFreeBytes() >= 2 * (32 * 1024));
+
+        Assert.assertTrue(filer.truncate(0));
+        Assert.assertEquals(arena.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void ceilingTest() throws Exception {
+        DirectArenaByteBufferFactory arena = new DirectArenaByteBufferFactory(1024, 2048);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = arena.allocate(null, 512);
+        }
+        Assert.assertEquals(arena.getNativeBytes(), 2048);
+        try {
+            arena.allocate(null, 64);
+            Assert.fail("Expected the ceiling to be enforced");
+        } catch (OutOfMemoryError expected) {
+        }
+
+        // a released block is split to serve smaller size classes once the ceiling is reached
+        arena.release(buffers[0]);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(arena.allocate(null, 64).capacity(), 64);
+        }
+        Assert.assertEquals(arena.getNativeBytes(), 2048);
+    }
+}
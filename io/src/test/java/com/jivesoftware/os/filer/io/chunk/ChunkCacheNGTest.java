@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan.colt
+ */
+public class ChunkCacheNGTest {
+
+    @Test
+    public void acquireReleaseRemoveTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache();
+        Map<Long, Chunk<Object>> expected = new HashMap<>();
+        Random random = new Random(1234);
+
+        for (int i = 0; i < 10_000; i++) {
+            long fp = (random.nextInt(5_000) + 1) * 4_096L;
+            if (random.nextInt(3) == 0) {
+                Chunk<Object> removed = cache.remove(fp, stackBuffer);
+                Assert.assertSame(removed, expected.remove(fp));
+            } else if (!expected.containsKey(fp)) {
+                Chunk<Object> chunk = new Chunk<>(new Object(), fp, 12, fp + 32, fp + 32 + 4_096);
+                cache.promoteAndAcquire(fp, chunk, 2, stackBuffer);
+                Assert.assertTrue(cache.release(fp, stackBuffer));
+                expected.put(fp, chunk);
+            }
+        }
+
+        Assert.assertEquals(cache.approxSize(), expected.size());
+        Assert.assertTrue(cache.isRemovable());
+        for (long fp = 4_096L; fp <= 5_000 * 4_096L; fp += 4_096L) {
+            Chunk<Object> chunk = cache.acquireIfPresent(fp, stackBuffer);
+            Assert.assertSame(chunk, expected.get(fp));
+            Assert.assertEquals(cache.contains(fp, stackBuffer), chunk != null);
+        }
+        Assert.assertFalse(cache.isRemovable());
+
+        for (long fp : expected.keySet()) {
+            Assert.assertTrue(cache.isAcquired(fp, stackBuffer));
+            Assert.assertTrue(cache.release(fp, stackBuffer));
+            Assert.assertFalse(cache.isAcquired(fp, stackBuffer));
+        }
+        Assert.assertTrue(cache.isRemovable());
+        Assert.assertFalse(cache.release(3L, stackBuffer));
+    }
+
+    @Test
+    public void releaseRemovesUnopenedChunkTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache();
+        cache.promoteAndAcquire(4_096L, new Chunk<>(null, 4_096L, 12, 4_128L, 8_224L), 2, stackBuffer);
+        Assert.assertTrue(cache.contains(4_096L, stackBuffer));
+        Assert.assertTrue(cache.release(4_096L, stackBuffer));
+        Assert.assertFalse(cache.contains(4_096L, stackBuffer));
+        Assert.assertEquals(cache.approxSize(), 0);
+    }
+
+    @Test
+    public void boundedEvictionTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache(4);
+
+        for (long fp = 4_096L; fp <= 100 * 4_096L; fp += 4_096L) {
+            cache.promoteAndAcquire(fp, new Chunk<>(new Object(), fp, 12, fp + 32, fp + 4_128L), 2, stackBuffer);
+            cache.release(fp, stackBuffer);
+            Assert.assertTrue(cache.approxSize() <= 4);
+            Assert.assertTrue(cache.contains(fp, stackBuffer));
+        }
+
+        // acquired chunks are never evicted so the bound gives way while they are in flight
+        for (long fp = 4_096L; fp <= 8 * 4_096L; fp += 4_096L) {
+            cache.promoteAndAcquire(fp, new Chunk<>(new Object(), fp, 12, fp + 32, fp + 4_128L), 2, stackBuffer);
+        }
+        Assert.assertEquals(cache.approxSize(), 8);
+        for (long fp = 4_096L; fp <= 8 * 4_096L; fp += 4_096L) {
+            Assert.assertTrue(cache.isAcquired(fp, stackBuffer));
+            cache.release(fp, stackBuffer);
+        }
+
+        cache.promoteAndAcquire(3L, new Chunk<>(new Object(), 3L, 12, 35L, 4_131L), 2, stackBuffer);
+        Assert.assertTrue(cache.approxSize() <= 8);
+        Assert.assertTrue(cache.isAcquired(3L, stackBuffer));
+    }
+}
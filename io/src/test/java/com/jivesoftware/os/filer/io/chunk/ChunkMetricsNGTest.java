@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan.colt
+ */
+public class ChunkMetricsNGTest {
+
+    @Test
+    public void concurrentIncrementsTest() throws Exception {
+        ChunkMetrics.ChunkMetric metric = ChunkMetrics.get("ChunkMetricsNGTest", "concurrent", "inc");
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    metric.inc(1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdownNow();
+        Assert.assertEquals(metric.getValue(), 800_000L);
+    }
+
+    @Test
+    public void concurrentRecordsTest() throws Exception {
+        ChunkMetrics.ChunkHistogram histogram = new ChunkMetrics.ChunkHistogram();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long max = 1_000 * (t + 1);
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % max);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdownNow();
+        ChunkMetrics.ChunkHistogram.Snapshot snapshot = histogram.snapshot(true);
+        Assert.assertEquals(snapshot.getCount(), 800_000L);
+        Assert.assertEquals(snapshot.getMax(), 7_999L);
+        Assert.assertEquals(histogram.getCount(), 0L);
+        Assert.assertEquals(histogram.getMax(), 0L);
+    }
+
+    @Test
+    public void snapshotAndResetTest() throws Exception {
+        ChunkMetrics.ChunkMetric counter = ChunkMetrics.get("ChunkMetricsNGTest", "reset", "counter");
+        ChunkMetrics.ChunkMetric gauge = ChunkMetrics.getGauge("ChunkMetricsNGTest", "reset", "gauge");
+        ChunkMetrics.ChunkHistogram histogram = ChunkMetrics.getHistogram("ChunkMetricsNGTest", "reset", "histogram");
+        counter.inc(3);
+        gauge.inc(5);
+        histogram.record(100);
+
+        Map<String, Long> snapshot = ChunkMetrics.snapshot(true);
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.counter"), Long.valueOf(3));
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.gauge"), Long.valueOf(5));
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.histogram.count"), Long.valueOf(1));
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.histogram.max"), Long.valueOf(100));
+
+        snapshot = ChunkMetrics.snapshot(false);
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.counter"), Long.valueOf(0));
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.gauge"), Long.valueOf(5));
+        Assert.assertEquals(snapshot.get("ChunkMetricsNGTest:reset.histogram.count"), Long.valueOf(0));
+    }
+
+    @Test
+    public void histogramQuantilesTest() throws Exception {
+        ChunkMetrics.ChunkHistogram histogram = new ChunkMetrics.ChunkHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        ChunkMetrics.ChunkHistogram.Snapshot snapshot = histogram.snapshot(false);
+        Assert.assertEquals(snapshot.getCount(), 10_000L);
+        Assert.assertEquals(snapshot.getMax(), 10_000L);
+        Assert.assertEquals(snapshot.getMean(), 5_000.5, 0.001);
+        assertWithin(snapshot.getQuantile(0.5), 5_000);
+        assertWithin(snapshot.getQuantile(0.99), 9_900);
+        Assert.assertEquals(snapshot.getQuantile(1.0), 10_000L);
+
+        for (long value : new long[]{0, 1, 7, 8, 9, 1_000_003, Long.MAX_VALUE}) {
+            int bucket = ChunkMetrics.ChunkHistogram.bucket(value);
+            Assert.assertTrue(ChunkMetrics.ChunkHistogram.upperBound(bucket) >= value, "value:" + value);
+            Assert.assertTrue(bucket == 0 || ChunkMetrics.ChunkHistogram.upperBound(bucket - 1) < value, "value:" + value);
+        }
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        Assert.assertTrue(actual >= expected && actual <= expected + expected / 8, "expected:" + expected + " actual:" + actual);
+    }
+}
@@ -166,6 +166,64 @@ public class MapStoreTest {
 
     }
 
+    @Test
+    public void longPayloadsAndSlices() throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        long filerSize = MapStore.INSTANCE.computeFilerSize(64, 12, true, 8, false);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(64, 12, true, 8, false, filer, stackBuffer);
+
+        for (int i = 0; i < 64; i++) {
+            // 9 to 12 byte keys so key compares take both the 8 byte and the byte at a time path
+            byte[] key = Arrays.copyOf(FilerIO.longBytes(i * 31L), 9 + (i % 4));
+            MapStore.INSTANCE.add(filer, context, (byte) 1, key, Long.MAX_VALUE - i, stackBuffer);
+        }
+
+        byte[] reuse = null;
+        for (int i = 0; i < 64; i++) {
+            byte[] key = Arrays.copyOf(FilerIO.longBytes(i * 31L), 9 + (i % 4));
+            Assert.assertEquals(MapStore.INSTANCE.get(filer, context, Arrays.copyOf(key, key.length - 1), stackBuffer), -1L);
+            long ai = MapStore.INSTANCE.get(filer, context, key, stackBuffer);
+            Assert.assertTrue(ai != -1);
+            Assert.assertEquals(MapStore.INSTANCE.getPayloadLong(filer, context, ai, stackBuffer), Long.MAX_VALUE - i);
+            Assert.assertEquals(MapStore.INSTANCE.getPayload(filer, context, ai, stackBuffer), FilerIO.longBytes(Long.MAX_VALUE - i));
+
+            Assert.assertEquals(MapStore.INSTANCE.getKeyLength(filer, context, ai, stackBuffer), key.length);
+            byte[] slice = new byte[key.length];
+            filer.seek(MapStore.INSTANCE.startOfKeyBytes(context, ai));
+            filer.read(slice);
+            Assert.assertEquals(slice, key);
+            Assert.assertEquals(MapStore.INSTANCE.getPayloadLength(filer, context, ai, stackBuffer), 8);
+            filer.seek(MapStore.INSTANCE.startOfPayloadBytes(context, ai));
+            Assert.assertEquals(filer.readLong(), Long.MAX_VALUE - i);
+
+            byte[] got = MapStore.INSTANCE.getKey(filer, context, ai, reuse, stackBuffer);
+            Assert.assertEquals(got, key);
+            if (reuse != null && reuse.length == key.length) {
+                Assert.assertSame(got, reuse);
+            }
+            reuse = got;
+        }
+    }
+
+    @Test
+    public void longPayloadNeedsRoom() throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        long filerSize = MapStore.INSTANCE.computeFilerSize(4, 1, false, 4, false);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(4, 1, false, 4, false, filer, stackBuffer);
+        MapStore.INSTANCE.add(filer, context, (byte) 1, new byte[] { 1 }, new byte[] { 1, 2, 3, 4 }, stackBuffer);
+
+        try {
+            MapStore.INSTANCE.add(filer, context, (byte) 1, new byte[] { 2 }, 7L, stackBuffer);
+            Assert.fail("Expected a long payload to be rejected by a 4 byte payload map");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(MapStore.INSTANCE.getCount(filer, stackBuffer), 1L);
+        long ai = MapStore.INSTANCE.get(filer, context, new byte[] { 1 }, stackBuffer);
+        Assert.assertEquals(MapStore.INSTANCE.getPayload(filer, context, ai, stackBuffer), new byte[] { 1, 2, 3, 4 });
+    }
+
     @Test(enabled = false)
     public void basicTest() throws IOException {
         test();
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.keyed.store;
+
+import com.jivesoftware.os.filer.io.api.ChunkTransaction;
+import com.jivesoftware.os.filer.io.api.IndexAlignedChunkTransaction;
+import com.jivesoftware.os.filer.io.api.KeyedFilerStore;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.api.StackBufferCall;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking calls of a KeyedFilerStore on an executor and hands back CompletableFutures, so callers neither build their own
+ * thread pools nor pool StackBuffers. Every thread the executor runs on gets its own StackBuffer. Futures fail with whatever the store
+ * threw, IOException and InterruptedException included.
+ *
+ * Without an executor of its own the facade runs on a fixed pool of daemon threads, several per core since the work is dominated by
+ * page faults rather than cpu, and close shuts that pool down. An executor handed in belongs to the caller.
+ *
+ * @param <H>
+ * @param <M>
+ * @author jonathan.colt
+ */
+public class AsyncKeyedFilerStore<H, M> {
+
+    private static final AtomicInteger threadIds = new AtomicInteger();
+
+    private final KeyedFilerStore<H, M> store;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor; // Nullable
+    private final ThreadLocal<StackBuffer> stackBuffers = ThreadLocal.withInitial(StackBuffer::new);
+
+    public AsyncKeyedFilerStore(KeyedFilerStore<H, M> store) {
+        this(store, Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 4), runnable -> {
+            Thread thread = new Thread(runnable, "async-keyed-filer-store-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    public AsyncKeyedFilerStore(KeyedFilerStore<H, M> store, Executor executor) {
+        this(store, executor, false);
+    }
+
+    private AsyncKeyedFilerStore(KeyedFilerStore<H, M> store, Executor executor, boolean owned) {
+        this.store = store;
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+    }
+
+    public <R> CompletableFuture<R> read(byte[] keyBytes, H newFilerInitialCapacity, ChunkTransaction<M, R> transaction) {
+        return supply(stackBuffer -> store.read(keyBytes, newFilerInitialCapacity, transaction, stackBuffer));
+    }
+
+    /**
+     * Fans the keys out across the store's partitions, see {@link KeyedFilerStore#readEachAsync}.
+     *
+     * @return a future of results, filled index aligned with eachKeyBytes
+     */
+    public <R> CompletableFuture<R[]> readEachAsync(byte[][] eachKeyBytes,
+        H newFilerInitialCapacity,
+        IndexAlignedChunkTransaction<M, R> transaction,
+        R[] results) {
+        return store.readEachAsync(eachKeyBytes, newFilerInitialCapacity, transaction, results, executor, stackBuffers::get)
+            .thenApply(ignored -> results);
+    }
+
+    /**
+     * Looks the keys up on the executor and then prefetches their filers, see {@link KeyedFilerStore#prefetch}.
+     *
+     * @return a future of the number of filers prefetched
+     */
+    public CompletableFuture<Integer> prefetch(byte[][] eachKeyBytes, boolean openFilers) {
+        return supply(stackBuffer -> store.prefetch(eachKeyBytes, openFilers, stackBuffer)).thenCompose(prefetched -> prefetched);
+    }
+
+    public <R> CompletableFuture<R> readWriteAutoGrow(byte[] keyBytes, H newFilerInitialCapacity, ChunkTransaction<M, R> transaction) {
+        return supply(stackBuffer -> store.readWriteAutoGrow(keyBytes, newFilerInitialCapacity, transaction, stackBuffer));
+    }
+
+    public <R> CompletableFuture<R> writeNewReplace(byte[] keyBytes, H newFilerInitialCapacity, ChunkTransaction<M, R> transaction) {
+        return supply(stackBuffer -> store.writeNewReplace(keyBytes, newFilerInitialCapacity, transaction, stackBuffer));
+    }
+
+    public CompletableFuture<Long> size() {
+        return supply(store::size);
+    }
+
+    public KeyedFilerStore<H, M> getStore() {
+        return store;
+    }
+
+    /**
+     * Shuts down the executor if the facade made it, calls already submitted still run. The store itself is left open.
+     */
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private <R> CompletableFuture<R> supply(StackBufferCall<R> call) {
+        return StackBufferCall.async(executor, stackBuffers::get, call);
+    }
+}
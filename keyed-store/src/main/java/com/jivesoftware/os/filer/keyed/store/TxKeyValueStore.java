@@ -30,6 +30,7 @@ import com.jivesoftware.os.filer.io.api.KeyValueContext;
 import com.jivesoftware.os.filer.io.api.KeyValueStore;
 import com.jivesoftware.os.filer.io.api.KeyValueTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapStore;
@@ -214,4 +215,8 @@ public class TxKeyValueStore<K, V> implements KeyValueStore<K, V> {
             }, stackBuffer);
         }, stackBuffer);
     }
+
+    public void compact(ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        namedMap.compact(name, compaction, stackBuffer);
+    }
 }
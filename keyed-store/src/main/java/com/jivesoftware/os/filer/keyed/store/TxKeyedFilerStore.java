@@ -34,10 +34,14 @@ import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.KeyValueStore;
 import com.jivesoftware.os.filer.io.api.KeyedFilerStore;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * @param <H>
@@ -141,6 +145,22 @@ public class TxKeyedFilerStore<H, M> implements KeyedFilerStore<H, M> {
         namedMapOfFiler.readEach(eachKeyBytes, name, eachKeyBytes, transaction, results, stackBuffer);
     }
 
+    @Override
+    public <R> CompletableFuture<Void> readEachAsync(byte[][] eachKeyBytes,
+        H newFilerInitialCapacity,
+        IndexAlignedChunkTransaction<M, R> transaction,
+        R[] results,
+        Executor executor,
+        Supplier<StackBuffer> stackBuffers) {
+        return namedMapOfFiler.readEachAsync(eachKeyBytes, name, eachKeyBytes, transaction, results, executor, stackBuffers);
+    }
+
+    @Override
+    public CompletableFuture<Integer> prefetch(byte[][] eachKeyBytes, boolean openFilers, StackBuffer stackBuffer) throws IOException,
+        InterruptedException {
+        return namedMapOfFiler.prefetch(eachKeyBytes, name, eachKeyBytes, openFilers, stackBuffer);
+    }
+
     @Override
     public <R> R readWriteAutoGrow(byte[] keyBytes,
         H newFilerInitialCapacity,
@@ -194,6 +214,10 @@ public class TxKeyedFilerStore<H, M> implements KeyedFilerStore<H, M> {
         return namedMapOfFiler.size(name, stackBuffer);
     }
 
+    public void compact(ChunkCompaction compaction, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        namedMapOfFiler.compact(name, compaction, stackBuffer);
+    }
+
     @Override
     public void close() {
     }
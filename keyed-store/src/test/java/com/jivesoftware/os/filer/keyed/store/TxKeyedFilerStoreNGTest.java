@@ -16,17 +16,21 @@ import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
 import com.jivesoftware.os.filer.io.api.HintAndTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkCompaction;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 /**
  * @author jonathan.colt
@@ -110,6 +114,84 @@ public class TxKeyedFilerStoreNGTest {
         Assert.assertEquals(count.get(), 1);
     }
 
+    @Test
+    public void asyncTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File dir = Files.createTempDirectory("testAsync").toFile();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore[] chunkStores = new ChunkStore[4];
+        for (int i = 0; i < chunkStores.length; i++) {
+            chunkStores[i] = new ChunkStoreInitializer().openOrCreate(new File[] { dir }, 0, "data" + i, 8, byteBufferFactory, 500, 5_000, stackBuffer);
+        }
+
+        TxKeyedFilerStore<Long, Void> txStore = new TxKeyedFilerStore<>(cogs,
+            0,
+            chunkStores,
+            "async".getBytes(),
+            false,
+            TxNamedMapOfFiler.CHUNK_FILER_CREATOR,
+            TxNamedMapOfFiler.CHUNK_FILER_OPENER,
+            TxNamedMapOfFiler.OVERWRITE_GROWER_PROVIDER,
+            TxNamedMapOfFiler.REWRITE_GROWER_PROVIDER);
+        AsyncKeyedFilerStore<Long, Void> store = new AsyncKeyedFilerStore<>(txStore);
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            writes.add(store.readWriteAutoGrow(FilerIO.intBytes(i), 8L, (monkey, filer, _stackBuffer, lock) -> {
+                synchronized (lock) {
+                    FilerIO.writeInt(filer, value * 10, "", _stackBuffer);
+                    return null;
+                }
+            }));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[writes.size()])).get();
+        assertEquals(store.size().get().longValue(), 100L);
+
+        int ten = store.read(FilerIO.intBytes(1), null, (monkey, filer, _stackBuffer, lock) -> {
+            synchronized (lock) {
+                filer.seek(0);
+                return FilerIO.readInt(filer, "", _stackBuffer);
+            }
+        }).get();
+        assertEquals(ten, 10);
+
+        byte[][] keys = new byte[200][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = FilerIO.intBytes(i);
+        }
+        Integer[] results = store.readEachAsync(keys, null, (monkey, filer, _stackBuffer, lock, index) -> {
+            if (filer == null) {
+                return -1;
+            }
+            synchronized (lock) {
+                filer.seek(0);
+                return FilerIO.readInt(filer, "", _stackBuffer);
+            }
+        }, new Integer[keys.length]).get();
+        for (int i = 0; i < keys.length; i++) {
+            if (i < 100) {
+                assertEquals(results[i].intValue(), i * 10, "index " + i);
+            } else {
+                assertTrue(results[i] == null || results[i] == -1, "index " + i);
+            }
+        }
+
+        assertEquals(store.prefetch(keys, false).get().intValue(), 100);
+        assertEquals(store.prefetch(keys, true).get().intValue(), 100);
+        assertEquals(chunkStores[0].prefetch(new long[] { -1, Long.MAX_VALUE }).get().intValue(), 0);
+
+        try {
+            store.read(FilerIO.intBytes(1), null, (monkey, filer, _stackBuffer, lock) -> {
+                throw new IOException("boom");
+            }).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        store.close();
+    }
+
     @Test
     public void rewriteTest() throws Exception {
         assertRewriteTest(false);
@@ -356,6 +438,108 @@ public class TxKeyedFilerStoreNGTest {
             },
             new Void[overflowCount],
             stackBuffer);
+
+        // chunks allocated for a batch which fails part way are handed back rather than leaked
+        long[] sizes = null;
+        for (int attempt = 0; attempt < 200; attempt++) {
+            try {
+                store.multiWriteNewReplace(keys,
+                    (monkey, oldFiler, stackBuffer1, oldLock, index) -> new HintAndTransaction<>(newFilerInitialCapacity,
+                        (newMonkey, newFiler, stackBuffer2, newLock) -> {
+                            if (index == 1) {
+                                throw new IOException("boom");
+                            }
+                            return null;
+                        }),
+                    new Void[keys.length],
+                    stackBuffer);
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+            if (sizes == null) {
+                sizes = new long[] { chunkStore1.sizeInBytes(), chunkStore2.sizeInBytes() };
+            }
+        }
+        assertEquals(new long[] { chunkStore1.sizeInBytes(), chunkStore2.sizeInBytes() }, sizes);
+        store.read(keys[1], null, (monkey, filer, stackBuffer1, lock) -> {
+            synchronized (lock) {
+                filer.seek(0);
+                assertEquals(FilerIO.readInt(filer, "", stackBuffer1), 21);
+            }
+            return null;
+        }, stackBuffer);
     }
 
+    @Test
+    public void compactTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        // memory mapped files are never truncated, so compact a heap backed store
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer().create(byteBufferFactory, 8, byteBufferFactory, 500, 5_000, true, stackBuffer);
+
+        TxKeyedFilerStore<Long, Void> store = new TxKeyedFilerStore<>(cogs,
+            0,
+            new ChunkStore[] { chunkStore },
+            "booya".getBytes(),
+            false,
+            TxNamedMapOfFiler.CHUNK_FILER_CREATOR,
+            TxNamedMapOfFiler.CHUNK_FILER_OPENER,
+            TxNamedMapOfFiler.OVERWRITE_GROWER_PROVIDER,
+            TxNamedMapOfFiler.REWRITE_GROWER_PROVIDER);
+
+        // shrunk filers land on the tail of the store behind the holes their larger predecessors left
+        for (long capacity : new long[] { 8_192, 512 }) {
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                store.writeNewReplace(FilerIO.intBytes(i), capacity, (monkey, filer, _stackBuffer, lock) -> {
+                    synchronized (lock) {
+                        filer.seek(0);
+                        FilerIO.writeInt(filer, value, "", _stackBuffer);
+                        return null;
+                    }
+                }, stackBuffer);
+            }
+        }
+        long sizeInBytes = chunkStore.sizeInBytes();
+
+        ChunkCompaction compaction = chunkStore.startCompaction(0, stackBuffer);
+        store.compact(compaction, stackBuffer);
+        assertTrue(compaction.getRelocatedChunks() > 0);
+        assertTrue(compaction.finish(stackBuffer) > 0);
+        assertTrue(chunkStore.sizeInBytes() < sizeInBytes);
+
+        for (int i = 0; i < 100; i++) {
+            int expected = i;
+            store.read(FilerIO.intBytes(i), -1L, (monkey, filer, _stackBuffer, lock) -> {
+                synchronized (lock) {
+                    filer.seek(0);
+                    assertEquals(FilerIO.readInt(filer, "", _stackBuffer), expected);
+                    return null;
+                }
+            }, stackBuffer);
+        }
+
+        // the compacted store keeps growing as usual
+        for (int i = 100; i < 200; i++) {
+            int value = i;
+            store.writeNewReplace(FilerIO.intBytes(i), 8_192L, (monkey, filer, _stackBuffer, lock) -> {
+                synchronized (lock) {
+                    filer.seek(0);
+                    FilerIO.writeInt(filer, value, "", _stackBuffer);
+                    return null;
+                }
+            }, stackBuffer);
+        }
+        for (int i = 0; i < 200; i++) {
+            int expected = i;
+            store.read(FilerIO.intBytes(i), -1L, (monkey, filer, _stackBuffer, lock) -> {
+                synchronized (lock) {
+                    filer.seek(0);
+                    assertEquals(FilerIO.readInt(filer, "", _stackBuffer), expected);
+                    return null;
+                }
+            }, stackBuffer);
+        }
+    }
 }